@@ -0,0 +1,43 @@
+#!/bin/sh
+#
+# Copyright (c) 2019. Gravity Analytica
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# Times single ticker runs with and without the class data sharing archive.
+# Build first with: mvn -Pappcds package
+#
+# usage: startup-benchmark.sh [home] [ticker] [runs]
+#   defaults to the training home the archive was recorded from.
+
+TARGET=$(cd "$(dirname "$0")/../../target" && pwd)
+HOME_DIR=${1:-$TARGET/appcds-home}
+TICKER=${2:-TRAIN}
+RUNS=${3:-10}
+JAR=$(ls "$TARGET"/fidelity-trades-*.jar | head -1)
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+
+# average wall time of $RUNS runs, in milliseconds
+run() {
+    start=$(date +%s%N)
+    i=0
+    while [ $i -lt "$RUNS" ]; do
+        "$JAVA" "$@" -Dcom.ga.fidelity.trades.home="$HOME_DIR" -jar "$JAR" "$TICKER" > /dev/null 2>&1
+        i=$((i + 1))
+    done
+    end=$(date +%s%N)
+    echo $(( (end - start) / RUNS / 1000000 ))
+}
+
+echo "without archive: $(run -Xshare:auto) ms"
+echo "with archive:    $(run -XX:SharedArchiveFile="$TARGET"/fidelity-trades.jsa) ms"
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.collections;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs, open addressing with linear probing. Keeps millions of values without
+ * boxing them. Zero is kept aside since it marks the empty slots. Not thread safe.
+ */
+public class LongHashSet {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] slots;
+    private int mask;
+    private int size;
+    private boolean hasZero;
+
+    public LongHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param pExpected the number of values expected, the set grows past it if needed
+     */
+    public LongHashSet(int pExpected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < pExpected * 2L && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        slots = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return true if the value was not in the set
+     */
+    public boolean add(long pValue) {
+        if (pValue == 0L) {
+            boolean rVal = !hasZero;
+            hasZero = true;
+            if (rVal) {
+                size++;
+            }
+            return rVal;
+        }
+        int i = index(pValue);
+        while (slots[i] != 0L) {
+            if (slots[i] == pValue) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = pValue;
+        size++;
+        if (size > (mask + 1) * 3L / 4) {
+            grow();
+        }
+        return true;
+    }
+
+    public boolean contains(long pValue) {
+        if (pValue == 0L) {
+            return hasZero;
+        }
+        int i = index(pValue);
+        while (slots[i] != 0L) {
+            if (slots[i] == pValue) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(slots, 0L);
+        hasZero = false;
+        size = 0;
+    }
+
+    private int index(long pValue) {
+        // spread the high bits, values that differ only there would otherwise share a slot.
+        long h = pValue * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void grow() {
+        if (slots.length == (1 << 30)) {
+            throw new IllegalStateException("LongHashSet is full");
+        }
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        mask = slots.length - 1;
+        for (long value : old) {
+            if (value != 0L) {
+                int i = index(value);
+                while (slots[i] != 0L) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = value;
+            }
+        }
+    }
+}
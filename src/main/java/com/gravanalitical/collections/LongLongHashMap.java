@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.collections;
+
+import java.util.Arrays;
+
+/**
+ * A map of primitive long keys to long values, open addressing with linear probing, meant for
+ * counters: a missing key reads as zero and {@link #addTo(long, long)} creates it. Zero is a valid
+ * key, it is kept aside since it marks the empty slots. Not thread safe.
+ */
+public class LongLongHashMap {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    private boolean hasZeroKey;
+    private long zeroValue;
+
+    public LongLongHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param pExpected the number of keys expected, the map grows past it if needed
+     */
+    public LongLongHashMap(int pExpected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < pExpected * 2L && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Adds to the value of the key, which starts at zero.
+     * @return the new value
+     */
+    public long addTo(long pKey, long pDelta) {
+        if (pKey == 0L) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue += pDelta;
+            return zeroValue;
+        }
+        int i = index(pKey);
+        while (keys[i] != 0L) {
+            if (keys[i] == pKey) {
+                values[i] += pDelta;
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = pKey;
+        values[i] = pDelta;
+        size++;
+        if (size > (mask + 1) * 3L / 4) {
+            grow();
+        }
+        return pDelta;
+    }
+
+    /**
+     * @return the value of the key, zero if it is not in the map
+     */
+    public long get(long pKey) {
+        if (pKey == 0L) {
+            return zeroValue;
+        }
+        int i = index(pKey);
+        while (keys[i] != 0L) {
+            if (keys[i] == pKey) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return 0L;
+    }
+
+    public boolean containsKey(long pKey) {
+        if (pKey == 0L) {
+            return hasZeroKey;
+        }
+        int i = index(pKey);
+        while (keys[i] != 0L) {
+            if (keys[i] == pKey) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return the keys, in no particular order
+     */
+    public long[] keys() {
+        long[] rVal = new long[size];
+        int n = 0;
+        if (hasZeroKey) {
+            rVal[n++] = 0L;
+        }
+        for (long key : keys) {
+            if (key != 0L) {
+                rVal[n++] = key;
+            }
+        }
+        return rVal;
+    }
+
+    /**
+     * Adds every value of the other map to this one.
+     */
+    public void addAll(LongLongHashMap pOther) {
+        if (pOther.hasZeroKey) {
+            addTo(0L, pOther.zeroValue);
+        }
+        for (int i = 0; i < pOther.keys.length; i++) {
+            if (pOther.keys[i] != 0L) {
+                addTo(pOther.keys[i], pOther.values[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0L);
+        Arrays.fill(values, 0L);
+        hasZeroKey = false;
+        zeroValue = 0L;
+        size = 0;
+    }
+
+    private int index(long pKey) {
+        // spread the high bits, keys that differ only there would otherwise share a slot.
+        long h = pKey * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void grow() {
+        if (keys.length == (1 << 30)) {
+            throw new IllegalStateException("LongLongHashMap is full");
+        }
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0L) {
+                int i = index(oldKeys[j]);
+                while (keys[i] != 0L) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
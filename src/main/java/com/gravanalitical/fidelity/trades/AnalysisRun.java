@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.fidelity.trades.portfolio.Portfolio;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What {@link TradeAnalysisEngine#analyze(java.util.Collection)} hands back: each ticker that was processed,
+ * the portfolio rolled up from them and the tickers that failed.
+ */
+public class AnalysisRun {
+    private final List<TickerAnalysis> tickers;
+    private final Portfolio portfolio;
+    private final Map<String, Exception> failures;
+
+    AnalysisRun(List<TickerAnalysis> pTickers, Portfolio pPortfolio, Map<String, Exception> pFailures) {
+        tickers = Collections.unmodifiableList(pTickers);
+        portfolio = pPortfolio;
+        failures = Collections.unmodifiableMap(pFailures);
+    }
+
+    /**
+     * @return the tickers processed, in the order they were asked for
+     */
+    public List<TickerAnalysis> getTickers() {
+        return tickers;
+    }
+
+    public Portfolio getPortfolio() {
+        return portfolio;
+    }
+
+    /**
+     * @return why each failed ticker failed, by ticker
+     */
+    public Map<String, Exception> getFailures() {
+        return failures;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
+import com.gravanalitical.locale.DisplayKeys;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parses one large, uncompressed day file on several threads. The trades after the header are cut
+ * into chunks at line boundaries, each chunk is parsed by a task on the common fork/join pool (idle
+ * workers steal the remaining chunks) and comes back as its trades, in file order, plus the totals
+ * of the trades the quotes classified. TradeDay merges the chunks in file order and runs the tick
+ * test over the merged trades, so the result is the same as reading the file line by line.
+ */
+class ChunkedDayParser {
+    private static final Logger log = LogManager.getLogger("fidelity.trades.TradeDay");
+    private static final int SCAN_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The trades of one chunk.
+     */
+    static class Chunk {
+        final long offset;
+        final ArrayList<TradeRecord> trades = new ArrayList<>();
+        /**
+         * The trades whose sentiment is final after the quote rule.
+         */
+        final TradeTotals totals = new TradeTotals();
+        final TradeStats stats;
+        final QuoteStats quotes = new QuoteStats();
+        /**
+         * True if the end-of-trades line was found in this chunk. Later chunks are to be ignored.
+         */
+        boolean ended;
+        /**
+         * Trade lines read and the ones that could not be parsed.
+         */
+        long lines;
+        long errors;
+
+        Chunk(long pOffset, TradeStats pStats) {
+            offset = pOffset;
+            stats = pStats;
+        }
+    }
+
+    private final File file;
+    private final GA_FidelityTradesConfig config;
+    private final TradeRecord.SentimentRule rule;
+    private final Charset charset = Charset.defaultCharset();
+    private FileChannel channel;
+    private String dateStr;
+    private long dataStart;
+
+    ChunkedDayParser(File pFile, GA_FidelityTradesConfig pConfig, TradeRecord.SentimentRule pRule) {
+        file = pFile;
+        config = pConfig;
+        rule = pRule;
+    }
+
+    /**
+     * Opens the file and reads the header lines, the same ones CSVInputReader skips plus the column names.
+     */
+    void open() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        long position = 0L;
+        int headerLines = config.getHeaderSkipLineCount() + 1;
+        for (int i = 0; i < headerLines && position < channel.size(); i++) {
+            long end = lineEnd(position);
+            if (i == config.getDateLineNumber()) {
+                byte[] line = read(position, (int) (end - position));
+                dateStr = new String(line, 0, stripCarriageReturn(line, line.length), charset);
+                log.debug(DisplayKeys.get(DisplayKeys.PROCESSING_FILE_DATE), dateStr);
+            }
+            position = Math.min(end + 1, channel.size());
+        }
+        dataStart = position;
+    }
+
+    String getDate() {
+        return dateStr;
+    }
+
+    /**
+     * @param pChunkBytes the approximate size of a chunk
+     * @return the chunks in file order
+     */
+    List<Chunk> parse(long pChunkBytes) throws IOException {
+        long size = channel.size();
+        long[] bounds = new long[16];
+        int count = 0;
+        bounds[count++] = dataStart;
+        long position = dataStart;
+        while (position < size) {
+            long next = position + Math.min(pChunkBytes, Integer.MAX_VALUE - 1);
+            position = next >= size ? size : Math.min(lineEnd(next) + 1, size);
+            if (count == bounds.length) {
+                bounds = Arrays.copyOf(bounds, count * 2);
+            }
+            bounds[count++] = position;
+        }
+        Chunk[] chunks = new Chunk[count - 1];
+        if (chunks.length > 0) {
+            ForkJoinPool.commonPool().invoke(new ParseTask(bounds, chunks, 0, chunks.length));
+        }
+        return Arrays.asList(chunks);
+    }
+
+    void close() {
+        try {
+            if (null != channel) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.error(DisplayKeys.get(DisplayKeys.ERROR_FILE_CLOSE), file.getAbsolutePath(), e);
+        }
+    }
+
+    private class ParseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] bounds;
+        private final Chunk[] chunks;
+        private final int from;
+        private final int to;
+
+        ParseTask(long[] pBounds, Chunk[] pChunks, int pFrom, int pTo) {
+            bounds = pBounds;
+            chunks = pChunks;
+            from = pFrom;
+            to = pTo;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                try {
+                    chunks[from] = parseChunk(bounds[from], bounds[from + 1]);
+                } catch (IOException e) {
+                    throw new IllegalStateException("reading file failed: " + file.getAbsolutePath(), e);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ParseTask(bounds, chunks, from, middle), new ParseTask(bounds, chunks, middle, to));
+        }
+    }
+
+    private Chunk parseChunk(long pStart, long pEnd) throws IOException {
+        Chunk chunk = new Chunk(pStart, new TradeStats(config));
+        byte[] buf = read(pStart, (int) (pEnd - pStart));
+        boolean tickTest = TradeRecord.SentimentRule.QUOTE != rule;
+        int lineStart = 0;
+        long lineCounter = 0L;
+        while (lineStart < buf.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < buf.length && buf[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            String currentLine = new String(buf, lineStart, stripCarriageReturn(buf, lineEnd) - lineStart, charset);
+            lineStart = lineEnd + 1;
+            lineCounter++;
+
+            if (currentLine.startsWith(TradeDay.END_OF_TRADES)) {
+                chunk.ended = true;
+                break;
+            }
+            if (log.isTraceEnabled()) log.trace("LINE: {}", currentLine);
+            chunk.lines++;
+            try {
+                TradeRecord tr = TradeRecord.parse(currentLine, rule);
+                chunk.trades.add(tr);
+                chunk.quotes.add(tr);
+                if (!tickTest || TradeRecord.BuySell.UNKOWN != tr.sentiment()) {
+                    chunk.totals.add(tr);
+                    chunk.stats.add(tr);
+                }
+            } catch (Exception e) {
+                chunk.errors++;
+                log.error("error processing line {} of the chunk at byte {} in file {}", lineCounter, pStart, file.getName());
+                log.error("error processing data, \"{}\"", currentLine, e);
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * @return the index of the first '\n' at or after the position, or the file size if there is none.
+     */
+    private long lineEnd(long pPosition) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long position = pPosition;
+        while (true) {
+            buf.clear();
+            int n = channel.read(buf, position);
+            if (n <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return position + i;
+                }
+            }
+            position += n;
+        }
+    }
+
+    private byte[] read(long pPosition, int pLength) throws IOException {
+        byte[] rVal = new byte[pLength];
+        ByteBuffer buf = ByteBuffer.wrap(rVal);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, pPosition + buf.position()) < 0) {
+                throw new EOFException(file.getAbsolutePath());
+            }
+        }
+        return rVal;
+    }
+
+    /**
+     * @return the end of the line once a '\r' before the '\n' is dropped, as BufferedReader.readLine() does.
+     */
+    private static int stripCarriageReturn(byte[] pBuf, int pEnd) {
+        return pEnd > 0 && pBuf[pEnd - 1] == '\r' ? pEnd - 1 : pEnd;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.File;
+
+/**
+ * Flight Recorder spans over the work on one day file, so a recording shows which file a thread was
+ * busy with. They are on by default in any recording and are switched off, or given a threshold, with
+ * the usual JFR settings under their names, e.g. fidelity.trades.DayParse#enabled=false. Without a
+ * recording they cost nothing: the fields are only filled in when the event is going to be committed.
+ */
+@Category("Fidelity Trades")
+abstract class DayFileEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Bytes")
+    @Description("Size of the file on disk, compressed for archives")
+    @DataAmount
+    long bytes;
+
+    @Label("Lines")
+    @Description("Trade lines read, including the ones that could not be parsed")
+    long lines;
+
+    @Label("Trades")
+    long trades;
+
+    @Label("Errors")
+    @Description("Trade lines that could not be parsed")
+    long errors;
+
+    /**
+     * Ends the span and commits it, if the recording wants it.
+     */
+    void finish(TradeDay pDay) {
+        end();
+        if (shouldCommit()) {
+            File dayFile = pDay.getFile();
+            file = dayFile.getName();
+            bytes = dayFile.length();
+            lines = pDay.getLineCount();
+            trades = pDay.getTradeCount();
+            errors = pDay.getErrorCount();
+            commit();
+        }
+    }
+
+    @Name("fidelity.trades.DayParse")
+    @Label("Day File Parse")
+    @Description("Reading, classifying and totalling the trades of a day file")
+    static class Parse extends DayFileEvent {
+    }
+
+    @Name("fidelity.trades.DayAggregate")
+    @Label("Day File Aggregate")
+    @Description("Adding a day to the ticker's period totals and trailing windows")
+    static class Aggregate extends DayFileEvent {
+    }
+
+    @Name("fidelity.trades.DayFormat")
+    @Label("Day File Format")
+    @Description("Writing a day to the ticker's output files")
+    static class Format extends DayFileEvent {
+    }
+}
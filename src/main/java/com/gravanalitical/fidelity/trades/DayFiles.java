@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Lists the day files of a ticker's input folder, in file name order.
+ *
+ * Day files are named for the trade date, yyyymmdd. When a date range is given, files are kept or
+ * skipped on their name alone, before they are opened or even stat'ed; names that do not start with
+ * a date are skipped.
+ *
+ * The input folder may be partitioned by date, <i>input/2020/20200102.csv</i> or
+ * <i>input/2020/01/20200102.csv</i>. Year and month folders outside the range are not listed at all.
+ */
+class DayFiles {
+    private static final Logger log = LogManager.getLogger("fidelity.trades.DayFiles");
+
+    private static final int DATE_LENGTH = 8;
+    private static final int YEAR_LENGTH = 4;
+    private static final int MONTH_LENGTH = 2;
+
+    private final String from;
+    private final String to;
+
+    /**
+     * @param pFrom the first trade date, yyyymmdd, or null for no lower bound
+     * @param pTo the last trade date, yyyymmdd, or null for no upper bound
+     */
+    DayFiles(String pFrom, String pTo) {
+        from = checkDate(pFrom);
+        to = checkDate(pTo);
+        if (null != from && null != to && from.compareTo(to) > 0) {
+            throw new IllegalArgumentException("the range starts after it ends, " + from + " to " + to);
+        }
+    }
+
+    private static String checkDate(String pDate) {
+        if (null != pDate && (pDate.length() != DATE_LENGTH || !isDigits(pDate, 0, DATE_LENGTH))) {
+            throw new IllegalArgumentException("a date is 8 digits, yyyymmdd: " + pDate);
+        }
+        return pDate;
+    }
+
+    boolean isBounded() {
+        return null != from || null != to;
+    }
+
+    /**
+     * @return the day files, sorted by name
+     */
+    List<File> list(Path pInputDir) throws IOException {
+        List<File> rVal = new ArrayList<>();
+        collect(pInputDir, "", rVal);
+        rVal.sort(Comparator.comparing(File::getName));
+        return rVal;
+    }
+
+    /**
+     * @param pPartition the date prefix of the folder, yyyy or yyyymm, empty at the top
+     */
+    private void collect(Path pDir, String pPartition, List<File> pFiles) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(pDir)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (name.startsWith(".")) {
+                    continue;
+                }
+                String partition = subPartition(pPartition, name);
+                if (null != partition) {
+                    if (overlaps(partition) && Files.isDirectory(entry)) {
+                        collect(entry, partition, pFiles);
+                    } else {
+                        log.debug("collect(Path, String, List) skipping {}", entry);
+                    }
+                } else if (isDayFile(name) && inRange(name)) {
+                    pFiles.add(entry.toFile());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the date prefix of a year folder at the top or a month folder in a year, null if the name is not one
+     */
+    private static String subPartition(String pPartition, String pName) {
+        if (pPartition.isEmpty() && pName.length() == YEAR_LENGTH && isDigits(pName, 0, YEAR_LENGTH)) {
+            return pName;
+        }
+        if (pPartition.length() == YEAR_LENGTH && pName.length() == MONTH_LENGTH && isDigits(pName, 0, MONTH_LENGTH)) {
+            return pPartition + pName;
+        }
+        return null;
+    }
+
+    private static boolean isDayFile(String pName) {
+        String name = pName.toLowerCase();
+        for (String extension : GA_FidelityTradesConfig.FILE_EXT_FOR_PROCESSING) {
+            if (name.endsWith("." + extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean inRange(String pName) {
+        if (!isBounded()) {
+            return true;
+        }
+        if (pName.length() < DATE_LENGTH || !isDigits(pName, 0, DATE_LENGTH)) {
+            log.debug("inRange(String) {} is not named for its date, skipped", pName);
+            return false;
+        }
+        String date = pName.substring(0, DATE_LENGTH);
+        return (null == from || date.compareTo(from) >= 0) && (null == to || date.compareTo(to) <= 0);
+    }
+
+    /**
+     * @param pPrefix a yyyy or yyyymm prefix
+     * @return true if some date starting with the prefix is in the range
+     */
+    private boolean overlaps(String pPrefix) {
+        return (null == from || pPrefix.compareTo(from.substring(0, pPrefix.length())) >= 0)
+                && (null == to || pPrefix.compareTo(to.substring(0, pPrefix.length())) <= 0);
+    }
+
+    private static boolean isDigits(String pValue, int pFrom, int pTo) {
+        for (int i = pFrom; i < pTo; i++) {
+            if (!Character.isDigit(pValue.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The K largest trades by some measure, kept in a fixed size min-heap while the trades go by. The
+ * smallest of the K sits at the root, so a trade that does not beat it is turned away in one compare
+ * and one that does costs log K. Nothing else is retained.
+ *
+ * Trades of equal measure rank the earlier one first, then the higher price, so the result does not
+ * depend on the order the trades were offered in and heaps of chunks or days merge to the same answer.
+ */
+public class LargestTrades {
+    private final double[] keys;
+    private final TradeRecord[] trades;
+    private int size;
+
+    public LargestTrades(int pCapacity) {
+        keys = new double[pCapacity];
+        trades = new TradeRecord[pCapacity];
+    }
+
+    public void offer(double pKey, TradeRecord pTrade) {
+        if (size < keys.length) {
+            keys[size] = pKey;
+            trades[size] = pTrade;
+            siftUp(size++);
+        } else if (size > 0 && ranksBelow(0, pKey, pTrade)) {
+            keys[0] = pKey;
+            trades[0] = pTrade;
+            siftDown(0);
+        }
+    }
+
+    public void merge(LargestTrades pOther) {
+        for (int i = 0; i < pOther.size; i++) {
+            offer(pOther.keys[i], pOther.trades[i]);
+        }
+    }
+
+    /**
+     * @return the trades kept, largest first
+     */
+    public List<TradeRecord> getTrades() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> ranksBelow(a, keys[b], trades[b]) ? 1 : ranksBelow(b, keys[a], trades[a]) ? -1 : 0);
+        List<TradeRecord> rVal = new ArrayList<>(size);
+        for (Integer i : order) {
+            rVal.add(trades[i]);
+        }
+        return rVal;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the entry at pIndex ranks below the given trade
+     */
+    private boolean ranksBelow(int pIndex, double pKey, TradeRecord pTrade) {
+        int rVal = Double.compare(keys[pIndex], pKey);
+        if (0 == rVal) {
+            // the later trade ranks below.
+            rVal = compareTimes(pTrade.getTimeStr(), trades[pIndex].getTimeStr());
+        }
+        if (0 == rVal) {
+            rVal = trades[pIndex].getPrice().compareTo(pTrade.getPrice());
+        }
+        return rVal < 0;
+    }
+
+    /**
+     * Compares the times of day, "9:59:59" before "10:00:00". Times that are not H:MM:SS come first and
+     * are ordered by their text.
+     */
+    private static int compareTimes(String pFirst, String pSecond) {
+        int rVal = Integer.compare(QuoteStats.secondsOf(pFirst), QuoteStats.secondsOf(pSecond));
+        if (0 != rVal || Objects.equals(pFirst, pSecond)) {
+            return rVal;
+        }
+        if (null == pFirst || null == pSecond) {
+            return null == pFirst ? -1 : 1;
+        }
+        return pFirst.compareTo(pSecond);
+    }
+
+    private void siftUp(int pIndex) {
+        int child = pIndex;
+        while (child > 0) {
+            int parent = (child - 1) >>> 1;
+            if (!ranksBelow(child, keys[parent], trades[parent])) {
+                return;
+            }
+            swap(child, parent);
+            child = parent;
+        }
+    }
+
+    private void siftDown(int pIndex) {
+        int parent = pIndex;
+        while (true) {
+            int smallest = parent;
+            int left = 2 * parent + 1;
+            int right = left + 1;
+            if (left < size && ranksBelow(left, keys[smallest], trades[smallest])) {
+                smallest = left;
+            }
+            if (right < size && ranksBelow(right, keys[smallest], trades[smallest])) {
+                smallest = right;
+            }
+            if (smallest == parent) {
+                return;
+            }
+            swap(parent, smallest);
+            parent = smallest;
+        }
+    }
+
+    private void swap(int pFirst, int pSecond) {
+        double key = keys[pFirst];
+        keys[pFirst] = keys[pSecond];
+        keys[pSecond] = key;
+        TradeRecord trade = trades[pFirst];
+        trades[pFirst] = trades[pSecond];
+        trades[pSecond] = trade;
+    }
+}
@@ -17,24 +17,42 @@
 
 package com.gravanalitical.fidelity.trades;
 
+import com.gravanalitical.fidelity.trades.checkpoint.Quarantine;
+import com.gravanalitical.fidelity.trades.checkpoint.RunCheckpoint;
 import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
-import com.gravanalitical.fidelity.trades.format.TradeDayFormatFactory;
-import com.gravanalitical.fidelity.trades.format.TradeDayPresentation;
-import com.gravanalitical.fidelity.trades.format.TradeMonthAsTabular;
+import com.gravanalitical.fidelity.trades.format.CorrelationAsBinary;
+import com.gravanalitical.fidelity.trades.format.CorrelationAsCSV;
+import com.gravanalitical.fidelity.trades.format.PortfolioAsCSV;
+import com.gravanalitical.fidelity.trades.portfolio.CorrelationJob;
+import com.gravanalitical.fidelity.trades.portfolio.CorrelationMatrix;
+import com.gravanalitical.fidelity.trades.portfolio.Portfolio;
+import com.gravanalitical.fidelity.trades.portfolio.PortfolioRollup;
+import com.gravanalitical.fidelity.trades.portfolio.TickerResult;
+import com.gravanalitical.fidelity.trades.server.QueryServer;
+import com.gravanalitical.fidelity.trades.shard.ShardMerge;
+import com.gravanalitical.fidelity.trades.shard.TickerLeases;
 import com.gravanalitical.locale.DisplayKeys;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.ThreadContext;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  *
@@ -57,13 +75,94 @@ import java.util.TreeSet;
  * <b>Example</b><br>
  * -Dcom.ga.fidelity.trades.home=/users/mary/trade_data GWRE
  *
+ * <i>--from=yyyymmdd</i> and <i>--to=yyyymmdd</i> limit the run to the day files named for dates in that range,
+ * the other files are not opened. The input folder may be split into year, or year and month, folders
+ * (<i>input/2020/01/20200102.csv</i>); the folders outside the range are not listed.
+ * <b>Example</b><br>
+ * -Dcom.ga.fidelity.trades.home=/users/mary/trade_data --from=20200106 --to=20200110 GWRE
+ *
+ * At the end of the run the tickers processed are rolled up into <i>portfolio.csv</i> in the home directory.
+ * With <i>--correlate</i> the daily buy pressure and the daily returns of every pair of them are correlated too,
+ * into <i>correlation.pressure.bin</i> and <i>correlation.returns.bin</i>, with the most correlated pairs in
+ * <i>correlation.pressure.top.csv</i> and <i>correlation.returns.top.csv</i>.
+ *
+ * Each finished ticker is checkpointed. If a run is interrupted, the next run with the same tickers resumes at the
+ * first unfinished one, unless <i>--restart</i> is passed. Day files that cannot be read are moved to the ticker's
+ * <i>quarantine</i> folder and listed in <i>quarantine.txt</i>; the run carries on without them.
+ *
+ * Several processes, on one box or on several boxes mounting the same home directory, can split the
+ * tickers between them with <i>--shard</i>. Each ticker is claimed through a lease file before it is processed.
+ * When all of them are done, one more run with <i>--merge</i> combines the results into <i>merged.csv</i>.
+ * <b>Example</b><br>
+ * -Dcom.ga.fidelity.trades.home=/mnt/share/trade_data --shard<br>
+ * -Dcom.ga.fidelity.trades.home=/mnt/share/trade_data --merge
+ *
+ * With <i>--serve</i> the processed tickers are not processed again but queried over HTTP, see {@link QueryServer}.
+ * <b>Example</b><br>
+ * -Dcom.ga.fidelity.trades.home=/users/mary/trade_data --serve<br>
+ * curl "http://localhost:8080/aggregate?ticker=GWRE&amp;days=5"
+ *
+ * A Flight Recorder recording of a run gets a <i>fidelity.trades.Ticker</i> event for each ticker and
+ * <i>fidelity.trades.DayParse</i>, <i>DayAggregate</i> and <i>DayFormat</i> events for each day file, with the
+ * file name, size, lines, trades and parse errors, under the <i>Fidelity Trades</i> category in JMC.
+ * <b>Example</b><br>
+ * java -XX:StartFlightRecording=filename=run.jfr -Dcom.ga.fidelity.trades.home=/users/mary/trade_data ...
+ *
+ * To run the analysis inside another program, use a {@link TradeAnalysisEngine} instead.
+ *
  */
 public class Main {
     private static final Logger log = LogManager.getLogger("fidelity.trades.Main");
-    private int fileCounter = 0;
-    private TradeMonth monthly;
-    private static boolean HAS_ARGS = false;
-    private static TreeSet<String> TICKER_ARGS = new TreeSet();
+    private final TreeSet<String> tickerArgs = new TreeSet<>();
+
+    /**
+     * Command line arguments starting with this prefix are options, all others are ticker symbols.
+     */
+    static final String OPTION_PREFIX = "--";
+    /**
+     * Claim tickers through lease files so several processes can share one home directory.
+     */
+    static final String SHARD_OPTION = "--shard";
+    /**
+     * Combine the per-ticker results of a sharded run once all the workers are finished.
+     */
+    static final String MERGE_OPTION = "--merge";
+    /**
+     * Ignore the checkpoint of an interrupted run and process every ticker again.
+     */
+    static final String RESTART_OPTION = "--restart";
+    /**
+     * Answer aggregate queries over HTTP from the processed tickers instead of processing them, see {@link QueryServer}.
+     */
+    static final String SERVE_OPTION = "--serve";
+    /**
+     * --from=yyyymmdd, skip the day files named for an earlier date.
+     */
+    static final String FROM_OPTION = "--from";
+    /**
+     * --to=yyyymmdd, skip the day files named for a later date.
+     */
+    static final String TO_OPTION = "--to";
+
+    /**
+     * Also correlate the daily buy pressure and returns of every pair of tickers at the end of the run, see {@link CorrelationJob}.
+     */
+    static final String CORRELATE_OPTION = "--correlate";
+
+    /**
+     * Written to the home directory at the end of a run, see {@link PortfolioAsCSV}.
+     */
+    static final String PORTFOLIO_FILE_NAME = "portfolio." + GA_FidelityTradesConfig.CSV_FILE_EXTENSION;
+    /**
+     * With --correlate, correlation.pressure.bin and correlation.pressure.top.csv, the same for returns.
+     */
+    static final String CORRELATION_FILE_PREFIX = "correlation.";
+    static final String CORRELATION_MATRIX_SUFFIX = ".bin";
+    static final String CORRELATION_TOP_SUFFIX = ".top." + GA_FidelityTradesConfig.CSV_FILE_EXTENSION;
+
+    private final TreeSet<String> options = new TreeSet<>();
+    private final List<TickerResult> results = new ArrayList<>();
+    private final DayFiles dayFiles;
 
     @SuppressWarnings({"unused"})
     public Main(String[] args) {
@@ -72,38 +171,164 @@ public class Main {
                 log.info("Main(String[]) - arg: {}", arg);
             }
         }
-        HAS_ARGS = args.length > 0;
-        if(HAS_ARGS) {
-            for(String arg:args) {
-                TICKER_ARGS.add(arg);
+        for(String arg:args) {
+            if(arg.startsWith(OPTION_PREFIX)) {
+                options.add(arg);
+            } else {
+                tickerArgs.add(arg);
             }
         }
+        dayFiles = new DayFiles(optionValue(FROM_OPTION), optionValue(TO_OPTION));
+    }
+
+    boolean hasOption(String pOption) {
+        return options.contains(pOption);
+    }
+
+    /**
+     * @return the value of an option given as --name=value, null if it was not given
+     */
+    String optionValue(String pOption) {
+        String prefix = pOption + "=";
+        for(String option : options) {
+            if(option.startsWith(prefix)) {
+                return option.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * What the checkpoint of a run is kept under: the tickers and the date range.
+     */
+    private List<String> checkpointSelection() {
+        List<String> rVal = new ArrayList<>(tickerArgs);
+        if(dayFiles.isBounded()) {
+            String from = optionValue(FROM_OPTION);
+            String to = optionValue(TO_OPTION);
+            rVal.add((null == from ? "" : from) + "-" + (null == to ? "" : to));
+        }
+        return rVal;
     }
 
     public static void main(String[] args) {
         log.info(DisplayKeys.get(DisplayKeys.STARTUP));
-        Main app = new Main(args);
+        Main app;
+        try {
+            app = new Main(args);
+        } catch(IllegalArgumentException ex) {
+            // a bad --from or --to.
+            log.error("main(String[]) {}, nothing processed.", ex.getMessage());
+            return;
+        }
         try {
             // The home directory has folders for each ticker symbol to be analyzed.
             String baseDir = System.getProperty(GA_FidelityTradesConfig.PropertyConstants.HOME_KEY);
             File dir = FileUtils.getFile(baseDir);
-            File[] files = dir.listFiles();
+            File[] files = app.tickerDirectories(dir);
             if(null == files) {
                 log.error("No directories to process.");
             } else {
-                GA_FidelityTradesConfig.init(baseDir);
-                Arrays.stream(files).filter(File::isDirectory).forEach(file -> {
-                    if(HAS_ARGS && !TICKER_ARGS.contains(file.getName())) {
-                        log.debug(" main(String[]) skipping {}", file);
-                    } else {
-                        String baseDirName = file.getAbsolutePath();
-                        String tickerSymbol = file.getName();
+                GA_FidelityTradesConfig config = GA_FidelityTradesConfig.init(baseDir);
+                if(app.hasOption(SERVE_OPTION)) {
+                    // the server's threads keep the JVM running.
+                    new QueryServer(config).start(config.getServerPort());
+                    return;
+                }
+                if(app.hasOption(MERGE_OPTION)) {
+                    app.mergeShards(config);
+                    return;
+                }
+                TradeAnalysisEngine engine = new TradeAnalysisEngine(config, app.optionValue(FROM_OPTION), app.optionValue(TO_OPTION));
+                Quarantine quarantine = new Quarantine(baseDir);
+                RunCheckpoint checkpoint = new RunCheckpoint(baseDir, app.checkpointSelection());
+                if(app.hasOption(RESTART_OPTION)) {
+                    checkpoint.clear();
+                } else if(checkpoint.finishedCount() > 0) {
+                    log.info("main(String[]) resuming, {} tickers were finished before.", checkpoint.finishedCount());
+                }
+                try (TickerLeases leases = app.hasOption(SHARD_OPTION)
+                        ? new TickerLeases(baseDir, TickerLeases.defaultOwner(), config.getShardLeaseSeconds())
+                        : null) {
+                    Arrays.sort(files, Comparator.comparing(File::getName));
+                    List<String> tickers = new ArrayList<>();
+                    for (File file : files) {
+                        if (file.isDirectory() && !file.getName().startsWith(".")) {
+                            tickers.add(file.getName());
+                        }
+                    }
+                    // tickers may finish in any order, the results are kept in name order.
+                    Map<String, TickerResult> finished = new ConcurrentHashMap<>();
+                    Consumer<String> task = tickerSymbol -> {
+                        try {
+                            if(checkpoint.isFinished(tickerSymbol)) {
+                                log.info(" main(String[]) {} was finished before, skipping", tickerSymbol);
+                                if(null == leases) {
+                                    finished.put(tickerSymbol, checkpoint.load(tickerSymbol));
+                                }
+                                return;
+                            }
+                            if(null != leases && !leases.claim(tickerSymbol)) {
+                                log.debug(" main(String[]) {} is claimed by another worker", tickerSymbol);
+                                return;
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        String baseDirName = new File(baseDir, tickerSymbol).getAbsolutePath();
                         ThreadContext.put("ticker", tickerSymbol);
                         log.info(DisplayKeys.get(DisplayKeys.PROCESSING_FILE), baseDirName);
-                        app.processDirectory(baseDirName, tickerSymbol);
-                        ThreadContext.pop();
+                        boolean done = false;
+                        try {
+                            TickerResult result = engine.analyzeTicker(tickerSymbol, quarantine).getResult();
+                            checkpoint.record(result);
+                            done = true;
+                            finished.put(tickerSymbol, result);
+                        } catch (Exception e) {
+                            // one ticker failing does not stop the others.
+                            quarantine.reportTicker(tickerSymbol, e);
+                        } finally {
+                            try {
+                                if (null != leases) {
+                                    // a ticker that failed is left for another worker, or the next run, to try again.
+                                    if (done) {
+                                        leases.complete(tickerSymbol);
+                                    } else {
+                                        leases.release(tickerSymbol);
+                                    }
+                                }
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            } finally {
+                                ThreadContext.pop();
+                            }
+                        }
+                    };
+                    int tickerWorkers = config.getTickerWorkers();
+                    if(tickerWorkers > 1 && tickers.size() > 1) {
+                        new TickerScheduler(tickerWorkers).run(TickerScheduler.largestFirst(engine.estimateWork(tickers)), task);
+                    } else {
+                        tickers.forEach(task);
+                    }
+                    for (String tickerSymbol : tickers) {
+                        if (finished.containsKey(tickerSymbol)) {
+                            app.results.add(finished.get(tickerSymbol));
+                        }
                     }
-                });
+                }
+                if(app.hasOption(SHARD_OPTION)) {
+                    log.info("main(String[]) this worker has only some of the tickers, no portfolio is written.");
+                } else {
+                    app.writePortfolio(config);
+                    if(app.hasOption(CORRELATE_OPTION)) {
+                        app.writeCorrelations(config);
+                    }
+                    checkpoint.clear();
+                }
+                if(quarantine.getFileCount() > 0 || quarantine.getTickerCount() > 0) {
+                    log.warn("main(String[]) {} files quarantined and {} tickers failed, see {}", quarantine.getFileCount(),
+                            quarantine.getTickerCount(), new File(baseDir, Quarantine.REPORT_FILE_NAME).getAbsolutePath());
+                }
             }
         } catch(Exception ex) {
             log.error(DisplayKeys.get(DisplayKeys.ERROR), ex);
@@ -112,95 +337,86 @@ public class Main {
     }
 
     /**
-     *
-     * Traverses all directories and processes the inputs for each. Each directory is a ticker symbol.
-     *
-     * @param baseDireName
-     * @param tickerSymbol
+     * Named tickers are looked up directly, the home directory is only listed when no tickers are named.
+     * @return the candidate ticker directories, null if the home directory cannot be read
      */
-    private void processDirectory(String baseDireName, String tickerSymbol) {
-        GA_FidelityTradesConfig config = GA_FidelityTradesConfig.getInstance();
-        monthly = new TradeMonth(config);
-        String OUT_HEADER = config.getOutputHeader();
-        String outStr = config.getHomeDir();
-        String ticker = tickerSymbol;
-        File outfile;
-        String inDirStr;
-        Collection<File> inputList;
-        TreeSet<File> sortedInputList;
-        String fileSeparator = System.getProperty("file.separator");
-
-        TradeMonthAsTabular monthFormatter = new TradeMonthAsTabular();
-
-        outfile = new File(outStr + fileSeparator + ticker + fileSeparator + ticker + "." + GA_FidelityTradesConfig.CSV_FILE_EXTENSION);
-        log.debug(DisplayKeys.get(DisplayKeys.PROCESSING_OUTPUT_FILE), outfile.getAbsolutePath());
-
-        try (   FileWriter outFileWriter = new FileWriter(outfile);
-                PrintWriter pw = new PrintWriter(outFileWriter);
-                FileWriter summaryFileWriter = new FileWriter(baseDireName + "/summary.txt");
-                PrintWriter summaryPrintWriter = new PrintWriter(summaryFileWriter)
-             ) {
-
-            pw.println(OUT_HEADER);
-
-            inDirStr = config.getHomeDir() + "/" + ticker + "/input"; // The input dir will be the HOME dir.
-            inputList = FileUtils.listFiles(new File(inDirStr),GA_FidelityTradesConfig.FILE_EXT_FOR_PROCESSING,false);
-            sortedInputList = new TreeSet<>(Comparator.comparing(File::getName));
-
-            sortedInputList.addAll(inputList);
-            this.fileCounter = 0; // a file per day.
-
-            sortedInputList.forEach( aFile -> {
-                String currentFileName = aFile.getName();
+    private File[] tickerDirectories(File pHome) {
+        if(tickerArgs.isEmpty()) {
+            return pHome.listFiles();
+        }
+        if(!pHome.isDirectory()) {
+            return null;
+        }
+        List<File> rVal = new ArrayList<>();
+        for(String ticker : tickerArgs) {
+            File tickerDir = new File(pHome, ticker);
+            if(tickerDir.isDirectory()) {
+                rVal.add(tickerDir);
+            } else {
+                log.warn("tickerDirectories(File) no directory for {} in {}", ticker, pHome);
+            }
+        }
+        return rVal.toArray(new File[0]);
+    }
 
-                if(currentFileName.startsWith(".")) {
-                    log.debug(DisplayKeys.get(DisplayKeys.SKIPPING_HIDDEN_FILE),currentFileName);
-                }
+    /**
+     * Rolls up every ticker processed in this run into the portfolio file in the home directory.
+     */
+    private void writePortfolio(GA_FidelityTradesConfig config) throws IOException {
+        Portfolio portfolio = PortfolioRollup.rollup(results);
+        File portfolioFile = new File(config.getHomeDir(), PORTFOLIO_FILE_NAME);
+        log.info(DisplayKeys.get(DisplayKeys.PROCESSING_OUTPUT_FILE), portfolioFile.getAbsolutePath());
+        try (PrintWriter pw = new PrintWriter(new FileWriter(portfolioFile))) {
+            new PortfolioAsCSV().formatPortfolio(portfolio, pw);
+        }
+    }
 
-                if(log.isDebugEnabled()) {
-                    log.debug(DisplayKeys.get(DisplayKeys.PROCESSING_FILE),currentFileName);
-                }
+    /**
+     * Correlates every pair of tickers processed in this run and writes the matrices and the top pairs.
+     */
+    private void writeCorrelations(GA_FidelityTradesConfig config) throws IOException {
+        int minDays = config.getCorrelationMinDays();
+        int top = config.getCorrelationTop();
+        writeCorrelation(config, "pressure", CorrelationJob.buyPressure(results, minDays, top));
+        writeCorrelation(config, "returns", CorrelationJob.returns(results, minDays, top));
+    }
 
-                TradeDay aDay = new TradeDay(aFile, config);
-                aDay.process();
-
-                if(!aDay.isEmpty()) {
-                    updateMonthlyValues(aDay);
-                    this.fileCounter++;
-                    aDay.setDayOrdinal(this.fileCounter);
-                    TradeDayPresentation formatter = TradeDayFormatFactory.getCsvFormatter();
-                    String logMessage = formatter.formatTradeDay(aDay);
-                    if(true) {
-                        summaryPrintWriter.println(TradeDayFormatFactory.getTabularFormatter().formatTradeDay(aDay));
-                        log.info("{}", logMessage);
-                    }
-                    if(true) {
-                        try {
-                            aDay.writeSummary(pw, formatter);
-                            pw.flush();
-                        } catch (Exception e) {
-                            log.error(DisplayKeys.get(DisplayKeys.ERROR), e);
-                            System.exit(-1);
-                        }
-                    }
-                }
-            });
-            summaryPrintWriter.println(monthFormatter.formatTradeMonth(this.monthly));
-        } catch (IOException e) {
-            log.error(DisplayKeys.get(DisplayKeys.ERROR_PROC_FILE),outfile.getName(), e);
-            System.exit(-1);
+    private void writeCorrelation(GA_FidelityTradesConfig config, String pSeries, CorrelationMatrix pMatrix) throws IOException {
+        File matrixFile = new File(config.getHomeDir(), CORRELATION_FILE_PREFIX + pSeries + CORRELATION_MATRIX_SUFFIX);
+        File topFile = new File(config.getHomeDir(), CORRELATION_FILE_PREFIX + pSeries + CORRELATION_TOP_SUFFIX);
+        log.info(DisplayKeys.get(DisplayKeys.PROCESSING_OUTPUT_FILE), matrixFile.getAbsolutePath());
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(matrixFile))) {
+            new CorrelationAsBinary().formatMatrix(pMatrix, out);
+        }
+        try (PrintWriter pw = new PrintWriter(new FileWriter(topFile))) {
+            new CorrelationAsCSV().formatTopPairs(pMatrix, pw);
         }
     }
 
-    private void updateMonthlyValues(TradeDay pADay) {
-        this.monthly.addTotalVolume(pADay.getVolume());
-        this.monthly.addTotalBuyVolume(pADay.getBuyVolume());
-        this.monthly.addTotalSellVolume(pADay.getSellVolume());
-        this.monthly.addTotalUnknownVolume(pADay.getUnknownVolume());
-
-        this.monthly.addTotalDollars(pADay.getDollarVolume());
-        this.monthly.addTotalBuyDollars(pADay.getBuyDollarVolume());
-        this.monthly.addTotalSellDollars(pADay.getSellDollarVolume());
-        this.monthly.addTotalUnknownDollars(pADay.getUnknownDollarVolume());
+    /**
+     * The last step of a sharded run, see {@link ShardMerge}.
+     */
+    private void mergeShards(GA_FidelityTradesConfig config) throws IOException {
+        List<String> tickers = ShardMerge.listTickers(config.getHomeDir());
+        if(!tickerArgs.isEmpty()) {
+            tickers.retainAll(tickerArgs);
+        }
+        try (TickerLeases leases = new TickerLeases(config.getHomeDir(), TickerLeases.defaultOwner(), config.getShardLeaseSeconds())) {
+            if(!new ShardMerge(config, leases).merge(tickers)) {
+                System.exit(-1);
+            }
+        }
+        // the workers checkpoint every ticker they finish, which is what the portfolio is rolled up from.
+        RunCheckpoint checkpoint = new RunCheckpoint(config.getHomeDir(), checkpointSelection());
+        for (String ticker : tickers) {
+            if (checkpoint.isFinished(ticker)) {
+                results.add(checkpoint.load(ticker));
+            }
+        }
+        writePortfolio(config);
+        if(hasOption(CORRELATE_OPTION)) {
+            writeCorrelations(config);
+        }
+        checkpoint.clear();
     }
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * A heap budget for the trades an engine holds, shared by all the tickers it runs at the same time.
+ *
+ * Day files are only read ahead while the estimate of their parsed trades fits, see {@link #estimate(File)};
+ * a ticker with nothing in flight still reads its next day, so every ticker moves on and the budget is
+ * overshot by at most a day per running ticker. A day handed on with more trades than fit lets go of them:
+ * when the summary lists the trades they are written to a sorted run file and streamed back from it, see
+ * {@link TradeDay#listTrades(java.util.function.Consumer)}, otherwise they are dropped. The totals and
+ * stats of the day are kept either way. The run files go to a folder of this governor's own, made in the
+ * configured spill folder on the first spill, and are deleted once they are listed; the folder is deleted
+ * when the last ticker reading days on this governor is done, see {@link #enter()}.
+ */
+public class MemoryGovernor {
+    private static final Logger log = LogManager.getLogger("fidelity.trades.MemoryGovernor");
+
+    /**
+     * A trade line in the export, roughly. Archives are taken to hold ARCHIVE_RATIO times their size.
+     */
+    static final long LINE_BYTES = 48L;
+    static final long ARCHIVE_RATIO = 8L;
+
+    private final long budget;
+    private final Path spillRoot;
+    private Path spillDir;
+    private int readers;
+    private long reserved;
+    private long peak;
+    private long spilledDays;
+    private long droppedDays;
+
+    /**
+     * @param pBudget the estimated bytes the held trades may take up
+     * @param pSpillRoot the folder to make this governor's run file folder in
+     */
+    public MemoryGovernor(long pBudget, Path pSpillRoot) {
+        budget = pBudget;
+        spillRoot = pSpillRoot;
+    }
+
+    /**
+     * @return the estimated heap the file's trades take once parsed
+     */
+    static long estimate(File pFile) {
+        String name = pFile.getName().toLowerCase();
+        long lines = pFile.length() / LINE_BYTES;
+        if (!name.endsWith("." + GA_FidelityTradesConfig.CSV_FILE_EXTENSION)) {
+            lines *= ARCHIVE_RATIO;
+        }
+        return lines * TradeDayCache.TRADE_BYTES;
+    }
+
+    /**
+     * @param pForce take the bytes even if they do not fit
+     * @return true if the bytes were reserved and have to be released
+     */
+    synchronized boolean tryReserve(long pBytes, boolean pForce) {
+        if (!pForce && reserved + pBytes > budget) {
+            return false;
+        }
+        reserved += pBytes;
+        peak = Math.max(peak, reserved);
+        return true;
+    }
+
+    synchronized void release(long pBytes) {
+        reserved -= pBytes;
+    }
+
+    /**
+     * Reserves the day's trades, or lets go of them if they do not fit.
+     * @param pListedOnly true if the trades are needed for no more than the summary listing; when false
+     * they are always kept
+     * @return the bytes reserved, to be released once the day is done with
+     * @throws IOException if the trades cannot be spilled
+     */
+    long retain(TradeDay pDay, boolean pListedOnly) throws IOException {
+        long bytes = TradeDayCache.TRADE_BYTES * pDay.getTradeList().size();
+        if (tryReserve(bytes, !pListedOnly)) {
+            return bytes;
+        }
+        if (pDay.getConfig().includeTrades()) {
+            pDay.spillTrades(spillDir());
+            log.debug("retain(TradeDay, boolean) {} trades of {} spilled", pDay.getTradeCount(), pDay.getDayKey());
+            synchronized (this) {
+                spilledDays++;
+            }
+        } else {
+            pDay.dropTrades();
+            synchronized (this) {
+                droppedDays++;
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * A ticker starts reading its days, the spill folder is kept until it calls {@link #leave()}.
+     */
+    synchronized void enter() {
+        readers++;
+    }
+
+    /**
+     * A ticker is done with its days. Once no ticker is reading, the spill folder is deleted.
+     */
+    synchronized void leave() {
+        if (--readers > 0 || null == spillDir) {
+            return;
+        }
+        try (Stream<Path> left = Files.list(spillDir)) {
+            for (Path file : (Iterable<Path>) left::iterator) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(spillDir);
+        } catch (IOException e) {
+            log.warn("leave() could not delete {}", spillDir, e);
+        }
+        spillDir = null;
+    }
+
+    private synchronized Path spillDir() throws IOException {
+        if (null == spillDir) {
+            spillDir = Files.createTempDirectory(Files.createDirectories(spillRoot), "engine-");
+        }
+        return spillDir;
+    }
+
+    /**
+     * @return the folder of the run files, null while no day is spilled
+     */
+    public synchronized Path getSpillDir() {
+        return spillDir;
+    }
+
+    /**
+     * @return the estimated bytes reserved now
+     */
+    public synchronized long getReserved() {
+        return reserved;
+    }
+
+    /**
+     * @return the most bytes reserved at one time
+     */
+    public synchronized long getPeak() {
+        return peak;
+    }
+
+    /**
+     * @return the days whose trades went to a run file
+     */
+    public synchronized long getSpilledDays() {
+        return spilledDays;
+    }
+
+    /**
+     * @return the days whose trades were let go of without a run file, nothing needed them
+     */
+    public synchronized long getDroppedDays() {
+        return droppedDays;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "bytes=" + reserved + "/" + budget + " peak=" + peak + " spilled=" + spilledDays + " dropped=" + droppedDays;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Bid/ask spread and quote quality, collected from the quote printed with each trade in the same
+ * pass that adds up the {@link TradeTotals}. A trade has a usable quote when the bid and the ask are
+ * both there and the ask is not below the bid; the spreads only count those trades.
+ *
+ * The time weighted spread holds each quote until the next quoted trade, so it needs the trades in
+ * file order: pieces of one file are joined with {@link #append(QuoteStats)}, different days are
+ * rolled up with {@link #merge(QuoteStats)}. The sums are exact, the result does not depend on the
+ * way the file was split.
+ */
+public class QuoteStats {
+    private static final int SPREAD_SCALE = 6;
+    private static final int PCT_SCALE = 5;
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+
+    private long tradeCount;
+    private long quotedCount;
+    private long outsideCount;
+    private BigDecimal spreads = BigDecimal.ZERO;
+    /**
+     * |2 * price - (bid + ask)|, twice the distance from the midpoint.
+     */
+    private BigDecimal effectiveSpreads = BigDecimal.ZERO;
+    /**
+     * bid + ask, twice the midpoint.
+     */
+    private BigDecimal midpoints = BigDecimal.ZERO;
+
+    private BigDecimal weightedSpreads = BigDecimal.ZERO;
+    private long weightedSeconds;
+    /**
+     * The first and the last quoted trade in file order with a readable time, -1 when there is none.
+     */
+    private int firstTime = -1;
+    private BigDecimal firstSpread;
+    private int lastTime = -1;
+    private BigDecimal lastSpread;
+
+    /**
+     * @param pTrade the next trade in file order
+     */
+    public void add(TradeRecord pTrade) {
+        tradeCount++;
+        BigDecimal bid = pTrade.getBid();
+        BigDecimal ask = pTrade.getAsk();
+        if (bid.signum() <= 0 || ask.signum() <= 0 || ask.compareTo(bid) < 0) {
+            return;
+        }
+        quotedCount++;
+        BigDecimal price = pTrade.getPrice();
+        if (price.compareTo(bid) < 0 || price.compareTo(ask) > 0) {
+            outsideCount++;
+        }
+        BigDecimal spread = ask.subtract(bid);
+        BigDecimal twiceMid = bid.add(ask);
+        spreads = spreads.add(spread);
+        effectiveSpreads = effectiveSpreads.add(price.multiply(TWO).subtract(twiceMid).abs());
+        midpoints = midpoints.add(twiceMid);
+
+        int time = secondsOf(pTrade.getTimeStr());
+        if (time < 0) {
+            return;
+        }
+        if (lastTime >= 0) {
+            weigh(lastTime, lastSpread, time, spread);
+        } else {
+            firstTime = time;
+            firstSpread = spread;
+        }
+        lastTime = time;
+        lastSpread = spread;
+    }
+
+    /**
+     * Adds the quotes of the part of the file right after this one, the time between the two is weighted too.
+     */
+    public void append(QuoteStats pNext) {
+        if (lastTime >= 0 && pNext.firstTime >= 0) {
+            weigh(lastTime, lastSpread, pNext.firstTime, pNext.firstSpread);
+        }
+        merge(pNext);
+        if (firstTime < 0) {
+            firstTime = pNext.firstTime;
+            firstSpread = pNext.firstSpread;
+        }
+        if (pNext.lastTime >= 0) {
+            lastTime = pNext.lastTime;
+            lastSpread = pNext.lastSpread;
+        }
+    }
+
+    /**
+     * Adds the quotes of another day, nothing is weighted across the two.
+     */
+    public void merge(QuoteStats pOther) {
+        tradeCount += pOther.tradeCount;
+        quotedCount += pOther.quotedCount;
+        outsideCount += pOther.outsideCount;
+        spreads = spreads.add(pOther.spreads);
+        effectiveSpreads = effectiveSpreads.add(pOther.effectiveSpreads);
+        midpoints = midpoints.add(pOther.midpoints);
+        weightedSpreads = weightedSpreads.add(pOther.weightedSpreads);
+        weightedSeconds += pOther.weightedSeconds;
+    }
+
+    /**
+     * The earlier of two neighbouring quotes is in force until the later one, the files list
+     * the trades either way round.
+     */
+    private void weigh(int pTime, BigDecimal pSpread, int pNextTime, BigDecimal pNextSpread) {
+        long seconds = Math.abs(pNextTime - pTime);
+        weightedSpreads = weightedSpreads.add((pTime <= pNextTime ? pSpread : pNextSpread).multiply(BigDecimal.valueOf(seconds)));
+        weightedSeconds += seconds;
+    }
+
+    /**
+     * @return the seconds since midnight of an H:MM:SS time, -1 if it is not one
+     */
+    public static int secondsOf(String pTime) {
+        if (null == pTime) {
+            return -1;
+        }
+        int rVal = 0;
+        int field = 0;
+        int fields = 1;
+        for (int i = 0; i < pTime.length(); i++) {
+            char c = pTime.charAt(i);
+            if (c >= '0' && c <= '9') {
+                field = field * 10 + (c - '0');
+                if (field > 99999) {
+                    return -1;
+                }
+            } else if (c == ':' && fields < 3) {
+                rVal = rVal * 60 + field;
+                field = 0;
+                fields++;
+            } else {
+                return -1;
+            }
+        }
+        return fields == 3 ? rVal * 60 + field : -1;
+    }
+
+    public long getTradeCount() {
+        return tradeCount;
+    }
+
+    /**
+     * @return the mean ask minus bid over the quoted trades
+     */
+    public BigDecimal getAverageSpread() {
+        return average(spreads, BigDecimal.valueOf(quotedCount), SPREAD_SCALE);
+    }
+
+    /**
+     * @return the spread weighted by how long each quote stood, the mean spread if no time passed
+     */
+    public BigDecimal getTimeWeightedSpread() {
+        if (0 == weightedSeconds) {
+            return getAverageSpread();
+        }
+        return average(weightedSpreads, BigDecimal.valueOf(weightedSeconds), SPREAD_SCALE);
+    }
+
+    /**
+     * @return the mean of twice the distance between the price and the midpoint
+     */
+    public BigDecimal getAverageEffectiveSpread() {
+        return average(effectiveSpreads, BigDecimal.valueOf(quotedCount), SPREAD_SCALE);
+    }
+
+    /**
+     * @return the effective spreads as a fraction of the midpoints
+     */
+    public BigDecimal getRelativeEffectiveSpread() {
+        return average(effectiveSpreads.multiply(TWO), midpoints, PCT_SCALE + 2);
+    }
+
+    /**
+     * @return the share of trades without a usable quote
+     */
+    public BigDecimal getPctNoQuote() {
+        return average(BigDecimal.valueOf(tradeCount - quotedCount), BigDecimal.valueOf(tradeCount), PCT_SCALE);
+    }
+
+    /**
+     * @return the share of the quoted trades printed below the bid or above the ask
+     */
+    public BigDecimal getPctOutsideQuote() {
+        return average(BigDecimal.valueOf(outsideCount), BigDecimal.valueOf(quotedCount), PCT_SCALE);
+    }
+
+    private static BigDecimal average(BigDecimal pSum, BigDecimal pCount, int pScale) {
+        if (pCount.signum() == 0) {
+            return BigDecimal.ZERO;
+        }
+        return pSum.divide(pCount, pScale, RoundingMode.HALF_UP);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * Trailing N-day windows over the days of one ticker: VWAP, buy over sell dollar volume and the
+ * z-score of the day's volume among the window's volumes. Each window keeps running sums; a new day
+ * is added to them and the day falling out of the window subtracted, so a day costs the same
+ * whatever the window lengths. The days themselves are kept in a ring the size of the longest window.
+ *
+ * A window covers the day being added and the days before it. Until a window has seen N days its
+ * values are null.
+ */
+public class RollingWindows {
+    private final int[] lengths;
+    private final int scale;
+
+    private final BigDecimal[] ringVolume;
+    private final BigDecimal[] ringDollars;
+    private final BigDecimal[] ringBuyDollars;
+    private final BigDecimal[] ringSellDollars;
+    private int days;
+
+    private final BigDecimal[] volume;
+    private final BigDecimal[] volumeSquares;
+    private final BigDecimal[] dollars;
+    private final BigDecimal[] buyDollars;
+    private final BigDecimal[] sellDollars;
+
+    /**
+     * @param pLengths the window lengths in days, each at least 1
+     * @param pScale the decimal places of the VWAP and ratio
+     */
+    public RollingWindows(int[] pLengths, int pScale) {
+        lengths = pLengths.clone();
+        scale = pScale;
+        int capacity = 1;
+        for (int length : lengths) {
+            if (length < 1) {
+                throw new IllegalArgumentException("window of " + length + " days");
+            }
+            capacity = Math.max(capacity, length);
+        }
+        ringVolume = new BigDecimal[capacity];
+        ringDollars = new BigDecimal[capacity];
+        ringBuyDollars = new BigDecimal[capacity];
+        ringSellDollars = new BigDecimal[capacity];
+        volume = zeros(lengths.length);
+        volumeSquares = zeros(lengths.length);
+        dollars = zeros(lengths.length);
+        buyDollars = zeros(lengths.length);
+        sellDollars = zeros(lengths.length);
+    }
+
+    private static BigDecimal[] zeros(int pLength) {
+        BigDecimal[] rVal = new BigDecimal[pLength];
+        Arrays.fill(rVal, BigDecimal.ZERO);
+        return rVal;
+    }
+
+    /**
+     * Moves every window on by the next day.
+     * @return the windows' values as of this day
+     */
+    public Values add(TradeTotals pDay) {
+        BigDecimal dayVolume = pDay.getVolume();
+        for (int w = 0; w < lengths.length; w++) {
+            volume[w] = volume[w].add(dayVolume);
+            volumeSquares[w] = volumeSquares[w].add(dayVolume.multiply(dayVolume));
+            dollars[w] = dollars[w].add(pDay.getDollarVolume());
+            buyDollars[w] = buyDollars[w].add(pDay.getBuyDollarVolume());
+            sellDollars[w] = sellDollars[w].add(pDay.getSellDollarVolume());
+            if (days >= lengths[w]) {
+                // the day leaving this window, still in the ring since no window is longer than it.
+                int slot = (days - lengths[w]) % ringVolume.length;
+                volume[w] = volume[w].subtract(ringVolume[slot]);
+                volumeSquares[w] = volumeSquares[w].subtract(ringVolume[slot].multiply(ringVolume[slot]));
+                dollars[w] = dollars[w].subtract(ringDollars[slot]);
+                buyDollars[w] = buyDollars[w].subtract(ringBuyDollars[slot]);
+                sellDollars[w] = sellDollars[w].subtract(ringSellDollars[slot]);
+            }
+        }
+        int slot = days % ringVolume.length;
+        ringVolume[slot] = dayVolume;
+        ringDollars[slot] = pDay.getDollarVolume();
+        ringBuyDollars[slot] = pDay.getBuyDollarVolume();
+        ringSellDollars[slot] = pDay.getSellDollarVolume();
+        days++;
+
+        Values rVal = new Values(lengths.length);
+        for (int w = 0; w < lengths.length; w++) {
+            if (days < lengths[w]) {
+                continue;
+            }
+            if (volume[w].signum() != 0) {
+                rVal.vwap[w] = dollars[w].divide(volume[w], scale, RoundingMode.HALF_UP);
+            }
+            if (sellDollars[w].signum() != 0) {
+                rVal.buySellRatio[w] = buyDollars[w].divide(sellDollars[w], scale, RoundingMode.HALF_UP);
+            }
+            rVal.volumeZ[w] = zScore(dayVolume, volume[w], volumeSquares[w], lengths[w]);
+        }
+        return rVal;
+    }
+
+    /**
+     * (x - mean) / standard deviation, with the population deviation of the window. Null when the
+     * window's volumes are all the same.
+     */
+    private static BigDecimal zScore(BigDecimal pVolume, BigDecimal pSum, BigDecimal pSquares, int pDays) {
+        BigDecimal n = BigDecimal.valueOf(pDays);
+        // n * sum(x^2) - sum(x)^2 is n^2 times the variance, exact since the sums are.
+        BigDecimal spread = n.multiply(pSquares).subtract(pSum.multiply(pSum));
+        if (spread.signum() <= 0) {
+            return null;
+        }
+        double deviation = pVolume.multiply(n).subtract(pSum).doubleValue();
+        return new BigDecimal(deviation / Math.sqrt(spread.doubleValue()), MathContext.DECIMAL64)
+                .setScale(4, RoundingMode.HALF_UP);
+    }
+
+    public int[] getLengths() {
+        return lengths.clone();
+    }
+
+    /**
+     * One day's values, in the order of the window lengths. Null where the window is not full yet
+     * or the value is undefined (no volume, no sell dollars, no spread in volume).
+     */
+    public static class Values {
+        private final BigDecimal[] vwap;
+        private final BigDecimal[] buySellRatio;
+        private final BigDecimal[] volumeZ;
+
+        Values(int pWindows) {
+            vwap = new BigDecimal[pWindows];
+            buySellRatio = new BigDecimal[pWindows];
+            volumeZ = new BigDecimal[pWindows];
+        }
+
+        public int size() {
+            return vwap.length;
+        }
+
+        public BigDecimal getVwap(int pWindow) {
+            return vwap[pWindow];
+        }
+
+        public BigDecimal getBuySellRatio(int pWindow) {
+            return buySellRatio[pWindow];
+        }
+
+        public BigDecimal getVolumeZ(int pWindow) {
+            return volumeZ[pWindow];
+        }
+    }
+}
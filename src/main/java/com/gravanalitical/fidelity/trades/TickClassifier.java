@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Tick test for the trades the quotes leave unclassified. A trade above the previous different
+ * price is a buy, below it a sell; a trade at the same price as the one before (zero tick) keeps
+ * the direction of the last price change.
+ *
+ * Trades are fed in file order, one pass. Consecutive trades at one price form a <i>run</i> and
+ * every trade in a run gets the direction of the price change into that run. When the file lists
+ * the oldest trade first, that direction is known as soon as the run starts. When it lists the
+ * newest trade first, the change into a run is only seen at the line after the run ends, so the
+ * unresolved trades of the current run are held until then.
+ *
+ * Trades that need the test go to the sink exactly once, after their sentiment is final. The others
+ * are only looked at for their price.
+ */
+class TickClassifier {
+    private final boolean newestFirst;
+    private final Consumer<TradeRecord> sink;
+
+    private BigDecimal runPrice;
+    private TradeRecord.BuySell runDirection = TradeRecord.BuySell.UNKOWN;
+    private final ArrayList<TradeRecord> pending = new ArrayList<>();
+
+    TickClassifier(TradeDay.InputOrder pOrder, Consumer<TradeRecord> pSink) {
+        newestFirst = TradeDay.InputOrder.NEWEST_FIRST == pOrder;
+        sink = pSink;
+    }
+
+    /**
+     * @param pTrade the next trade in file order
+     * @param pResolve true if the trade still needs the tick test
+     */
+    void accept(TradeRecord pTrade, boolean pResolve) {
+        BigDecimal price = pTrade.getPrice();
+        if (null == runPrice) {
+            runPrice = price;
+        } else {
+            int change = price.compareTo(runPrice);
+            if (change != 0) {
+                if (newestFirst) {
+                    // the run just ended is later in time than this trade.
+                    flush(change < 0 ? TradeRecord.BuySell.BUY : TradeRecord.BuySell.SELL);
+                } else {
+                    runDirection = change > 0 ? TradeRecord.BuySell.BUY : TradeRecord.BuySell.SELL;
+                }
+                runPrice = price;
+            }
+        }
+
+        if (!pResolve) {
+            return;
+        }
+        if (newestFirst) {
+            pending.add(pTrade);
+        } else {
+            pTrade.setSentiment(runDirection);
+            sink.accept(pTrade);
+        }
+    }
+
+    /**
+     * End of the file. Whatever is still pending has no earlier price to compare with.
+     */
+    void finish() {
+        flush(TradeRecord.BuySell.UNKOWN);
+    }
+
+    private void flush(TradeRecord.BuySell pDirection) {
+        for (TradeRecord trade : pending) {
+            trade.setSentiment(pDirection);
+            sink.accept(trade);
+        }
+        pending.clear();
+    }
+}
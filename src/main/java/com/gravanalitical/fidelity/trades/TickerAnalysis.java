@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.fidelity.trades.portfolio.TickerResult;
+
+/**
+ * One ticker processed by the {@link TradeAnalysisEngine}: the totals of each day and the rollup of the period.
+ */
+public class TickerAnalysis {
+    private final TickerResult result;
+    private final TradeMonth period;
+    private final int dayCount;
+
+    TickerAnalysis(TickerResult pResult, TradeMonth pPeriod, int pDayCount) {
+        result = pResult;
+        period = pPeriod;
+        dayCount = pDayCount;
+    }
+
+    public String getTicker() {
+        return result.getTicker();
+    }
+
+    /**
+     * @return the totals of each day and of the whole period, what the portfolio is rolled up from
+     */
+    public TickerResult getResult() {
+        return result;
+    }
+
+    /**
+     * @return the period's totals with its quantiles, quote stats and, when turned on, profile and largest trades
+     */
+    public TradeMonth getPeriod() {
+        return period;
+    }
+
+    /**
+     * @return the number of days with trades
+     */
+    public int getDayCount() {
+        return dayCount;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder span over the analysis of one ticker, the parent of its {@link DayFileEvent}s.
+ * A ticker that fails is recorded as well, with <i>failed</i> set.
+ */
+@Name("fidelity.trades.Ticker")
+@Label("Ticker Analysis")
+@Category("Fidelity Trades")
+@Description("Reading, totalling and writing all the day files of one ticker")
+class TickerEvent extends Event {
+    @Label("Ticker")
+    String ticker;
+
+    @Label("Days")
+    int days;
+
+    @Label("Trades")
+    long trades;
+
+    @Label("Errors")
+    @Description("Trade lines that could not be parsed, over all the days")
+    long errors;
+
+    @Label("Failed")
+    boolean failed;
+}
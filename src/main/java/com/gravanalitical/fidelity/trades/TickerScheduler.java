@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs the tickers of a run on a fork/join pool, the largest first (longest processing time first)
+ * so that a big ticker never starts last and leaves the other workers idle at the end.
+ *
+ * Each worker takes the next ticker off a shared queue and reads its days in order. The day files are
+ * forked as tasks on the worker's own queue, see {@link #fork(FutureTask)}. Once the ticker queue is
+ * empty a worker without a ticker steals the days of the ones still running, and the running tickers
+ * read further ahead as there are fewer of them.
+ */
+class TickerScheduler {
+    private static final Logger log = LogManager.getLogger("fidelity.trades.TickerScheduler");
+
+    /**
+     * The scheduler running the ticker on this thread, if any.
+     */
+    private static final ThreadLocal<TickerScheduler> CURRENT = new ThreadLocal<>();
+
+    private final int workers;
+    private final AtomicInteger running = new AtomicInteger();
+
+    TickerScheduler(int pWorkers) {
+        workers = Math.max(1, pWorkers);
+    }
+
+    /**
+     * @param pWork the estimated work of each ticker, e.g. the bytes of its day files
+     * @return the tickers, the most work first and by name among equals
+     */
+    static List<String> largestFirst(Map<String, Long> pWork) {
+        List<String> rVal = new ArrayList<>(pWork.keySet());
+        rVal.sort(Comparator.comparing((String ticker) -> pWork.get(ticker)).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+        return rVal;
+    }
+
+    /**
+     * @return the scheduler of the ticker being run on this thread, null outside of one
+     */
+    static TickerScheduler current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs the task for every ticker, in the order given as far as the workers allow, and returns once
+     * all are done. The task is expected to handle its own failures; the first one it lets out is
+     * rethrown here after the other tickers are done.
+     */
+    void run(List<String> pTickers, Consumer<String> pTask) {
+        ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>(pTickers);
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        try {
+            List<ForkJoinTask<?>> drivers = new ArrayList<>();
+            for (int i = 0; i < Math.min(workers, pTickers.size()); i++) {
+                drivers.add(pool.submit(() -> {
+                    String ticker;
+                    while (null != (ticker = queue.poll())) {
+                        running.incrementAndGet();
+                        CURRENT.set(this);
+                        try {
+                            pTask.accept(ticker);
+                        } finally {
+                            CURRENT.remove();
+                            running.decrementAndGet();
+                        }
+                    }
+                }));
+            }
+            RuntimeException failure = null;
+            for (ForkJoinTask<?> driver : drivers) {
+                try {
+                    driver.join();
+                } catch (RuntimeException e) {
+                    if (null == failure) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (null != failure) {
+                throw failure;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        log.debug("run(List, Consumer) {} tickers on {} workers", pTickers.size(), workers);
+    }
+
+    /**
+     * @return the number of day files a running ticker may have in flight: its share of the workers, twice over
+     */
+    int readAhead() {
+        return 2 * Math.max(1, workers / Math.max(1, running.get()));
+    }
+
+    /**
+     * Forks the task on the current worker's queue, where another worker can steal it. Waiting for the
+     * result helps: a task nobody took yet is run by the waiting thread itself.
+     * @return the task's result, with the task's own exception as the cause of an ExecutionException
+     */
+    <T> Future<T> fork(FutureTask<T> pTask) {
+        return new Forked<>(pTask, ForkJoinTask.adapt(pTask).fork());
+    }
+
+    private static final class Forked<T> implements Future<T> {
+        private final FutureTask<T> task;
+        private final ForkJoinTask<?> forked;
+
+        Forked(FutureTask<T> pTask, ForkJoinTask<?> pForked) {
+            task = pTask;
+            forked = pForked;
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            forked.quietlyJoin();
+            return task.get();
+        }
+
+        @Override
+        public T get(long pTimeout, TimeUnit pUnit) throws InterruptedException, ExecutionException, TimeoutException {
+            return task.get(pTimeout, pUnit);
+        }
+
+        @Override
+        public boolean cancel(boolean pInterrupt) {
+            forked.cancel(false);
+            return task.cancel(pInterrupt);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return task.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return task.isDone();
+        }
+    }
+}
@@ -0,0 +1,560 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.fidelity.trades.checkpoint.Quarantine;
+import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
+import com.gravanalitical.fidelity.trades.format.LargestTradesAsCSV;
+import com.gravanalitical.fidelity.trades.format.TradeDayAsJSON;
+import com.gravanalitical.fidelity.trades.format.TradeDayFormatFactory;
+import com.gravanalitical.fidelity.trades.format.TradeDayPresentation;
+import com.gravanalitical.fidelity.trades.format.TradeMonthAsTabular;
+import com.gravanalitical.fidelity.trades.format.VolumeProfileAsCSV;
+import com.gravanalitical.fidelity.trades.portfolio.PortfolioRollup;
+import com.gravanalitical.fidelity.trades.portfolio.TickerResult;
+import com.gravanalitical.locale.DisplayKeys;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+
+/**
+ * Runs the analysis of a home directory for a caller in the same JVM. The engine is built from an explicit
+ * configuration, see {@link GA_FidelityTradesConfig#load(String)}, and keeps no state between calls, so one
+ * engine, or several engines over different homes, can be used from many threads at once. Each call writes
+ * the ticker's output files as the command line does and hands back the results as objects.
+ *
+ * Two calls for the same ticker of the same home at the same time would write over each other's output files.
+ * <b>Example</b><br>
+ * <pre>
+ * TradeAnalysisEngine engine = new TradeAnalysisEngine(GA_FidelityTradesConfig.load("/users/mary/trade_data"));
+ * AnalysisRun run = engine.analyze(Arrays.asList("GWRE", "MSFT"));
+ * run.getPortfolio().getTotals().getDollarVolume();
+ * </pre>
+ */
+public class TradeAnalysisEngine {
+    private static final Logger log = LogManager.getLogger("fidelity.trades.TradeAnalysisEngine");
+
+    /**
+     * Extension of the per-ticker JSON output, one object per line.
+     */
+    static final String JSON_FILE_EXTENSION = "ndjson";
+
+    /**
+     * The per-ticker volume profile, TICKER.profile.csv. The rows of the whole period are labelled ALL.
+     */
+    static final String PROFILE_FILE_SUFFIX = "profile." + GA_FidelityTradesConfig.CSV_FILE_EXTENSION;
+    static final String PROFILE_PERIOD = "ALL";
+
+    /**
+     * The per-ticker largest trades, TICKER.largest.csv. The rows of the whole period are labelled ALL too.
+     */
+    static final String LARGEST_FILE_SUFFIX = "largest." + GA_FidelityTradesConfig.CSV_FILE_EXTENSION;
+
+    private final GA_FidelityTradesConfig config;
+    private final DayFiles dayFiles;
+    /**
+     * Null unless a cache budget is configured.
+     */
+    private final TradeDayCache dayCache;
+    /**
+     * Null unless a memory budget is configured.
+     */
+    private final MemoryGovernor memory;
+
+    public TradeAnalysisEngine(GA_FidelityTradesConfig pConfig) {
+        this(pConfig, null, null);
+    }
+
+    /**
+     * @param pFrom the first yyyymmdd to read, null for no limit
+     * @param pTo the last yyyymmdd to read, null for no limit
+     * @throws IllegalArgumentException if a date is not yyyymmdd
+     */
+    public TradeAnalysisEngine(GA_FidelityTradesConfig pConfig, String pFrom, String pTo) {
+        config = pConfig;
+        dayFiles = new DayFiles(pFrom, pTo);
+        dayCache = pConfig.getCacheBytes() > 0 ? new TradeDayCache(pConfig.getCacheBytes()) : null;
+        memory = pConfig.getMemoryBytes() > 0 ? new MemoryGovernor(pConfig.getMemoryBytes(), Paths.get(pConfig.getSpillDir())) : null;
+    }
+
+    public GA_FidelityTradesConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the processed days kept for the next analyses, with its hit and eviction counts, null when
+     * no cache budget is configured
+     */
+    public TradeDayCache getDayCache() {
+        return dayCache;
+    }
+
+    /**
+     * @return the heap budget of the trades held by the tickers running on this engine, null when no
+     * memory budget is configured
+     */
+    public MemoryGovernor getMemoryGovernor() {
+        return memory;
+    }
+
+    /**
+     * Processes the tickers and rolls them up. A ticker that fails is reported to the quarantine of the
+     * home directory and left out, the others carry on. With more than one ticker worker configured the
+     * tickers run at the same time, the largest first, see {@link TickerScheduler}; the results are in
+     * the order given either way.
+     * @param pTickers the names of ticker folders in the home directory
+     */
+    public AnalysisRun analyze(Collection<String> pTickers) {
+        Quarantine quarantine = new Quarantine(config.getHomeDir());
+        Map<String, TickerAnalysis> analyzed = new ConcurrentHashMap<>();
+        Map<String, Exception> failed = new ConcurrentHashMap<>();
+        Consumer<String> task = ticker -> {
+            ThreadContext.put("ticker", ticker);
+            try {
+                analyzed.put(ticker, analyzeTicker(ticker, quarantine));
+            } catch (Exception e) {
+                quarantine.reportTicker(ticker, e);
+                failed.put(ticker, e);
+            } finally {
+                ThreadContext.remove("ticker");
+            }
+        };
+        int tickerWorkers = config.getTickerWorkers();
+        if (tickerWorkers > 1 && pTickers.size() > 1) {
+            new TickerScheduler(tickerWorkers).run(TickerScheduler.largestFirst(estimateWork(pTickers)), task);
+        } else {
+            pTickers.forEach(task);
+        }
+        List<TickerAnalysis> tickers = new ArrayList<>();
+        Map<String, Exception> failures = new LinkedHashMap<>();
+        for (String ticker : pTickers) {
+            if (analyzed.containsKey(ticker)) {
+                tickers.add(analyzed.get(ticker));
+            } else if (failed.containsKey(ticker)) {
+                failures.put(ticker, failed.get(ticker));
+            }
+        }
+        List<TickerResult> results = new ArrayList<>();
+        for (TickerAnalysis ticker : tickers) {
+            results.add(ticker.getResult());
+        }
+        if (null != dayCache) {
+            log.info("analyze(Collection) day cache {}", dayCache);
+        }
+        if (null != memory) {
+            log.info("analyze(Collection) memory {}", memory);
+        }
+        return new AnalysisRun(tickers, PortfolioRollup.rollup(results), failures);
+    }
+
+    /**
+     * The work of each ticker, estimated from the size of its day files in the engine's date range. Only the
+     * folders are listed, no file is opened. A ticker whose folder cannot be listed is estimated at 0, it
+     * fails soon enough when it runs.
+     * @return bytes by ticker
+     */
+    public Map<String, Long> estimateWork(Collection<String> pTickers) {
+        Map<String, Long> rVal = new LinkedHashMap<>();
+        for (String ticker : pTickers) {
+            long bytes = 0L;
+            try {
+                for (File dayFile : dayFiles.list(Paths.get(config.getHomeDir(), ticker, "input"))) {
+                    bytes += dayFile.length();
+                }
+            } catch (IOException e) {
+                log.debug("estimateWork(Collection) cannot list the day files of {}", ticker, e);
+            }
+            rVal.put(ticker, bytes);
+        }
+        return rVal;
+    }
+
+    /**
+     * Processes the day files of one ticker. Day files that cannot be read are quarantined.
+     * @throws IOException if the output files cannot be written
+     */
+    public TickerAnalysis analyzeTicker(String pTicker) throws IOException {
+        return analyzeTicker(pTicker, new Quarantine(config.getHomeDir()));
+    }
+
+    /**
+     * Processes the day files of one ticker, as {@link #analyzeTicker(String)}, with the quarantine of a run.
+     *
+     * A day file that cannot be read is quarantined and the other days are still processed.
+     *
+     * @throws IOException if the output files cannot be written
+     */
+    TickerAnalysis analyzeTicker(String tickerSymbol, Quarantine quarantine) throws IOException {
+        TickerEvent event = new TickerEvent();
+        event.begin();
+        long[] counts = {0L, 0L, 0L};
+        boolean failed = true;
+        try {
+            TickerAnalysis rVal = analyzeTicker(tickerSymbol, quarantine, counts);
+            failed = false;
+            return rVal;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.ticker = tickerSymbol;
+                event.trades = counts[0];
+                event.errors = counts[1];
+                event.days = (int) counts[2];
+                event.failed = failed;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * @param pCounts takes the trades, parse errors and days of the ticker as they are added up
+     */
+    private TickerAnalysis analyzeTicker(String tickerSymbol, Quarantine quarantine, long[] pCounts) throws IOException {
+        String baseDireName = new File(config.getHomeDir(), tickerSymbol).getAbsolutePath();
+        TradeMonth monthly = new TradeMonth(config);
+        int[] dayCount = {0};
+        // trailing windows move on with each day as it is written, no extra pass over the days.
+        int[] windowLengths = config.getRollingWindows();
+        RollingWindows rolling = windowLengths.length > 0 ? new RollingWindows(windowLengths, config.getMathScale()) : null;
+        String OUT_HEADER = config.getOutputHeader();
+        String outStr = config.getHomeDir();
+        String ticker = tickerSymbol;
+        File outfile;
+        String fileSeparator = System.getProperty("file.separator");
+
+        TradeMonthAsTabular monthFormatter = new TradeMonthAsTabular();
+        TradeDayAsJSON jsonFormatter = TradeDayFormatFactory.getJsonFormatter();
+        VolumeProfileAsCSV profileFormatter = new VolumeProfileAsCSV();
+        LargestTradesAsCSV largestFormatter = new LargestTradesAsCSV();
+        TickerResult tickerResult = new TickerResult(ticker);
+
+        outfile = new File(outStr + fileSeparator + ticker + fileSeparator + ticker + "." + GA_FidelityTradesConfig.CSV_FILE_EXTENSION);
+        log.debug(DisplayKeys.get(DisplayKeys.PROCESSING_OUTPUT_FILE), outfile.getAbsolutePath());
+
+        try (   FileWriter outFileWriter = new FileWriter(outfile);
+                PrintWriter pw = new PrintWriter(outFileWriter);
+                FileWriter summaryFileWriter = new FileWriter(baseDireName + "/summary.txt");
+                PrintWriter summaryPrintWriter = new PrintWriter(summaryFileWriter);
+                Writer jsonWriter = config.isJsonOutput()
+                        ? Files.newBufferedWriter(Paths.get(baseDireName, ticker + "." + JSON_FILE_EXTENSION), StandardCharsets.UTF_8)
+                        : null;
+                PrintWriter profileWriter = config.isOutputProfile()
+                        ? new PrintWriter(Files.newBufferedWriter(Paths.get(baseDireName, ticker + "." + PROFILE_FILE_SUFFIX), StandardCharsets.UTF_8))
+                        : null;
+                PrintWriter largestWriter = config.getLargestTradesCount() > 0
+                        ? new PrintWriter(Files.newBufferedWriter(Paths.get(baseDireName, ticker + "." + LARGEST_FILE_SUFFIX), StandardCharsets.UTF_8))
+                        : null
+             ) {
+
+            pw.println(OUT_HEADER);
+            if(null != profileWriter) {
+                profileWriter.println(VolumeProfileAsCSV.HEADER);
+            }
+            if(null != largestWriter) {
+                largestWriter.println(LargestTradesAsCSV.HEADER);
+            }
+
+            forEachDay(ticker, quarantine, true, aDay -> {
+                DayFileEvent.Aggregate aggregateEvent = new DayFileEvent.Aggregate();
+                aggregateEvent.begin();
+                updateMonthlyValues(monthly, aDay);
+                tickerResult.addDay(aDay.getDayKey(), aDay.getTotals());
+                dayCount[0]++; // a file per day.
+                aDay.setDayOrdinal(dayCount[0]);
+                if (null != rolling) {
+                    aDay.setRolling(rolling.add(aDay.getTotals()));
+                }
+                pCounts[0] += aDay.getTradeCount();
+                pCounts[1] += aDay.getErrorCount();
+                pCounts[2] = dayCount[0];
+                aggregateEvent.finish(aDay);
+
+                DayFileEvent.Format formatEvent = new DayFileEvent.Format();
+                formatEvent.begin();
+                TradeDayPresentation formatter = TradeDayFormatFactory.getCsvFormatter();
+                String logMessage = formatter.formatTradeDay(aDay);
+                if(true) {
+                    TradeDayFormatFactory.getTabularFormatter().writeTradeDay(aDay, summaryPrintWriter);
+                    log.info("{}", logMessage);
+                }
+                if(true) {
+                    aDay.writeSummary(pw, formatter);
+                    pw.flush();
+                    if (pw.checkError()) {
+                        throw new IOException("writing " + outfile.getAbsolutePath() + " failed");
+                    }
+                }
+                if(null != jsonWriter) {
+                    jsonFormatter.writeTradeDay(ticker, aDay, jsonWriter);
+                }
+                if(null != profileWriter) {
+                    profileFormatter.formatProfile(aDay.getDayKey(), aDay.getStats().getProfile(), profileWriter);
+                }
+                if(null != largestWriter) {
+                    largestFormatter.formatLargestTrades(aDay.getDayKey(), aDay.getStats(), largestWriter);
+                }
+                formatEvent.finish(aDay);
+            });
+            summaryPrintWriter.println(monthFormatter.formatTradeMonth(monthly));
+            if(null != jsonWriter) {
+                jsonFormatter.writeTradeMonth(ticker, monthly, dayCount[0], jsonWriter);
+            }
+            if(null != profileWriter) {
+                profileFormatter.formatProfile(PROFILE_PERIOD, monthly.getStats().getProfile(), profileWriter);
+                if (profileWriter.checkError()) {
+                    throw new IOException("writing the volume profile of " + ticker + " failed");
+                }
+            }
+            if(null != largestWriter) {
+                largestFormatter.formatLargestTrades(PROFILE_PERIOD, monthly.getStats(), largestWriter);
+                if (largestWriter.checkError()) {
+                    throw new IOException("writing the largest trades of " + ticker + " failed");
+                }
+            }
+            if (summaryPrintWriter.checkError()) {
+                throw new IOException("writing " + baseDireName + "/summary.txt failed");
+            }
+        } catch (IOException e) {
+            log.error(DisplayKeys.get(DisplayKeys.ERROR_PROC_FILE),outfile.getName(), e);
+            throw e;
+        }
+        return new TickerAnalysis(tickerResult, monthly, dayCount[0]);
+    }
+
+    /**
+     * Takes the days of a ticker in file name order, see {@link #forEachDay(String, DayHandler)}.
+     */
+    public interface DayHandler {
+        void accept(TradeDay pDay) throws IOException;
+    }
+
+    /**
+     * Reads the day files of one ticker in the engine's date range and hands each day that has trades
+     * to the handler, in file name order, without writing any output. Duplicates are dropped as configured
+     * and day files that cannot be read are quarantined.
+     * @throws IOException if the input folder cannot be listed or the handler fails
+     */
+    public void forEachDay(String pTicker, DayHandler pHandler) throws IOException {
+        forEachDay(pTicker, new Quarantine(config.getHomeDir()), false, pHandler);
+    }
+
+    /**
+     * @param pListedOnly true if the handler needs the trades for no more than the summary listing, they may
+     * then be spilled or dropped to stay within the memory budget
+     */
+    private void forEachDay(String ticker, Quarantine quarantine, boolean pListedOnly, DayHandler pHandler) throws IOException {
+        String inDirStr = config.getHomeDir() + "/" + ticker + "/input"; // The input dir will be the HOME dir.
+        List<File> sortedInputList = dayFiles.list(Paths.get(inDirStr));
+        log.debug("forEachDay(String, Quarantine, boolean, DayHandler) {} day files to read", sortedInputList.size());
+
+        // Day files are read by the workers (decompressing archives as they go) a few files ahead
+        // of the handler. The days are still handed over in file name order.
+        // under a ticker scheduler the days are forked on its pool, where idle workers can take them.
+        TickerScheduler scheduler = TickerScheduler.current();
+        int workers = config.getInputWorkers();
+        ExecutorService readPool = null == scheduler && workers > 1 ? Executors.newFixedThreadPool(workers) : null;
+        Deque<Future<TradeDay>> inFlight = new ArrayDeque<>();
+        Deque<File> inFlightFiles = new ArrayDeque<>();
+        // the estimated bytes reserved for each day in flight, see MemoryGovernor.
+        Deque<Long> inFlightBytes = new ArrayDeque<>();
+        int next = 0;
+        TradeDedup dedup = config.isDedupTrades() || config.isDedupFiles()
+                ? new TradeDedup(config.isDedupTrades(), config.isDedupFiles())
+                : null;
+        if (null != memory) {
+            memory.enter();
+        }
+        try {
+            while (next < sortedInputList.size() || !inFlight.isEmpty()) {
+                int readAhead = null == scheduler ? workers * 2 : scheduler.readAhead();
+                while (next < sortedInputList.size() && inFlight.size() < readAhead) {
+                    File nextFile = sortedInputList.get(next);
+                    long bytes = null == memory ? 0L : MemoryGovernor.estimate(nextFile);
+                    // with nothing in flight the next day is read whatever the budget, so the ticker moves on.
+                    if (null != memory && !memory.tryReserve(bytes, inFlight.isEmpty())) {
+                        break;
+                    }
+                    inFlight.add(readDay(nextFile, ticker, readPool, scheduler));
+                    inFlightFiles.add(nextFile);
+                    inFlightBytes.add(bytes);
+                    next++;
+                }
+
+                File dayFile = inFlightFiles.poll();
+                TradeDay aDay;
+                try {
+                    aDay = awaitDay(inFlight.poll(), dayFile, ticker, quarantine);
+                } finally {
+                    release(inFlightBytes.poll());
+                }
+
+                if(null != aDay && null != dedup) {
+                    if(dedup.isDuplicateFile(aDay)) {
+                        log.warn("{} has the same content as an earlier file, skipped", dayFile.getName());
+                        aDay = null;
+                    } else {
+                        int dropped = dedup.dropDuplicates(aDay);
+                        if(dropped > 0) {
+                            log.warn("{} trades in {} were already read from an earlier file, dropped", dropped, dayFile.getName());
+                        }
+                    }
+                }
+
+                if(null != aDay && !aDay.isEmpty()) {
+                    long retained = null == memory ? 0L : memory.retain(aDay, pListedOnly);
+                    try {
+                        pHandler.accept(aDay);
+                    } finally {
+                        release(retained);
+                        aDay.deleteSpill();
+                    }
+                }
+            }
+        } finally {
+            if (null != readPool) {
+                readPool.shutdownNow();
+            }
+            for (Future<TradeDay> abandoned : inFlight) {
+                abandoned.cancel(false);
+            }
+            for (long bytes : inFlightBytes) {
+                release(bytes);
+            }
+            if (null != memory) {
+                memory.leave();
+            }
+        }
+    }
+
+    private void release(long pBytes) {
+        if (null != memory) {
+            memory.release(pBytes);
+        }
+    }
+
+    /**
+     * Reads one day file, on the scheduler or the pool when there is one, otherwise right away on the calling thread.
+     */
+    private Future<TradeDay> readDay(File aFile, String ticker, ExecutorService readPool, TickerScheduler scheduler) {
+        FutureTask<TradeDay> task = new FutureTask<>(() -> {
+            // a worker may run this while it waits on a day of its own ticker.
+            String previousTicker = ThreadContext.get("ticker");
+            ThreadContext.put("ticker", ticker);
+            try {
+                return readDayCached(aFile);
+            } finally {
+                if (null == previousTicker) {
+                    ThreadContext.remove("ticker");
+                } else {
+                    ThreadContext.put("ticker", previousTicker);
+                }
+            }
+        });
+        if (null != scheduler) {
+            return scheduler.fork(task);
+        }
+        if (null == readPool) {
+            task.run();
+        } else {
+            readPool.execute(task);
+        }
+        return task;
+    }
+
+    /**
+     * Reads the day, through the cache when there is one.
+     */
+    private TradeDay readDayCached(File aFile) throws Exception {
+        String currentFileName = aFile.getName();
+
+        if(currentFileName.startsWith(".")) {
+            log.debug(DisplayKeys.get(DisplayKeys.SKIPPING_HIDDEN_FILE),currentFileName);
+        }
+
+        if(log.isDebugEnabled()) {
+            log.debug(DisplayKeys.get(DisplayKeys.PROCESSING_FILE),currentFileName);
+        }
+
+        if (null != dayCache) {
+            return dayCache.get(aFile, () -> readDay(aFile));
+        }
+        return readDay(aFile);
+    }
+
+    private TradeDay readDay(File aFile) throws IOException {
+        TradeDay aDay = new TradeDay(aFile, config);
+        aDay.process();
+        return aDay;
+    }
+
+    /**
+     * @return the day, or null if its file could not be read and was quarantined
+     */
+    private TradeDay awaitDay(Future<TradeDay> pDay, File pFile, String ticker, Quarantine quarantine) {
+        try {
+            return pDay.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                quarantine.quarantineFile(ticker, pFile, e.getCause());
+                return null;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static void updateMonthlyValues(TradeMonth monthly, TradeDay pADay) {
+        monthly.addTotalVolume(pADay.getVolume());
+        monthly.addTotalBuyVolume(pADay.getBuyVolume());
+        monthly.addTotalSellVolume(pADay.getSellVolume());
+        monthly.addTotalUnknownVolume(pADay.getUnknownVolume());
+
+        monthly.addTotalDollars(pADay.getDollarVolume());
+        monthly.addTotalBuyDollars(pADay.getBuyDollarVolume());
+        monthly.addTotalSellDollars(pADay.getSellDollarVolume());
+        monthly.addTotalUnknownDollars(pADay.getUnknownDollarVolume());
+        monthly.getStats().merge(pADay.getStats());
+        monthly.getQuotes().merge(pADay.getQuotes());
+    }
+}
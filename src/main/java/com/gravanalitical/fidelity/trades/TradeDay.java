@@ -26,8 +26,21 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.*;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.math.RoundingMode;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 /**
  * Reads the data for one day of trading and stores the stats. Keeps the trades
@@ -37,6 +50,16 @@ import java.util.ArrayList;
 public class TradeDay {
     private static final Logger log = LogManager.getLogger("fidelity.trades.TradeDay");
 
+    /**
+     * The order of the trades in the export file. The tick test needs to know which trade came first.
+     */
+    public enum InputOrder {NEWEST_FIRST, OLDEST_FIRST}
+
+    /**
+     * Fidelity ends the trades with a line of empty fields, anything after it is ignored.
+     */
+    static final String END_OF_TRADES = "\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",";
+
     /**
      * The date for which the data has been stored. Format: yyyymmdd.
      */
@@ -52,6 +75,40 @@ public class TradeDay {
      */
     private ArrayList<TradeRecord> tradeList = new ArrayList<>();
 
+    /**
+     * The volumes, accumulated as the trades are read.
+     */
+    private TradeTotals totals = new TradeTotals();
+
+    /**
+     * Trade size and price quantiles, collected with the totals.
+     */
+    private TradeStats stats;
+    private QuoteStats quotes = new QuoteStats();
+
+    /**
+     * The ticker's trailing windows as of this day, set by the engine as the days go by.
+     */
+    private RollingWindows.Values rolling;
+
+    /**
+     * Trade lines read and the ones among them that could not be parsed.
+     */
+    private long lineCount;
+    private long errorCount;
+
+    /**
+     * Trades let go of to keep within the engine's memory budget, and the run file holding them
+     * when they are listed, see {@link MemoryGovernor}.
+     */
+    private int releasedTrades;
+    private Path spillFile;
+
+    /**
+     * SHA-256 of the raw file, when duplicate files are looked for.
+     */
+    private String contentDigest;
+
     /**
      * The daily file this class represents.
      */
@@ -70,21 +127,80 @@ public class TradeDay {
     public TradeDay(File pFile, GA_FidelityTradesConfig pConfig) {
         config = pConfig;
         aFile = pFile;
+        stats = new TradeStats(pConfig);
+    }
+
+    /**
+     * See {@link #copy()}.
+     */
+    private TradeDay(TradeDay pOther) {
+        config = pOther.config;
+        aFile = pOther.aFile;
+        dateStr = pOther.dateStr;
+        tradeList = new ArrayList<>(pOther.tradeList);
+        totals = pOther.totals;
+        stats = pOther.stats;
+        quotes = pOther.quotes;
+        releasedTrades = pOther.releasedTrades;
+        lineCount = pOther.lineCount;
+        errorCount = pOther.errorCount;
+        contentDigest = pOther.contentDigest;
+    }
+
+    /**
+     * A processed day that can have its trades removed and its ordinal set without changing this one.
+     * The trades, totals and stats are shared, none of them change once the file is read.
+     */
+    TradeDay copy() {
+        return new TradeDay(this);
     }
 
     /**
      * Reads the File for the day. Puts the trade dollar-volume in the
      * appropriate bucket.
+     *
+     * Uncompressed files of at least the configured size are parsed in chunks on several threads,
+     * see {@link ChunkedDayParser}; the result is the same. A file digested for
+     * duplicate detection is always read sequentially.
+     *
+     * A line that cannot be parsed is logged and skipped.
+     * @throws IOException if the file cannot be opened or read, the day is then unusable.
      */
-    void process() {
+    void process() throws IOException {
+        DayFileEvent.Parse event = new DayFileEvent.Parse();
+        event.begin();
+        try {
+            long parallelBytes = config.getParallelParseBytes();
+            // a file that is digested for dedup is read once, sequentially, so the digest is taken during the parse.
+            if (parallelBytes > 0 && !config.isDedupFiles()
+                    && aFile.getName().toLowerCase().endsWith("." + GA_FidelityTradesConfig.CSV_FILE_EXTENSION)
+                    && aFile.length() >= parallelBytes) {
+                processInChunks();
+            } else {
+                processSequentially();
+            }
+        } finally {
+            // a file that fails is recorded too, with what was read of it.
+            event.finish(this);
+        }
+    }
+
+    private void processSequentially() throws IOException {
         CSVInputReader csvInputReader = new CSVInputReader(aFile);
+        if (config.isDedupFiles()) {
+            csvInputReader.digest();
+        }
         try {
             csvInputReader.initFile();
             dateStr = csvInputReader.getDate();
         } catch (IOException e) {
             log.error("reader initiation failed.",e);
-            System.exit(-1);
+            csvInputReader.close();
+            throw e;
         }
+        TradeRecord.SentimentRule rule = config.getSentimentRule();
+        boolean tickTest = TradeRecord.SentimentRule.QUOTE != rule;
+        TickClassifier ticks = new TickClassifier(config.getInputOrder(), this::count);
         try {
             String currentLine = csvInputReader.readLine();
             log.trace("throwing away header [{}]",currentLine);
@@ -92,40 +208,218 @@ public class TradeDay {
             boolean done = false;
             while(!done) {
                 if ((currentLine = csvInputReader.readLine()) == null
-                        || currentLine.startsWith("\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",")) {
+                        || currentLine.startsWith(END_OF_TRADES)) {
                     done = true;
                 } else {
 
                     if (log.isTraceEnabled()) log.trace("LINE: {}", currentLine);
+                    lineCount++;
 
                     try {
-                        TradeRecord tr = TradeRecord.parse(currentLine);
+                        TradeRecord tr = TradeRecord.parse(currentLine, rule);
                         if (log.isDebugEnabled()) log.debug("adding a trade . . . {}", tr);
                         this.tradeList.add(tr);
+                        quotes.add(tr);
+                        boolean needsTick = tickTest && TradeRecord.BuySell.UNKOWN == tr.sentiment();
+                        if (!needsTick) {
+                            count(tr);
+                        }
+                        ticks.accept(tr, needsTick);
 //                        distributeToBucket(tr);
                     } catch (Exception e) {
+                        errorCount++;
                         log.error("error processing line {} in file {}", lineCounter,aFile.getName());
                         log.error("error processing data, \"{}\"", currentLine, e);
                     }
                 } // end if check for end of file
                 lineCounter++;
             } // end while not done
+            ticks.finish();
+            contentDigest = csvInputReader.finishDigest();
         } catch (IOException e) {
             log.error("reading file failed: {}", aFile.getAbsolutePath(), e);
+            throw e;
         } finally {
             csvInputReader.close();
         }
     }
 
+    /**
+     * Parses the chunks in parallel, then merges them in file order. The tick test depends on the order
+     * of the trades so it runs here, over the merged trades, and only looks at their prices.
+     */
+    private void processInChunks() throws IOException {
+        ChunkedDayParser parser = new ChunkedDayParser(aFile, config, config.getSentimentRule());
+        try {
+            parser.open();
+            dateStr = parser.getDate();
+        } catch (IOException e) {
+            log.error("reader initiation failed.",e);
+            parser.close();
+            throw e;
+        }
+        boolean tickTest = TradeRecord.SentimentRule.QUOTE != config.getSentimentRule();
+        TickClassifier ticks = new TickClassifier(config.getInputOrder(), this::count);
+        try {
+            List<ChunkedDayParser.Chunk> chunks = parser.parse(config.getParseChunkBytes());
+            log.debug("parsed {} in {} chunks", aFile.getName(), chunks.size());
+            for (ChunkedDayParser.Chunk chunk : chunks) {
+                this.tradeList.addAll(chunk.trades);
+                totals.merge(chunk.totals);
+                stats.merge(chunk.stats);
+                quotes.append(chunk.quotes);
+                lineCount += chunk.lines;
+                errorCount += chunk.errors;
+                if (tickTest) {
+                    for (TradeRecord tr : chunk.trades) {
+                        ticks.accept(tr, TradeRecord.BuySell.UNKOWN == tr.sentiment());
+                    }
+                }
+                if (chunk.ended) {
+                    break;
+                }
+            }
+            ticks.finish();
+        } catch (IOException e) {
+            log.error("reading file failed: {}", aFile.getAbsolutePath(), e);
+            throw e;
+        } catch (IllegalStateException e) {
+            // a chunk task failed to read its part of the file.
+            log.error("reading file failed: {}", aFile.getAbsolutePath(), e);
+            throw new IOException(e.getMessage(), e.getCause());
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Counts a trade once its sentiment is final.
+     */
+    private void count(TradeRecord pTrade) {
+        totals.add(pTrade);
+        stats.add(pTrade);
+    }
+
+    String getContentDigest() {
+        return contentDigest;
+    }
+
+    /**
+     * Removes trades after the file is read, the volumes are added up again from the ones left.
+     * @return the number of trades removed
+     */
+    int removeTrades(Predicate<TradeRecord> pFilter) {
+        int before = tradeList.size();
+        if (!tradeList.removeIf(pFilter)) {
+            return 0;
+        }
+        totals = new TradeTotals();
+        stats = new TradeStats(config);
+        quotes = new QuoteStats();
+        for (TradeRecord tr : tradeList) {
+            count(tr);
+            quotes.add(tr);
+        }
+        return before - tradeList.size();
+    }
 
     public String getDateStr() {
         return dateStr;
     }
 
+    /**
+     * Day files are named with the date the trades were executed, yyyymmdd, which sorts in time order.
+     * @return the yyyymmdd the file name starts with, or the date read from the file if it has no such name.
+     */
+    public String getDayKey() {
+        String name = aFile.getName();
+        if (name.length() >= 8) {
+            for (int i = 0; i < 8; i++) {
+                if (!Character.isDigit(name.charAt(i))) {
+                    return dateStr;
+                }
+            }
+            return name.substring(0, 8);
+        }
+        return dateStr;
+    }
+
+    /**
+     * @return the trades held in memory, none once they were spilled or dropped, see {@link #getTradeCount()}
+     */
     public ArrayList<TradeRecord> getTradeList() {
         return tradeList;
     }
 
+    /**
+     * @return the trades of the day, including those no longer held in memory
+     */
+    public int getTradeCount() {
+        return tradeList.size() + releasedTrades;
+    }
+
+    /**
+     * Hands each distinct trade, as the summary lists it, to the consumer in trade order. Spilled trades
+     * are streamed back from their run file.
+     * @throws IOException if the run file cannot be read
+     */
+    public void listTrades(Consumer<String> pLine) throws IOException {
+        if (null != spillFile) {
+            try (BufferedReader reader = Files.newBufferedReader(spillFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    pLine.accept(line);
+                }
+            }
+            return;
+        }
+        for (TradeRecord trade : new TreeSet<TradeRecord>(tradeList)) {
+            pLine.accept(trade.toString());
+        }
+    }
+
+    /**
+     * Writes the listing of the trades, sorted, to a temporary run file and lets go of the trades.
+     * @param pDir the folder to write the run file to
+     */
+    void spillTrades(Path pDir) throws IOException {
+        Path file = Files.createTempFile(pDir, "trades-" + getDayKey() + "-", ".run");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (TradeRecord trade : new TreeSet<TradeRecord>(tradeList)) {
+                writer.write(trade.toString());
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        spillFile = file;
+        dropTrades();
+    }
+
+    /**
+     * Lets go of the trades, the totals and stats stay.
+     */
+    void dropTrades() {
+        releasedTrades += tradeList.size();
+        tradeList = new ArrayList<>();
+    }
+
+    /**
+     * Deletes the run file of spilled trades, if there is one. They cannot be listed afterwards.
+     */
+    void deleteSpill() {
+        if (null == spillFile) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(spillFile);
+        } catch (IOException e) {
+            log.warn("deleteSpill() could not delete {}", spillFile, e);
+        }
+        spillFile = null;
+    }
+
 
     /**
      *
@@ -140,12 +434,7 @@ public class TradeDay {
      * @return the volume for the day
      */
     public BigDecimal getVolume() {
-        BigDecimal rVal = BigDecimal.ZERO;
-
-        for (TradeRecord tradeRecord : tradeList) {
-            rVal = rVal.add(tradeRecord.getSize());
-        }
-        return rVal;
+        return totals.getVolume();
     }
 
     /**
@@ -153,14 +442,7 @@ public class TradeDay {
      * @return the buy volume for the day
      */
     public BigDecimal getBuyVolume() {
-        BigDecimal rVal = BigDecimal.ZERO;
-
-        for (TradeRecord trade : tradeList) {
-            if (TradeRecord.BuySell.BUY == trade.sentiment()) {
-                rVal = rVal.add(trade.getSize());
-            }
-        }
-        return rVal;
+        return totals.getBuyVolume();
     }
 
 
@@ -169,14 +451,7 @@ public class TradeDay {
      * @return the sell volume for the day
      */
     public BigDecimal getSellVolume() {
-        BigDecimal rVal = BigDecimal.ZERO;
-
-        for (TradeRecord trade : tradeList) {
-            if (TradeRecord.BuySell.SELL == trade.sentiment()) {
-                rVal = rVal.add(trade.getSize());
-            }
-        }
-        return rVal;
+        return totals.getSellVolume();
     }
 
     /**
@@ -184,14 +459,7 @@ public class TradeDay {
      * @return the unknown volume for the day
      */
     public BigDecimal getUnknownVolume() {
-        BigDecimal rVal = BigDecimal.ZERO;
-
-        for (TradeRecord trade : tradeList) {
-            if (TradeRecord.BuySell.UNKOWN == trade.sentiment()) {
-                rVal = rVal.add(trade.getSize());
-            }
-        }
-        return rVal;
+        return totals.getUnknownVolume();
     }
 
     /**
@@ -199,12 +467,7 @@ public class TradeDay {
      * @return the dollar volume for the day
      */
     public BigDecimal getDollarVolume() {
-        BigDecimal rVal = BigDecimal.ZERO;
-
-        for (TradeRecord tradeRecord : tradeList) {
-            rVal = rVal.add(tradeRecord.getDollarVolume());
-        }
-        return rVal;
+        return totals.getDollarVolume();
     }
 
     /**
@@ -212,14 +475,7 @@ public class TradeDay {
      * @return the dollar buy volume for the day
      */
     public BigDecimal getBuyDollarVolume() {
-        BigDecimal rVal = BigDecimal.ZERO;
-
-        for (TradeRecord trade : tradeList) {
-            if (TradeRecord.BuySell.BUY == trade.sentiment()) {
-                rVal = rVal.add(trade.getDollarVolume());
-            }
-        }
-        return rVal;
+        return totals.getBuyDollarVolume();
     }
 
     /**
@@ -227,14 +483,7 @@ public class TradeDay {
      * @return the dollar sell volume for the day
      */
     public BigDecimal getSellDollarVolume() {
-        BigDecimal rVal = BigDecimal.ZERO;
-
-        for (TradeRecord trade : tradeList) {
-            if (TradeRecord.BuySell.SELL == trade.sentiment()) {
-                rVal = rVal.add(trade.getDollarVolume());
-            }
-        }
-        return rVal;
+        return totals.getSellDollarVolume();
     }
 
     /**
@@ -242,18 +491,39 @@ public class TradeDay {
      * @return the dollar unknown volume for the day
      */
     public BigDecimal getUnknownDollarVolume() {
-        BigDecimal rVal = BigDecimal.ZERO;
+        return totals.getUnknownDollarVolume();
+    }
 
-        for (TradeRecord trade : tradeList) {
-            if (TradeRecord.BuySell.UNKOWN == trade.sentiment()) {
-                rVal = rVal.add(trade.getDollarVolume());
-            }
-        }
-        return rVal;
+    /**
+     * @return the volumes of the day, split by sentiment
+     */
+    public TradeTotals getTotals() {
+        return totals;
+    }
+
+    /**
+     * @return the trade size and price quantiles of the day
+     */
+    public TradeStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the configuration the day was read with, which also decides how it is written out
+     */
+    public GA_FidelityTradesConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the spreads and quote quality of the day
+     */
+    public QuoteStats getQuotes() {
+        return quotes;
     }
 
     public boolean isEmpty() {
-        return this.tradeList.isEmpty();
+        return getTradeCount() == 0;
     }
 
     public int getDayOrdinal() {
@@ -264,6 +534,17 @@ public class TradeDay {
         dayOrdinal = pDayOrdinal;
     }
 
+    /**
+     * @return the trailing window values as of this day, null if none were set
+     */
+    public RollingWindows.Values getRolling() {
+        return rolling;
+    }
+
+    public void setRolling(RollingWindows.Values pRolling) {
+        rolling = pRolling;
+    }
+
 
     @Override
     public String toString() {
@@ -327,14 +608,38 @@ public class TradeDay {
         psw.println(formatter.formatTradeDay(this));
     }
 
+    File getFile() {
+        return aFile;
+    }
+
+    /**
+     * @return the trade lines read, including those that could not be parsed
+     */
+    long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return the trade lines that could not be parsed
+     */
+    long getErrorCount() {
+        return errorCount;
+    }
+
     /**
      * Wrapper around a buffered reader. While there is not much value in wrapping that class
      * this class will skip the summary header info Fidelity puts in their exports.
+     *
+     * Archived exports (csv.gz, or a zip holding the csv) are decompressed as they are read so
+     * they never have to be unpacked to disk.
      */
     public class CSVInputReader {
+        private static final int READ_BUFFER_SIZE = 64 * 1024;
         private final Logger log = LogManager.getLogger("fidelity.trades");
         private final int LINE_NO_DATE = config.getDateLineNumber();
         private BufferedReader reader;
+        private DigestInputStream digestStream;
+        private MessageDigest digest;
         private String dateStr;
         private File file;
 
@@ -346,8 +651,38 @@ public class TradeDay {
             file=pFile;
         }
 
+        /**
+         * Takes a SHA-256 of the raw file bytes as they are read, see {@link #finishDigest()}.
+         */
+        void digest() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Reads whatever the parse left behind (the end of trades marker, the trailer) through the digest.
+         * @return the hex digest of the whole file, or null when no digest was asked for.
+         */
+        String finishDigest() throws IOException {
+            if (null == digestStream) {
+                return null;
+            }
+            byte[] buf = new byte[READ_BUFFER_SIZE];
+            while (digestStream.read(buf) >= 0) {
+                // drain
+            }
+            StringBuilder rVal = new StringBuilder();
+            for (byte b : digest.digest()) {
+                rVal.append(String.format("%02x", b));
+            }
+            return rVal.toString();
+        }
+
         void initFile() throws IOException {
-            reader = new BufferedReader(new FileReader(file));
+            reader = new BufferedReader(new InputStreamReader(openStream()), READ_BUFFER_SIZE);
             // throw away the first few lines (as set by getHeaderSkipLineCount)
             for (int i = 0; i < config.getHeaderSkipLineCount(); i++) {
                 String line = reader.readLine();
@@ -358,6 +693,39 @@ public class TradeDay {
             }
         }
 
+        /**
+         * Opens the raw bytes of the export, layering a decompressor on top based on the file extension.
+         * A zip is expected to hold the day's export as its first file entry.
+         */
+        private InputStream openStream() throws IOException {
+            String name = file.getName().toLowerCase();
+            InputStream in = new FileInputStream(file);
+            if (null != digest) {
+                digestStream = new DigestInputStream(in, digest);
+                in = digestStream;
+            }
+            try {
+                if (name.endsWith("." + GA_FidelityTradesConfig.GZIP_FILE_EXTENSION)) {
+                    return new GZIPInputStream(in, READ_BUFFER_SIZE);
+                }
+                if (name.endsWith("." + GA_FidelityTradesConfig.ZIP_FILE_EXTENSION)) {
+                    ZipInputStream zin = new ZipInputStream(new BufferedInputStream(in, READ_BUFFER_SIZE));
+                    ZipEntry entry;
+                    while ((entry = zin.getNextEntry()) != null) {
+                        if (!entry.isDirectory()) {
+                            log.debug("reading entry {} of {}", entry.getName(), file.getName());
+                            return zin;
+                        }
+                    }
+                    throw new IOException("no file entry found in archive " + file.getAbsolutePath());
+                }
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            return in;
+        }
+
         String getDate() {
             return this.dateStr;
         }
@@ -367,6 +735,9 @@ public class TradeDay {
         }
 
         void close() {
+            if (null == reader) {
+                return;
+            }
             try {
                 reader.close();
             } catch (Exception e) {
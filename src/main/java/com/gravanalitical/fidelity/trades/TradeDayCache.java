@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+
+/**
+ * Processed days kept in memory so analyses that read the same day files again skip parsing them. A day
+ * is found by its file's path, size and modification time, a file that changed is read again.
+ *
+ * The days held are weighed by an estimate of their heap size and the least recently used ones are
+ * evicted to keep the total within the budget. Callers get a {@link TradeDay#copy()}, removing duplicate
+ * trades from it does not change the cached day. Safe to share between the reader threads.
+ */
+public class TradeDayCache {
+    private static final Logger log = LogManager.getLogger("fidelity.trades.TradeDayCache");
+
+    /**
+     * A parsed trade with its five numbers and time, in a list.
+     */
+    static final long TRADE_BYTES = 320L;
+    /**
+     * The day with its sketches and totals.
+     */
+    static final long DAY_BYTES = 16L * 1024L;
+
+    private static final class Key {
+        final String path;
+        final long length;
+        final long modified;
+
+        Key(File pFile) {
+            path = pFile.getAbsolutePath();
+            length = pFile.length();
+            modified = pFile.lastModified();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return length == that.length && modified == that.modified && path.equals(that.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, length, modified);
+        }
+    }
+
+    private static final class Entry {
+        final TradeDay day;
+        final long weight;
+
+        Entry(TradeDay pDay, long pWeight) {
+            day = pDay;
+            weight = pWeight;
+        }
+    }
+
+    private final long budget;
+    /**
+     * In access order, the eldest is the least recently used.
+     */
+    private final LinkedHashMap<Key, Entry> days = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param pBudget the estimated bytes the cached days may take up
+     */
+    public TradeDayCache(long pBudget) {
+        budget = pBudget;
+    }
+
+    /**
+     * @return the day read from the file, from the cache when the file has not changed since
+     * @param pReader reads the file when it is not cached
+     * @throws Exception what the reader throws, the day is then not cached
+     */
+    TradeDay get(File pFile, Callable<TradeDay> pReader) throws Exception {
+        Key key = new Key(pFile);
+        synchronized (this) {
+            Entry entry = days.get(key);
+            if (null != entry) {
+                hits++;
+                return entry.day.copy();
+            }
+            misses++;
+        }
+        // read outside the lock so the other readers carry on, two threads may read the same file once.
+        TradeDay day = pReader.call();
+        put(key, day);
+        return day.copy();
+    }
+
+    private synchronized void put(Key pKey, TradeDay pDay) {
+        long dayWeight = weigh(pDay);
+        if (dayWeight > budget) {
+            log.debug("put(Key, TradeDay) {} is over the whole budget, not cached", pKey.path);
+            return;
+        }
+        Entry previous = days.put(pKey, new Entry(pDay, dayWeight));
+        weight += dayWeight - (null == previous ? 0L : previous.weight);
+        Iterator<Map.Entry<Key, Entry>> eldest = days.entrySet().iterator();
+        while (weight > budget && eldest.hasNext()) {
+            Map.Entry<Key, Entry> evicted = eldest.next();
+            if (evicted.getKey().equals(pKey)) {
+                continue;
+            }
+            weight -= evicted.getValue().weight;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    static long weigh(TradeDay pDay) {
+        return DAY_BYTES + TRADE_BYTES * pDay.getTradeList().size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the estimated bytes of the days held
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized int size() {
+        return days.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "days=" + days.size() + " bytes=" + weight + "/" + budget + " hits=" + hits + " misses=" + misses
+                + " evictions=" + evictions;
+    }
+}
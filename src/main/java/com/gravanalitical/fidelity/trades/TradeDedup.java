@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.collections.LongHashSet;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Drops trades that were already counted from an earlier day file of the same ticker, as happens when a
+ * session is exported twice or with overlapping windows. Days are fed in file name order.
+ *
+ * A trade is known by the fingerprint of its fields and the date line of its file, so the same trade on
+ * another day is not a duplicate. Identical trades within one file are real (the times only go down to the
+ * second) and are all kept; only a trade seen in an earlier file is dropped.
+ *
+ * Optionally, a file whose content is the same as an earlier one is dropped as a whole.
+ */
+class TradeDedup {
+    private final boolean trades;
+    private final boolean files;
+    private final LongHashSet seen = new LongHashSet(1 << 16);
+    private final Set<String> digests = new HashSet<>();
+
+    TradeDedup(boolean pTrades, boolean pFiles) {
+        trades = pTrades;
+        files = pFiles;
+    }
+
+    /**
+     * @return true if the day's file has the same content as a file seen before
+     */
+    boolean isDuplicateFile(TradeDay pDay) {
+        return files && null != pDay.getContentDigest() && !digests.add(pDay.getContentDigest());
+    }
+
+    /**
+     * Removes the trades seen in earlier files from the day and remembers the rest.
+     * @return the number of trades removed
+     */
+    int dropDuplicates(TradeDay pDay) {
+        if (!trades) {
+            return 0;
+        }
+        long dayHash = 0L;
+        String date = pDay.getDateStr();
+        if (null != date) {
+            for (int i = 0; i < date.length(); i++) {
+                dayHash = TradeRecord.mix(dayHash, date.charAt(i));
+            }
+        }
+        long[] current = new long[pDay.getTradeList().size()];
+        int[] count = {0};
+        long day = dayHash;
+        int rVal = pDay.removeTrades(tr -> {
+            long fp = TradeRecord.mix(day, tr.fingerprint());
+            if (seen.contains(fp)) {
+                return true;
+            }
+            current[count[0]++] = fp;
+            return false;
+        });
+        for (int i = 0; i < count[0]; i++) {
+            seen.add(current[i]);
+        }
+        return rVal;
+    }
+}
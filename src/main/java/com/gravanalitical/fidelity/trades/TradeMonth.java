@@ -23,10 +23,14 @@ public class TradeMonth {
     private BigDecimal totalSellDollars = BigDecimal.ZERO;
     private BigDecimal totalUnknownDollars = BigDecimal.ZERO;
 
+    private final TradeStats stats;
+    private final QuoteStats quotes = new QuoteStats();
+
     private GA_FidelityTradesConfig config;
 
     public TradeMonth(GA_FidelityTradesConfig pConfig) {
         config = pConfig;
+        stats = new TradeStats(pConfig);
     }
 
 
@@ -94,6 +98,24 @@ public class TradeMonth {
         totalUnknownDollars = totalUnknownDollars.add(pArg);
     }
 
+    /**
+     * @return the trade size and price quantiles of all the days, merge each day's into it
+     */
+    public TradeStats getStats() {
+        return stats;
+    }
+
+    public GA_FidelityTradesConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the spreads and quote quality of all the days, merge each day's into it
+     */
+    public QuoteStats getQuotes() {
+        return quotes;
+    }
+
     /**
      * This is not going to be written to the CSV file, only the summary text. So, there is
      * no interface and no override.
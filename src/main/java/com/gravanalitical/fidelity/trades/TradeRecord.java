@@ -23,8 +23,10 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.math.MathContext;
 import java.math.RoundingMode;
+import java.util.Objects;
 
 /**
  * Data for a single trade.
@@ -36,12 +38,32 @@ public class TradeRecord implements Comparable {
 
     public  enum BuySell {BUY, SELL, UNKOWN}
 
+    /**
+     * How a trade is classified as a buy or a sell.
+     * <ul>
+     *     <li>QUOTE - at or above the ask is a buy, at or below the bid a sell, anything else unknown.</li>
+     *     <li>TICK - the quote rule, then trades it leaves unknown take the direction of the last price
+     *     change (tick test).</li>
+     *     <li>LEE_READY - above the bid/ask midpoint is a buy, below it a sell. Trades at the midpoint or
+     *     without a usable quote go to the tick test.</li>
+     * </ul>
+     */
+    public enum SentimentRule {QUOTE, TICK, LEE_READY}
+
+    private static final BuySell[] SIDES = BuySell.values();
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+
     private String timeStr;
     private BigDecimal price = BigDecimal.ZERO;
     private BigDecimal size = BigDecimal.ZERO;
     private BigDecimal bid = BigDecimal.ZERO;
     private BigDecimal ask = BigDecimal.ZERO;
 
+    /**
+     * The BuySell ordinal, worked out once when the trade is parsed.
+     */
+    private byte side = (byte) BuySell.UNKOWN.ordinal();
+
     public TradeRecord() {
     }
 
@@ -65,6 +87,7 @@ public class TradeRecord implements Comparable {
         } catch(NumberFormatException nfex) {
             log.warn("Trade day has no ask info. Data: {}", pData);
         }
+        this.side = (byte) classifyByQuote().ordinal();
     }
 
     /**
@@ -81,6 +104,7 @@ public class TradeRecord implements Comparable {
         this.size = pSize;
         this.bid = pBid;
         this.ask = pAsk;
+        this.side = (byte) classifyByQuote().ordinal();
     }
 
     /**
@@ -91,6 +115,58 @@ public class TradeRecord implements Comparable {
         return new TradeRecord(pData);
     }
 
+    /**
+     * "Time","Last Price","Last Size","Bid Price","Ask Price",
+     * @param pRule LEE_READY classifies against the midpoint instead of the bid and ask.
+     */
+    static TradeRecord parse(String pData, SentimentRule pRule) {
+        TradeRecord rVal = parse(pData);
+        if (SentimentRule.LEE_READY == pRule) {
+            rVal.side = (byte) rVal.classifyByMidpoint().ordinal();
+        }
+        return rVal;
+    }
+
+    /**
+     * The sentiment is worked out when the trade is parsed, see {@link #classifyByQuote()}, or
+     * resolved afterwards by the tick test.
+     * @return enum BuySell
+     */
+    public BuySell sentiment() {
+        return SIDES[side];
+    }
+
+    /**
+     * Used by the tick test to resolve a trade the quotes could not classify.
+     */
+    void setSentiment(BuySell pSide) {
+        side = (byte) pSide.ordinal();
+    }
+
+    /**
+     * @return true when the bid and the ask are both present and apart.
+     */
+    private boolean hasUsableQuote() {
+        return !(bid.equals(BigDecimal.ZERO) && ask.equals(BigDecimal.ZERO)) && !bid.equals(ask);
+    }
+
+    /**
+     * Lee-Ready quote rule: above the midpoint is a buy, below it a sell.
+     * @return UNKOWN at the midpoint, or when the quotes are missing.
+     */
+    private BuySell classifyByMidpoint() {
+        if (!hasUsableQuote()) {
+            return BuySell.UNKOWN;
+        }
+        int vsMid = price.multiply(TWO).compareTo(bid.add(ask));
+        if (vsMid > 0) {
+            return BuySell.BUY;
+        } else if (vsMid < 0) {
+            return BuySell.SELL;
+        }
+        return BuySell.UNKOWN;
+    }
+
     /**
      * Using the bid and the ask price this function calculates
      * a sentiment. If the trade is executed between the bid/ask then
@@ -98,7 +174,7 @@ public class TradeRecord implements Comparable {
      * bid or at the ask then the trade is reported as a sell or a buy, respectively.
      * @return enum BuySell
      */
-    public BuySell sentiment() {
+    private BuySell classifyByQuote() {
         if(bid.equals(BigDecimal.ZERO) && ask.equals(BigDecimal.ZERO)) {
             return BuySell.UNKOWN;
         }
@@ -115,29 +191,79 @@ public class TradeRecord implements Comparable {
         return BuySell.UNKOWN;
     }
 
-    BigDecimal getDollarVolume() {
+    public BigDecimal getDollarVolume() {
         return this.price.multiply(this.size);
     }
 
+    public String getTimeStr() {
+        return timeStr;
+    }
+
     public BigDecimal getPrice() {
         return price;
     }
 
-    BigDecimal getSize() {
+    public BigDecimal getSize() {
         return size;
     }
 
+    public BigDecimal getBid() {
+        return bid;
+    }
+
+    public BigDecimal getAsk() {
+        return ask;
+    }
+
+    /**
+     * Two records are the same trade when time, price, size, bid and ask all match. The numbers are
+     * compared by value, 1.10 equals 1.1.
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         TradeRecord that = (TradeRecord) o;
-        return timeStr.equals(that.timeStr);
+        return Objects.equals(timeStr, that.timeStr)
+                && price.compareTo(that.price) == 0
+                && size.compareTo(that.size) == 0
+                && bid.compareTo(that.bid) == 0
+                && ask.compareTo(that.ask) == 0;
     }
 
     @Override
     public int hashCode() {
-        return super.hashCode();
+        long fp = fingerprint();
+        return (int) (fp ^ (fp >>> 32));
+    }
+
+    /**
+     * A 64 bit hash of the fields {@link #equals(Object)} compares. Different trades can share a
+     * fingerprint but it is unlikely, about one pair in a hundred million for a million trades.
+     */
+    public long fingerprint() {
+        long rVal = 0x84222325CBF29CE4L;
+        if (null != timeStr) {
+            for (int i = 0; i < timeStr.length(); i++) {
+                rVal = mix(rVal, timeStr.charAt(i));
+            }
+        }
+        rVal = mix(rVal, price);
+        rVal = mix(rVal, size);
+        rVal = mix(rVal, bid);
+        return mix(rVal, ask);
+    }
+
+    private static long mix(long pHash, BigDecimal pValue) {
+        BigDecimal value = pValue.signum() == 0 ? BigDecimal.ZERO : pValue.stripTrailingZeros();
+        BigInteger unscaled = value.unscaledValue();
+        long rVal = mix(pHash, unscaled.bitLength() < 64 ? unscaled.longValue() : unscaled.hashCode());
+        return mix(rVal, value.scale());
+    }
+
+    static long mix(long pHash, long pValue) {
+        long rVal = (pHash ^ pValue) * 0x9E3779B97F4A7C15L;
+        return rVal ^ (rVal >>> 29);
     }
 
     /**
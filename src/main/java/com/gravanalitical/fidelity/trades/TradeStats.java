@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
+import com.gravanalitical.stats.QuantileSketch;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * The distribution of trade sizes and prices, collected one trade at a time along with the
+ * {@link TradeTotals}. Kept as quantile sketches, so memory does not grow with the number of trades
+ * and the stats of chunks, days and periods merge. Sizes are estimated to within 1%, prices to within 0.1%.
+ *
+ * When those outputs are turned on, the {@link VolumeProfile} and the {@link LargestTrades} by size
+ * and by dollar volume are collected here as well.
+ */
+public class TradeStats {
+    /**
+     * The quantiles written out: median, p90 and p99.
+     */
+    public static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private static final double PRICE_ACCURACY = 0.001;
+    private static final MathContext PRICE_CONTEXT = new MathContext(6, RoundingMode.HALF_UP);
+
+    private final QuantileSketch sizes = new QuantileSketch();
+    /**
+     * A day's prices stay within a narrow band, so they can afford the finer buckets.
+     */
+    private final QuantileSketch prices = new QuantileSketch(PRICE_ACCURACY);
+
+    /**
+     * Null unless the profile output is turned on.
+     */
+    private final VolumeProfile profile;
+
+    /**
+     * Null unless the largest trades output is turned on.
+     */
+    private final LargestTrades largestBySize;
+    private final LargestTrades largestByDollars;
+
+    public TradeStats() {
+        profile = null;
+        largestBySize = null;
+        largestByDollars = null;
+    }
+
+    public TradeStats(GA_FidelityTradesConfig pConfig) {
+        profile = pConfig.isOutputProfile() ? new VolumeProfile(pConfig.getProfileTickScale()) : null;
+        int largest = pConfig.getLargestTradesCount();
+        largestBySize = largest > 0 ? new LargestTrades(largest) : null;
+        largestByDollars = largest > 0 ? new LargestTrades(largest) : null;
+    }
+
+    public void add(TradeRecord pTrade) {
+        double size = pTrade.getSize().doubleValue();
+        double price = pTrade.getPrice().doubleValue();
+        sizes.add(size);
+        prices.add(price);
+        if (null != profile) {
+            profile.add(pTrade);
+        }
+        if (null != largestBySize) {
+            largestBySize.offer(size, pTrade);
+            largestByDollars.offer(size * price, pTrade);
+        }
+    }
+
+    public void merge(TradeStats pOther) {
+        sizes.merge(pOther.sizes);
+        prices.merge(pOther.prices);
+        if (null != profile && null != pOther.profile) {
+            profile.merge(pOther.profile);
+        }
+        if (null != largestBySize && null != pOther.largestBySize) {
+            largestBySize.merge(pOther.largestBySize);
+            largestByDollars.merge(pOther.largestByDollars);
+        }
+    }
+
+    /**
+     * @return the volume at each price, null if the profile output is turned off
+     */
+    public VolumeProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return the largest trades by share count, null if the largest trades output is turned off
+     */
+    public LargestTrades getLargestBySize() {
+        return largestBySize;
+    }
+
+    /**
+     * @return the largest trades by dollar volume, null if the largest trades output is turned off
+     */
+    public LargestTrades getLargestByDollars() {
+        return largestByDollars;
+    }
+
+    /**
+     * @return the trade size at the quantile, in whole shares, zero if there were no trades
+     */
+    public BigDecimal getSizeQuantile(double pQuantile) {
+        if (sizes.isEmpty()) {
+            return BigDecimal.ZERO;
+        }
+        return BigDecimal.valueOf(Math.round(sizes.quantile(pQuantile)));
+    }
+
+    /**
+     * @return the price at the quantile to six significant digits, zero if there were no trades
+     */
+    public BigDecimal getPriceQuantile(double pQuantile) {
+        if (prices.isEmpty()) {
+            return BigDecimal.ZERO;
+        }
+        return new BigDecimal(prices.quantile(pQuantile), PRICE_CONTEXT).stripTrailingZeros();
+    }
+
+    public long getTradeCount() {
+        return sizes.getCount();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import java.math.BigDecimal;
+
+/**
+ * Share and dollar volume, split by sentiment, accumulated one trade at a time while a day
+ * file is read. The sums are exact so totals can be merged in any order.
+ */
+public class TradeTotals {
+    private BigDecimal volume = BigDecimal.ZERO;
+    private BigDecimal buyVolume = BigDecimal.ZERO;
+    private BigDecimal sellVolume = BigDecimal.ZERO;
+    private BigDecimal unknownVolume = BigDecimal.ZERO;
+    private BigDecimal dollars = BigDecimal.ZERO;
+    private BigDecimal buyDollars = BigDecimal.ZERO;
+    private BigDecimal sellDollars = BigDecimal.ZERO;
+    private BigDecimal unknownDollars = BigDecimal.ZERO;
+
+    public TradeTotals() {
+    }
+
+    /**
+     * Restores totals written out earlier, for instance by a checkpoint.
+     */
+    public TradeTotals(BigDecimal pVolume, BigDecimal pBuyVolume, BigDecimal pSellVolume, BigDecimal pUnknownVolume,
+                       BigDecimal pDollars, BigDecimal pBuyDollars, BigDecimal pSellDollars, BigDecimal pUnknownDollars) {
+        volume = pVolume;
+        buyVolume = pBuyVolume;
+        sellVolume = pSellVolume;
+        unknownVolume = pUnknownVolume;
+        dollars = pDollars;
+        buyDollars = pBuyDollars;
+        sellDollars = pSellDollars;
+        unknownDollars = pUnknownDollars;
+    }
+
+    /**
+     * Counts the trade under its current sentiment.
+     */
+    public void add(TradeRecord pTrade) {
+        BigDecimal size = pTrade.getSize();
+        BigDecimal tradeDollars = pTrade.getDollarVolume();
+        volume = volume.add(size);
+        dollars = dollars.add(tradeDollars);
+        switch (pTrade.sentiment()) {
+            case BUY:
+                buyVolume = buyVolume.add(size);
+                buyDollars = buyDollars.add(tradeDollars);
+                break;
+            case SELL:
+                sellVolume = sellVolume.add(size);
+                sellDollars = sellDollars.add(tradeDollars);
+                break;
+            default:
+                unknownVolume = unknownVolume.add(size);
+                unknownDollars = unknownDollars.add(tradeDollars);
+        }
+    }
+
+    public void merge(TradeTotals pOther) {
+        volume = volume.add(pOther.volume);
+        buyVolume = buyVolume.add(pOther.buyVolume);
+        sellVolume = sellVolume.add(pOther.sellVolume);
+        unknownVolume = unknownVolume.add(pOther.unknownVolume);
+        dollars = dollars.add(pOther.dollars);
+        buyDollars = buyDollars.add(pOther.buyDollars);
+        sellDollars = sellDollars.add(pOther.sellDollars);
+        unknownDollars = unknownDollars.add(pOther.unknownDollars);
+    }
+
+    public BigDecimal getVolume() {
+        return volume;
+    }
+
+    public BigDecimal getBuyVolume() {
+        return buyVolume;
+    }
+
+    public BigDecimal getSellVolume() {
+        return sellVolume;
+    }
+
+    public BigDecimal getUnknownVolume() {
+        return unknownVolume;
+    }
+
+    public BigDecimal getDollarVolume() {
+        return dollars;
+    }
+
+    public BigDecimal getBuyDollarVolume() {
+        return buyDollars;
+    }
+
+    public BigDecimal getSellDollarVolume() {
+        return sellDollars;
+    }
+
+    public BigDecimal getUnknownDollarVolume() {
+        return unknownDollars;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.collections.LongLongHashMap;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * Share volume at each traded price, split by sentiment. Prices are kept as a whole number of
+ * ticks, a tick being 10^-tickScale dollars, so the levels live in primitive maps however many
+ * sub-penny prices a ticker trades at.
+ */
+public class VolumeProfile {
+    private final int tickScale;
+    private final LongLongHashMap volume = new LongLongHashMap(256);
+    private final LongLongHashMap buyVolume = new LongLongHashMap(256);
+    private final LongLongHashMap sellVolume = new LongLongHashMap(256);
+
+    /**
+     * @param pTickScale the decimal places of a tick, 4 for a hundredth of a cent
+     */
+    public VolumeProfile(int pTickScale) {
+        tickScale = pTickScale;
+    }
+
+    public void add(TradeRecord pTrade) {
+        long ticks = pTrade.getPrice().movePointRight(tickScale).setScale(0, RoundingMode.HALF_UP).longValue();
+        long size = pTrade.getSize().longValue();
+        volume.addTo(ticks, size);
+        switch (pTrade.sentiment()) {
+            case BUY:
+                buyVolume.addTo(ticks, size);
+                break;
+            case SELL:
+                sellVolume.addTo(ticks, size);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public void merge(VolumeProfile pOther) {
+        if (pOther.tickScale != tickScale) {
+            throw new IllegalArgumentException("cannot merge profiles with different ticks");
+        }
+        volume.addAll(pOther.volume);
+        buyVolume.addAll(pOther.buyVolume);
+        sellVolume.addAll(pOther.sellVolume);
+    }
+
+    /**
+     * @return the price levels traded, in ticks, lowest first
+     */
+    public long[] getLevels() {
+        long[] rVal = volume.keys();
+        Arrays.sort(rVal);
+        return rVal;
+    }
+
+    public BigDecimal toPrice(long pTicks) {
+        return BigDecimal.valueOf(pTicks, tickScale);
+    }
+
+    public long getVolume(long pTicks) {
+        return volume.get(pTicks);
+    }
+
+    public long getBuyVolume(long pTicks) {
+        return buyVolume.get(pTicks);
+    }
+
+    public long getSellVolume(long pTicks) {
+        return sellVolume.get(pTicks);
+    }
+
+    public long getUnknownVolume(long pTicks) {
+        return volume.get(pTicks) - buyVolume.get(pTicks) - sellVolume.get(pTicks);
+    }
+
+    /**
+     * The point of control is the price level with the most volume, the lower one on a tie.
+     * @return the level in ticks, or Long.MIN_VALUE if nothing traded
+     */
+    public long getPointOfControl() {
+        long rVal = Long.MIN_VALUE;
+        long most = -1L;
+        for (long level : volume.keys()) {
+            long levelVolume = volume.get(level);
+            if (levelVolume > most || levelVolume == most && level < rVal) {
+                most = levelVolume;
+                rVal = level;
+            }
+        }
+        return rVal;
+    }
+
+    public boolean isEmpty() {
+        return volume.isEmpty();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades.checkpoint;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps a bad export from stopping the run. A day file that cannot be read is moved out of the
+ * ticker's input folder into <i>TICKER/quarantine</i>; it and any ticker that failed as a whole are
+ * appended to <i>quarantine.txt</i> in the home directory with the reason. Fix the file and move
+ * it back into the input folder to have it picked up again.
+ */
+public class Quarantine {
+    private static final Logger log = LogManager.getLogger("fidelity.trades.Quarantine");
+
+    public static final String QUARANTINE_DIR = "quarantine";
+    public static final String REPORT_FILE_NAME = "quarantine.txt";
+
+    /**
+     * One lock per report file in this JVM, the file lock only keeps other processes out.
+     */
+    private static final ConcurrentMap<Path, Object> REPORT_LOCKS = new ConcurrentHashMap<>();
+
+    private final Path homeDir;
+    private int fileCount;
+    private int tickerCount;
+
+    public Quarantine(String pHomeDir) {
+        homeDir = Paths.get(pHomeDir);
+    }
+
+    /**
+     * Moves the file aside and reports it. Safe to call from the reader threads.
+     */
+    public synchronized void quarantineFile(String ticker, File pFile, Throwable cause) {
+        fileCount++;
+        Path target = homeDir.resolve(ticker).resolve(QUARANTINE_DIR).resolve(pFile.getName());
+        String where;
+        try {
+            Files.createDirectories(target.getParent());
+            Files.move(pFile.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+            where = target.toString();
+        } catch (IOException e) {
+            log.error("quarantineFile(String,File,Throwable) could not move {}", pFile, e);
+            where = pFile.getAbsolutePath() + " (not moved: " + e.getMessage() + ")";
+        }
+        log.error("quarantined {} of {}: {}", pFile.getName(), ticker, cause.toString());
+        report(ticker + "," + where + "," + cause);
+    }
+
+    /**
+     * Reports a ticker whose processing failed for something other than one of its files.
+     */
+    public synchronized void reportTicker(String ticker, Throwable cause) {
+        tickerCount++;
+        log.error("{} failed: {}", ticker, cause.toString());
+        report(ticker + ",," + cause);
+    }
+
+    public synchronized int getFileCount() {
+        return fileCount;
+    }
+
+    public synchronized int getTickerCount() {
+        return tickerCount;
+    }
+
+    /**
+     * Appends under a lock per report file, so the quarantines of concurrent analyses and of other workers
+     * sharing the home directory do not interleave their lines.
+     */
+    private void report(String entry) {
+        Path reportFile = homeDir.resolve(REPORT_FILE_NAME).toAbsolutePath().normalize();
+        ByteBuffer line = ByteBuffer.wrap((LocalDateTime.now() + "," + entry + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        synchronized (REPORT_LOCKS.computeIfAbsent(reportFile, key -> new Object())) {
+            try (FileChannel channel = FileChannel.open(reportFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                FileLock lock = channel.lock();
+                try {
+                    while (line.hasRemaining()) {
+                        channel.write(line);
+                    }
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                log.error("report(String) could not write the quarantine report", e);
+            }
+        }
+    }
+}
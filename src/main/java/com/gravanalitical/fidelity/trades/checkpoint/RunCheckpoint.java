@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades.checkpoint;
+
+import com.gravanalitical.fidelity.trades.TradeTotals;
+import com.gravanalitical.fidelity.trades.portfolio.TickerResult;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Remembers which tickers of a run are finished, so a run that crashed or was stopped can pick up
+ * at the first unfinished ticker. A ticker's checkpoint holds its day totals, which is all the portfolio
+ * rollup needs, and is written only after the ticker's output files are closed.
+ *
+ * Checkpoints live in <i>home/.checkpoint</i>, in a folder per ticker selection, so that a run for a
+ * single ticker does not pick up, or throw away, the progress of an interrupted run over all of them.
+ */
+public class RunCheckpoint {
+    private static final Logger log = LogManager.getLogger("fidelity.trades.RunCheckpoint");
+
+    public static final String CHECKPOINT_DIR = ".checkpoint";
+    private static final String SUFFIX = ".ckpt";
+    private static final String DELIMITER = ",";
+
+    private final Path dir;
+
+    /**
+     * @param pHomeDir the home directory
+     * @param pSelectedTickers the tickers named on the command line, empty for all of them
+     */
+    public RunCheckpoint(String pHomeDir, Collection<String> pSelectedTickers) {
+        String selection = pSelectedTickers.isEmpty() ? "all" : String.join("+", pSelectedTickers);
+        if (selection.length() > 64) {
+            selection = "selection-" + Integer.toHexString(selection.hashCode());
+        }
+        dir = Paths.get(pHomeDir, CHECKPOINT_DIR, selection);
+    }
+
+    public boolean isFinished(String ticker) {
+        return Files.exists(dir.resolve(ticker + SUFFIX));
+    }
+
+    /**
+     * @return how many tickers of the run were finished before
+     */
+    public int finishedCount() throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        try (Stream<Path> paths = Files.list(dir)) {
+            return (int) paths.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).count();
+        }
+    }
+
+    /**
+     * Records the ticker as finished. The checkpoint is written to a temporary file and renamed,
+     * so a crash never leaves half of one behind.
+     */
+    public void record(TickerResult pResult) throws IOException {
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, pResult.getTicker(), ".tmp");
+        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, TradeTotals> day : pResult.getDays().entrySet()) {
+                TradeTotals totals = day.getValue();
+                pw.println(day.getKey() + DELIMITER +
+                        totals.getVolume() + DELIMITER +
+                        totals.getBuyVolume() + DELIMITER +
+                        totals.getSellVolume() + DELIMITER +
+                        totals.getUnknownVolume() + DELIMITER +
+                        totals.getDollarVolume() + DELIMITER +
+                        totals.getBuyDollarVolume() + DELIMITER +
+                        totals.getSellDollarVolume() + DELIMITER +
+                        totals.getUnknownDollarVolume());
+            }
+        }
+        Files.move(tmp, dir.resolve(pResult.getTicker() + SUFFIX), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return the result recorded for a finished ticker
+     */
+    public TickerResult load(String ticker) throws IOException {
+        TickerResult rVal = new TickerResult(ticker);
+        try (BufferedReader reader = Files.newBufferedReader(dir.resolve(ticker + SUFFIX), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split(DELIMITER);
+                rVal.addDay(fields[0], new TradeTotals(
+                        new BigDecimal(fields[1]), new BigDecimal(fields[2]), new BigDecimal(fields[3]), new BigDecimal(fields[4]),
+                        new BigDecimal(fields[5]), new BigDecimal(fields[6]), new BigDecimal(fields[7]), new BigDecimal(fields[8])));
+            }
+        }
+        return rVal;
+    }
+
+    /**
+     * The run is over, the next one starts from the beginning.
+     */
+    public void clear() throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+        Files.deleteIfExists(dir);
+        log.debug("clear() removed {}", dir);
+    }
+}
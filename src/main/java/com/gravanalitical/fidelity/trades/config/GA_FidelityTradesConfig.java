@@ -17,21 +17,22 @@
 
 package com.gravanalitical.fidelity.trades.config;
 
+import com.gravanalitical.fidelity.trades.TradeDay;
+import com.gravanalitical.fidelity.trades.TradeRecord;
 import org.apache.commons.configuration2.Configuration;
-import org.apache.commons.configuration2.FileBasedConfiguration;
 import org.apache.commons.configuration2.PropertiesConfiguration;
-import org.apache.commons.configuration2.builder.FileBasedConfigurationBuilder;
-import org.apache.commons.configuration2.builder.fluent.Parameters;
 import org.apache.commons.configuration2.convert.DefaultListDelimiterHandler;
 import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.commons.configuration2.io.FileHandler;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.MarkerManager;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
-import java.util.ResourceBundle;
 
 /**
  * Reads the configuration, "fidelity.properties" from the base directory passed in the "init" call.
@@ -40,9 +41,6 @@ import java.util.ResourceBundle;
 public class GA_FidelityTradesConfig {
     private static final Logger log = LogManager.getLogger("fidelity.trades.GA_FidelityTradesConfig");
 
-    private Locale locale = new Locale("en", "US");
-    private ResourceBundle displayKeys = ResourceBundle.getBundle("DisplayKeys", locale);
-
     public static class PropertyConstants {
         public static final String HOME_KEY               = "com.ga.fidelity.trades.home";
         public static final String RUNNING_AVERAGE        = "com.ga.fidelity.running.vwda";
@@ -55,6 +53,30 @@ public class GA_FidelityTradesConfig {
         static final String BUCKET_LOGIC                  = "com.ga.fidelity.trades.bucket.logx";  //=INCLUSIVE,INCLUSIVE
         static final String BIG_NUMBER_SCALE              = "com.ga.fidelity.trades.scale";
         static final String INCLUDE_TRADES                = "com.ga.fidelity.trades.include";
+        static final String INPUT_WORKERS                 = "com.ga.fidelity.trades.input.workers";
+        static final String SHARD_LEASE_SECONDS           = "com.ga.fidelity.trades.shard.lease.seconds";
+        static final String SENTIMENT_RULE                = "com.ga.fidelity.trades.sentiment.rule";
+        static final String INPUT_ORDER                   = "com.ga.fidelity.trades.input.order";
+        static final String PARALLEL_PARSE_BYTES          = "com.ga.fidelity.trades.parse.parallel.bytes";
+        static final String PARSE_CHUNK_BYTES             = "com.ga.fidelity.trades.parse.chunk.bytes";
+        static final String DEDUP_TRADES                  = "com.ga.fidelity.trades.dedup.trades";
+        static final String DEDUP_FILES                   = "com.ga.fidelity.trades.dedup.files";
+        static final String OUTPUT_JSON                   = "com.ga.fidelity.trades.output.json";
+        static final String OUTPUT_QUANTILES              = "com.ga.fidelity.trades.output.quantiles";
+        static final String OUTPUT_QUOTES                 = "com.ga.fidelity.trades.output.quotes";
+        static final String ROLLING_WINDOWS               = "com.ga.fidelity.trades.output.rolling.windows";
+        static final String OUTPUT_PROFILE                = "com.ga.fidelity.trades.output.profile";
+        static final String PROFILE_TICK_SCALE            = "com.ga.fidelity.trades.profile.tick.scale";
+        static final String OUTPUT_LARGEST_TRADES         = "com.ga.fidelity.trades.output.largest.trades";
+        static final String TICKER_WORKERS                = "com.ga.fidelity.trades.ticker.workers";
+        static final String CACHE_BYTES                   = "com.ga.fidelity.trades.cache.bytes";
+        static final String MEMORY_BYTES                  = "com.ga.fidelity.trades.memory.bytes";
+        static final String MEMORY_SPILL_DIR              = "com.ga.fidelity.trades.memory.spill.dir";
+        static final String SERVER_HOST                   = "com.ga.fidelity.trades.server.host";
+        static final String SERVER_PORT                   = "com.ga.fidelity.trades.server.port";
+        static final String SERVER_THREADS                = "com.ga.fidelity.trades.server.threads";
+        static final String CORRELATION_MIN_DAYS          = "com.ga.fidelity.trades.correlation.min.days";
+        static final String CORRELATION_TOP               = "com.ga.fidelity.trades.correlation.top";
     }
 
     /**
@@ -72,15 +94,32 @@ public class GA_FidelityTradesConfig {
     public static final String CSV_FILE_EXTENSION = "csv";
 
     /**
-     * The extensions of the files to process from the input dir.
+     * The file extension for a gzip compressed CSV file (csv.gz)
+     */
+    public static final String GZIP_FILE_EXTENSION = "csv.gz";
+
+    /**
+     * The file extension for a zip archive holding a CSV file (zip)
      */
-    public static final String[] FILE_EXT_FOR_PROCESSING = {CSV_FILE_EXTENSION};
+    public static final String ZIP_FILE_EXTENSION = "zip";
 
-    private static String baseDir;
-    private static String fileSeparator;
-    private static Configuration config;
+    /**
+     * The extensions of the files to process from the input dir. Archived exports are
+     * decompressed while they are read, see TradeDay.CSVInputReader.
+     */
+    public static final String[] FILE_EXT_FOR_PROCESSING = {CSV_FILE_EXTENSION, GZIP_FILE_EXTENSION, ZIP_FILE_EXTENSION};
+
+    private final String baseDir;
+    private final String fileSeparator;
+    /**
+     * Only read once it is loaded, which is safe from any number of threads.
+     */
+    private final Configuration config;
 
-    private static GA_FidelityTradesConfig _instance;
+    /**
+     * The configuration of the command line run, see {@link #init(String)}.
+     */
+    private static volatile GA_FidelityTradesConfig _instance;
 
     /**
      *
@@ -91,35 +130,44 @@ public class GA_FidelityTradesConfig {
         fileSeparator = System.getProperty("file.separator");
         log.info("GA_FidelityTradesConfig(String) BASE_DIR: " + baseDir);
         if(null == baseDir) {
-            throw new Error("GA_FidelityTradesConfig(String) based directory is null. Did you set the command line property, \"-D" + PropertyConstants.HOME_KEY + "?\"");
+            throw new IllegalArgumentException("GA_FidelityTradesConfig(String) based directory is null. Did you set the command line property, \"-D" + PropertyConstants.HOME_KEY + "?\"");
         }
         if(log.isDebugEnabled()) {
             log.debug("GA_FidelityTradesConfig(String) FILE SEP: " + fileSeparator);
         }
 
-        Parameters params = new Parameters();
-        FileBasedConfigurationBuilder<FileBasedConfiguration> builder =
-                new FileBasedConfigurationBuilder<>(PropertiesConfiguration.class);
-
-        builder.configure(params.properties().setListDelimiterHandler(new DefaultListDelimiterHandler(','))
-                .setFileName(baseDir+fileSeparator+"fidelity.properties"));
-
+        // Loaded directly rather than through a configuration builder, the builders pull in beanutils
+        // and a lot of reflection which is most of the start up time of a single ticker run.
+        PropertiesConfiguration properties = new PropertiesConfiguration();
+        properties.setListDelimiterHandler(new DefaultListDelimiterHandler(','));
         try {
-            config = builder.getConfiguration();
+            new FileHandler(properties).load(new File(baseDir+fileSeparator+"fidelity.properties"));
         } catch(ConfigurationException cex) {
             log.error("GA_FidelityTradesConfig(String) configuration failed.",cex);
-            System.exit(-1);
-        } finally {
-
+            throw new IllegalArgumentException("cannot load the fidelity.properties of " + baseDir, cex);
         }
+        config = properties;
     }
 
+    /**
+     * Loads the fidelity.properties of a home directory for the command line run, later available
+     * from {@link #getInstance()}.
+     */
     public static GA_FidelityTradesConfig init(String pathName) {
         log.info("init(String) pathName - {}",pathName);
         _instance = new GA_FidelityTradesConfig(pathName);
         return _instance;
     }
 
+    /**
+     * Loads the fidelity.properties of a home directory without making it the instance of the command
+     * line run. Each home can have its own configuration in one JVM, see TradeAnalysisEngine.
+     * @throws IllegalArgumentException if the home directory is null or its properties cannot be read
+     */
+    public static GA_FidelityTradesConfig load(String pHomeDir) {
+        return new GA_FidelityTradesConfig(pHomeDir);
+    }
+
 
     public static GA_FidelityTradesConfig getInstance() {
         return _instance;
@@ -150,6 +198,203 @@ public class GA_FidelityTradesConfig {
         return config.getBoolean(PropertyConstants.INCLUDE_TRADES, false);
     }
 
+    /**
+     * Number of day files read (and decompressed) at the same time for one ticker. Each worker
+     * reads a whole file, the days are still reported in file name order.
+     * @return the worker count, never less than 1
+     */
+    public int getInputWorkers() {
+        return Math.max(1, config.getInt(PropertyConstants.INPUT_WORKERS, 1));
+    }
+
+    /**
+     * Number of tickers processed at the same time, the largest first. The workers share the day files of
+     * the tickers still running once there are no tickers left to start. 0 uses one per processor.
+     * @return the worker count, never less than 1
+     */
+    public int getTickerWorkers() {
+        int rVal = config.getInt(PropertyConstants.TICKER_WORKERS, 1);
+        return rVal <= 0 ? Runtime.getRuntime().availableProcessors() : rVal;
+    }
+
+    /**
+     * In shard mode, a ticker lease that has not been renewed for this many seconds is taken to belong to a
+     * crashed worker and can be reclaimed.
+     * @return the lease timeout in seconds
+     */
+    public long getShardLeaseSeconds() {
+        return config.getLong(PropertyConstants.SHARD_LEASE_SECONDS, 300L);
+    }
+
+    /**
+     * How trades are classified as buys or sells, QUOTE (the default), TICK or LEE_READY.
+     * @return the classification rule
+     */
+    public TradeRecord.SentimentRule getSentimentRule() {
+        return TradeRecord.SentimentRule.valueOf(
+                config.getString(PropertyConstants.SENTIMENT_RULE, TradeRecord.SentimentRule.QUOTE.name()).trim());
+    }
+
+    /**
+     * ActiveTraderPro exports time and sales with the most recent trade on top.
+     * @return the order of the trades in the input files
+     */
+    public TradeDay.InputOrder getInputOrder() {
+        return TradeDay.InputOrder.valueOf(
+                config.getString(PropertyConstants.INPUT_ORDER, TradeDay.InputOrder.NEWEST_FIRST.name()).trim());
+    }
+
+    /**
+     * Uncompressed day files at least this big are parsed in chunks on several threads.
+     * @return the size in bytes, 0 to always read files on one thread
+     */
+    public long getParallelParseBytes() {
+        return config.getLong(PropertyConstants.PARALLEL_PARSE_BYTES, 64L * 1024 * 1024);
+    }
+
+    /**
+     * @return the approximate size of a chunk when a day file is parsed on several threads
+     */
+    public long getParseChunkBytes() {
+        return Math.max(1L, config.getLong(PropertyConstants.PARSE_CHUNK_BYTES, 8L * 1024 * 1024));
+    }
+
+    /**
+     * Trades already read from an earlier file of the ticker (overlapping exports) are not counted again.
+     */
+    public boolean isDedupTrades() {
+        return config.getBoolean(PropertyConstants.DEDUP_TRADES, false);
+    }
+
+    /**
+     * A day file with the same content as an earlier one is skipped.
+     */
+    public boolean isDedupFiles() {
+        return config.getBoolean(PropertyConstants.DEDUP_FILES, false);
+    }
+
+    /**
+     * Besides TICKER.csv, write TICKER.ndjson with a JSON object per day and one for the whole period.
+     */
+    public boolean isJsonOutput() {
+        return config.getBoolean(PropertyConstants.OUTPUT_JSON, false);
+    }
+
+    /**
+     * Add the median, p90 and p99 of trade size and price to the outputs.
+     */
+    public boolean isOutputQuantiles() {
+        return config.getBoolean(PropertyConstants.OUTPUT_QUANTILES, false);
+    }
+
+    /**
+     * Add the bid/ask spreads and the share of trades without a quote or outside it to the outputs.
+     */
+    public boolean isOutputQuotes() {
+        return config.getBoolean(PropertyConstants.OUTPUT_QUOTES, false);
+    }
+
+    /**
+     * @return the lengths, in days, of the trailing windows added to TICKER.csv; none by default
+     */
+    public int[] getRollingWindows() {
+        List<String> values = config.getList(String.class, PropertyConstants.ROLLING_WINDOWS, Collections.emptyList());
+        int[] rVal = new int[values.size()];
+        int count = 0;
+        for (String value : values) {
+            if (!value.trim().isEmpty()) {
+                int days = Integer.parseInt(value.trim());
+                if (days < 1) {
+                    throw new IllegalArgumentException(PropertyConstants.ROLLING_WINDOWS + " has a window of " + days + " days");
+                }
+                rVal[count++] = days;
+            }
+        }
+        return Arrays.copyOf(rVal, count);
+    }
+
+    /**
+     * Write TICKER.profile.csv, the volume at each price level of each day and of the whole period.
+     */
+    public boolean isOutputProfile() {
+        return config.getBoolean(PropertyConstants.OUTPUT_PROFILE, false);
+    }
+
+    /**
+     * @return the decimal places of a price level in the volume profile, 4 by default
+     */
+    public int getProfileTickScale() {
+        return config.getInt(PropertyConstants.PROFILE_TICK_SCALE, 4);
+    }
+
+    /**
+     * @return how many of the largest trades, by size and by dollar volume, to list for each day and
+     * for the whole period, 0 (the default) for none
+     */
+    public int getLargestTradesCount() {
+        return Math.max(0, config.getInt(PropertyConstants.OUTPUT_LARGEST_TRADES, 0));
+    }
+
+    /**
+     * @return the estimated heap an engine may use to keep processed days for its next analyses, 0 (the
+     * default) for none
+     */
+    public long getCacheBytes() {
+        return Math.max(0L, config.getLong(PropertyConstants.CACHE_BYTES, 0L));
+    }
+
+    /**
+     * @return the estimated heap the trades held by an engine may take up, 0, the default, for no limit
+     */
+    public long getMemoryBytes() {
+        return Math.max(0L, config.getLong(PropertyConstants.MEMORY_BYTES, 0L));
+    }
+
+    /**
+     * @return the folder the engines write spilled trades to, each engine in a folder of its own; .spill in the
+     * home directory by default
+     */
+    public String getSpillDir() {
+        String rVal = config.getString(PropertyConstants.MEMORY_SPILL_DIR, null);
+        return null == rVal || rVal.trim().isEmpty() ? new File(baseDir, ".spill").getPath() : rVal.trim();
+    }
+
+    /**
+     * @return the address the query server listens on, null, the default, for the loopback address only
+     */
+    public String getServerHost() {
+        String rVal = config.getString(PropertyConstants.SERVER_HOST, null);
+        return null == rVal || rVal.trim().isEmpty() ? null : rVal.trim();
+    }
+
+    /**
+     * @return the port the query server listens on, 8080 by default
+     */
+    public int getServerPort() {
+        return config.getInt(PropertyConstants.SERVER_PORT, 8080);
+    }
+
+    /**
+     * @return the threads answering queries, 16 by default
+     */
+    public int getServerThreads() {
+        return Math.max(1, config.getInt(PropertyConstants.SERVER_THREADS, 16));
+    }
+
+    /**
+     * @return the trade dates two tickers need in common for --correlate to correlate them, 20 by default
+     */
+    public int getCorrelationMinDays() {
+        return Math.max(2, config.getInt(PropertyConstants.CORRELATION_MIN_DAYS, 20));
+    }
+
+    /**
+     * @return the number of most correlated pairs --correlate lists, 100 by default
+     */
+    public int getCorrelationTop() {
+        return Math.max(0, config.getInt(PropertyConstants.CORRELATION_TOP, 100));
+    }
+
     public boolean includeRunningAverage() {
         return config.getBoolean(PropertyConstants.RUNNING_AVERAGE, false);
     }
@@ -170,6 +415,16 @@ public class GA_FidelityTradesConfig {
                 buffer.append(",");
             }
         }
+        if(isOutputQuantiles()) {
+            buffer.append(",\"Size P50\",\"Size P90\",\"Size P99\",\"Price P50\",\"Price P90\",\"Price P99\"");
+        }
+        if(isOutputQuotes()) {
+            buffer.append(",\"Avg Spread\",\"TW Spread\",\"Eff Spread\",\"Rel Eff Spread\",\"Pct No Quote\",\"Pct Outside Quote\"");
+        }
+        for (int days : getRollingWindows()) {
+            buffer.append(",\"VWAP ").append(days).append("d\",\"Buy/Sell DV ").append(days)
+                    .append("d\",\"Volume Z ").append(days).append("d\"");
+        }
         return  buffer.toString();
     }
 
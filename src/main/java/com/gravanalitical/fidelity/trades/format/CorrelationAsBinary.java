@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.gravanalitical.fidelity.trades.format;
+
+import com.gravanalitical.fidelity.trades.portfolio.CorrelationMatrix;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a correlation matrix compactly, big-endian as DataOutputStream writes: the magic "GACM", the format
+ * version, the number of tickers n, each ticker as a short length and its UTF-8 bytes, then the n(n-1)/2
+ * floats of the upper triangle row after row, NaN where a pair had too few days in common.
+ */
+public class CorrelationAsBinary {
+    public static final int MAGIC = 0x4741434D;
+    public static final int VERSION = 1;
+
+    public void formatMatrix(CorrelationMatrix pMatrix, OutputStream pOut) throws IOException {
+        DataOutputStream out = new DataOutputStream(pOut);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(pMatrix.size());
+        for (String ticker : pMatrix.getTickers()) {
+            byte[] name = ticker.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(name.length);
+            out.write(name);
+        }
+        for (float correlation : pMatrix.getUpperTriangle()) {
+            out.writeFloat(correlation);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.gravanalitical.fidelity.trades.format;
+
+import com.gravanalitical.fidelity.trades.portfolio.CorrelationMatrix;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Writes the most correlated pairs of a correlation matrix as CSV, highest first.
+ */
+public class CorrelationAsCSV {
+    private static final String DELIMITER = ",";
+    public static final String HEADER = "\"Rank\",\"Ticker\",\"Ticker\",\"Correlation\",\"Days\"";
+
+    public void formatTopPairs(CorrelationMatrix pMatrix, PrintWriter pw) {
+        pw.println(HEADER);
+        int rank = 0;
+        for (CorrelationMatrix.Pair pair : pMatrix.getTopPairs()) {
+            pw.print(++rank);
+            pw.print(DELIMITER);
+            pw.print(pair.getTickerA());
+            pw.print(DELIMITER);
+            pw.print(pair.getTickerB());
+            pw.print(DELIMITER);
+            pw.print(String.format(Locale.ROOT, "%.6f", pair.getCorrelation()));
+            pw.print(DELIMITER);
+            pw.println(pair.getDays());
+        }
+    }
+}
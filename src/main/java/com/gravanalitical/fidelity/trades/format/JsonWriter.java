@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades.format;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+
+/**
+ * Writes flat JSON objects, one per line (NDJSON), straight to a Writer. Field names are the
+ * caller's constants and are not escaped; string values are.
+ */
+class JsonWriter {
+    private final Writer out;
+    private boolean first;
+
+    JsonWriter(Writer pOut) {
+        out = pOut;
+    }
+
+    JsonWriter beginObject() throws IOException {
+        out.write('{');
+        first = true;
+        return this;
+    }
+
+    /**
+     * Ends the object and the line.
+     */
+    void endObject() throws IOException {
+        out.write('}');
+        out.write('\n');
+    }
+
+    JsonWriter field(String pName, String pValue) throws IOException {
+        name(pName);
+        if (null == pValue) {
+            out.write("null");
+            return this;
+        }
+        out.write('"');
+        for (int i = 0; i < pValue.length(); i++) {
+            char c = pValue.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+        return this;
+    }
+
+    JsonWriter field(String pName, long pValue) throws IOException {
+        name(pName);
+        out.write(Long.toString(pValue));
+        return this;
+    }
+
+    /**
+     * Written as a plain JSON number, without an exponent. Null is written as null.
+     */
+    JsonWriter field(String pName, BigDecimal pValue) throws IOException {
+        name(pName);
+        out.write(null == pValue ? "null" : pValue.toPlainString());
+        return this;
+    }
+
+    private void name(String pName) throws IOException {
+        if (!first) {
+            out.write(',');
+        }
+        first = false;
+        out.write('"');
+        out.write(pName);
+        out.write('"');
+        out.write(':');
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades.format;
+
+import com.gravanalitical.fidelity.trades.LargestTrades;
+import com.gravanalitical.fidelity.trades.TradeRecord;
+import com.gravanalitical.fidelity.trades.TradeStats;
+
+import java.io.PrintWriter;
+
+/**
+ * Writes the largest trades as CSV, the ones by size ranked first, then the ones by dollar volume.
+ */
+public class LargestTradesAsCSV {
+    private static final String DELIMITER = ",";
+    public static final String HEADER = "\"Date\",\"By\",\"Rank\",\"Time\",\"Price\",\"Size\",\"Dollar Volume\",\"Sentiment\"";
+    static final String BY_SIZE = "SIZE";
+    static final String BY_DOLLARS = "DOLLARS";
+
+    /**
+     * @param pPeriod the first column of every row, the day or the period the trades are from
+     */
+    public void formatLargestTrades(String pPeriod, TradeStats pStats, PrintWriter pw) {
+        formatTrades(pPeriod, BY_SIZE, pStats.getLargestBySize(), pw);
+        formatTrades(pPeriod, BY_DOLLARS, pStats.getLargestByDollars(), pw);
+    }
+
+    private void formatTrades(String pPeriod, String pBy, LargestTrades pTrades, PrintWriter pw) {
+        int rank = 0;
+        for (TradeRecord trade : pTrades.getTrades()) {
+            pw.print(pPeriod);
+            pw.print(DELIMITER);
+            pw.print(pBy);
+            pw.print(DELIMITER);
+            pw.print(++rank);
+            pw.print(DELIMITER);
+            pw.print(trade.getTimeStr());
+            pw.print(DELIMITER);
+            pw.print(trade.getPrice().toPlainString());
+            pw.print(DELIMITER);
+            pw.print(trade.getSize().toPlainString());
+            pw.print(DELIMITER);
+            pw.print(trade.getDollarVolume().toPlainString());
+            pw.print(DELIMITER);
+            pw.println(trade.sentiment());
+        }
+    }
+}
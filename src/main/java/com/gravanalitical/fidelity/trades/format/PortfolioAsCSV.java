@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades.format;
+
+import com.gravanalitical.fidelity.trades.TradeTotals;
+import com.gravanalitical.fidelity.trades.portfolio.Portfolio;
+
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+
+/**
+ * Writes a portfolio rollup as CSV in three sections: the totals of all tickers, the buy/sell
+ * pressure of each day across the tickers, and each ticker's contribution.
+ */
+public class PortfolioAsCSV {
+    private static final String DELIMITER = ",";
+    private static final String TOTALS_HEADER = "\"Volume\",\"Buy\",\"Sell\",\"???\",\"DV\",\"DV Buy\",\"DV Sell\",\"DV ???\",\"DV-Pct Buy\",\"DV-Pct Sell\",\"DV-Pct ???\"";
+
+    public void formatPortfolio(Portfolio pPortfolio, PrintWriter pw) {
+        TradeTotals overall = pPortfolio.getTotals();
+
+        pw.println("\"Portfolio\"," + TOTALS_HEADER);
+        pw.println("\"All\"" + DELIMITER + totalsColumns(overall));
+        pw.println();
+
+        pw.println("\"Date\"," + TOTALS_HEADER);
+        for (Map.Entry<String, TradeTotals> day : pPortfolio.getByDay().entrySet()) {
+            pw.println(day.getKey() + DELIMITER + totalsColumns(day.getValue()));
+        }
+        pw.println();
+
+        pw.println("\"Ticker\"," + TOTALS_HEADER + ",\"Pct of Volume\",\"Pct of DV\"");
+        for (Map.Entry<String, TradeTotals> ticker : pPortfolio.getByTicker().entrySet()) {
+            TradeTotals totals = ticker.getValue();
+            pw.println(ticker.getKey() + DELIMITER + totalsColumns(totals) + DELIMITER +
+                    pct(totals.getVolume(), overall.getVolume()) + DELIMITER +
+                    pct(totals.getDollarVolume(), overall.getDollarVolume()));
+        }
+    }
+
+    private static String totalsColumns(TradeTotals totals) {
+        return totals.getVolume() + DELIMITER +
+                totals.getBuyVolume() + DELIMITER +
+                totals.getSellVolume() + DELIMITER +
+                totals.getUnknownVolume() + DELIMITER +
+                totals.getDollarVolume() + DELIMITER +
+                totals.getBuyDollarVolume() + DELIMITER +
+                totals.getSellDollarVolume() + DELIMITER +
+                totals.getUnknownDollarVolume() + DELIMITER +
+                pct(totals.getBuyDollarVolume(), totals.getDollarVolume()) + DELIMITER +
+                pct(totals.getSellDollarVolume(), totals.getDollarVolume()) + DELIMITER +
+                pct(totals.getUnknownDollarVolume(), totals.getDollarVolume());
+    }
+
+    private static BigDecimal pct(BigDecimal part, BigDecimal whole) {
+        if (whole.signum() == 0) {
+            return BigDecimal.ZERO;
+        }
+        return part.divide(whole, 5, RoundingMode.HALF_UP);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades.format;
+
+import com.gravanalitical.fidelity.trades.TradeTotals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * The answers of the query server, one JSON object each.
+ */
+public class QueryAsJSON {
+    private static final int PCT_SCALE = 5;
+
+    /**
+     * @param pFrom the first day found in the range, null if there were none
+     * @param pTo the last day found in the range, null if there were none
+     * @param pScale the decimal places of the VWAP
+     */
+    public String formatAggregate(String pTicker, String pFrom, String pTo, int pDays, TradeTotals pTotals, int pScale) {
+        StringWriter rVal = new StringWriter();
+        try {
+            new JsonWriter(rVal).beginObject()
+                    .field("ticker", pTicker)
+                    .field("from", pFrom)
+                    .field("to", pTo)
+                    .field("days", pDays)
+                    .field("vwap", ratio(pTotals.getDollarVolume(), pTotals.getVolume(), pScale))
+                    .field("volume", pTotals.getVolume())
+                    .field("buyVolume", pTotals.getBuyVolume())
+                    .field("sellVolume", pTotals.getSellVolume())
+                    .field("unknownVolume", pTotals.getUnknownVolume())
+                    .field("dollarVolume", pTotals.getDollarVolume())
+                    .field("buyDollarVolume", pTotals.getBuyDollarVolume())
+                    .field("sellDollarVolume", pTotals.getSellDollarVolume())
+                    .field("unknownDollarVolume", pTotals.getUnknownDollarVolume())
+                    .field("pctBuyVolume", ratio(pTotals.getBuyVolume(), pTotals.getVolume(), PCT_SCALE))
+                    .field("pctSellVolume", ratio(pTotals.getSellVolume(), pTotals.getVolume(), PCT_SCALE))
+                    .field("pctBuyDollarVolume", ratio(pTotals.getBuyDollarVolume(), pTotals.getDollarVolume(), PCT_SCALE))
+                    .field("pctSellDollarVolume", ratio(pTotals.getSellDollarVolume(), pTotals.getDollarVolume(), PCT_SCALE))
+                    .endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return rVal.toString();
+    }
+
+    /**
+     * @param pLatencyMillis the request latency at each of pQuantiles
+     */
+    public String formatMetrics(long pRequests, long pErrors, BigDecimal pMeanMillis, double[] pQuantiles, BigDecimal[] pLatencyMillis) {
+        StringWriter rVal = new StringWriter();
+        try {
+            JsonWriter json = new JsonWriter(rVal).beginObject()
+                    .field("requests", pRequests)
+                    .field("errors", pErrors)
+                    .field("meanMillis", pMeanMillis);
+            for (int i = 0; i < pQuantiles.length; i++) {
+                json.field("p" + Math.round(pQuantiles[i] * 100) + "Millis", pLatencyMillis[i]);
+            }
+            json.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return rVal.toString();
+    }
+
+    public String formatError(String pMessage) {
+        StringWriter rVal = new StringWriter();
+        try {
+            new JsonWriter(rVal).beginObject().field("error", pMessage).endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return rVal.toString();
+    }
+
+    /**
+     * @return null when there is nothing to divide by
+     */
+    private static BigDecimal ratio(BigDecimal pPart, BigDecimal pWhole, int pScale) {
+        if (pWhole.signum() == 0) {
+            return null;
+        }
+        return pPart.divide(pWhole, pScale, RoundingMode.HALF_UP);
+    }
+}
@@ -17,10 +17,16 @@
 
 package com.gravanalitical.fidelity.trades.format;
 
+import com.gravanalitical.fidelity.trades.QuoteStats;
+import com.gravanalitical.fidelity.trades.RollingWindows;
 import com.gravanalitical.fidelity.trades.TradeDay;
+import com.gravanalitical.fidelity.trades.TradeStats;
+import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.math.BigDecimal;
+
 /**
  * Formats the trade day as a CSV string.
  */
@@ -39,7 +45,7 @@ public class TradeDayAsCSVString implements TradeDayPresentation {
      */
     @Override
     public String formatTradeDay(TradeDay aTradeDay) {
-        if(aTradeDay.getTradeList().isEmpty()) {
+        if(aTradeDay.isEmpty()) {
             return  aTradeDay.getDayOrdinal() + delimiter +
                     aTradeDay.getDateStr() + delimiter +
                     0 + delimiter +
@@ -56,7 +62,10 @@ public class TradeDayAsCSVString implements TradeDayPresentation {
                     0 + delimiter +
                     0 + delimiter +
                     0 + delimiter +
-                    0;
+                    0 +
+                    (isOutputQuantiles(aTradeDay.getConfig()) ? quantileColumns(aTradeDay.getStats()) : "") +
+                    (isOutputQuotes(aTradeDay.getConfig()) ? quoteColumns(aTradeDay.getQuotes()) : "") +
+                    rollingColumns(aTradeDay);
         }
 
         StringBuilder recordString;
@@ -79,6 +88,13 @@ public class TradeDayAsCSVString implements TradeDayPresentation {
                         aTradeDay.getPctBuyDolVol() + delimiter +
                         aTradeDay.getPctSellDolVol() + delimiter +
                         aTradeDay.getPctUnknownDolVol());
+                if (isOutputQuantiles(aTradeDay.getConfig())) {
+                    recordString.append(quantileColumns(aTradeDay.getStats()));
+                }
+                if (isOutputQuotes(aTradeDay.getConfig())) {
+                    recordString.append(quoteColumns(aTradeDay.getQuotes()));
+                }
+                recordString.append(rollingColumns(aTradeDay));
                 rVal = recordString.toString();
             } catch (Exception e) {
                 log.error("ERROR processing trade day - {}",aTradeDay.getDebugString());
@@ -86,4 +102,60 @@ public class TradeDayAsCSVString implements TradeDayPresentation {
             }
             return rVal;
         }
+
+    private static boolean isOutputQuantiles(GA_FidelityTradesConfig pConfig) {
+        return null != pConfig && pConfig.isOutputQuantiles();
+    }
+
+    private static boolean isOutputQuotes(GA_FidelityTradesConfig pConfig) {
+        return null != pConfig && pConfig.isOutputQuotes();
+    }
+
+    /**
+     * @return VWAP, buy/sell dollar volume and volume z-score of each configured window, each preceded by
+     * the delimiter and empty where the window has no value
+     */
+    private String rollingColumns(TradeDay aTradeDay) {
+        GA_FidelityTradesConfig config = aTradeDay.getConfig();
+        int windows = null == config ? 0 : config.getRollingWindows().length;
+        RollingWindows.Values values = aTradeDay.getRolling();
+        StringBuilder rVal = new StringBuilder();
+        for (int w = 0; w < windows; w++) {
+            boolean known = null != values && w < values.size();
+            rVal.append(delimiter).append(known ? plain(values.getVwap(w)) : "")
+                    .append(delimiter).append(known ? plain(values.getBuySellRatio(w)) : "")
+                    .append(delimiter).append(known ? plain(values.getVolumeZ(w)) : "");
+        }
+        return rVal.toString();
+    }
+
+    private static String plain(BigDecimal pValue) {
+        return null == pValue ? "" : pValue.toPlainString();
+    }
+
+    /**
+     * @return the spreads then the quote shares, each preceded by the delimiter
+     */
+    private String quoteColumns(QuoteStats pQuotes) {
+        return delimiter + pQuotes.getAverageSpread().toPlainString() +
+                delimiter + pQuotes.getTimeWeightedSpread().toPlainString() +
+                delimiter + pQuotes.getAverageEffectiveSpread().toPlainString() +
+                delimiter + pQuotes.getRelativeEffectiveSpread().toPlainString() +
+                delimiter + pQuotes.getPctNoQuote().toPlainString() +
+                delimiter + pQuotes.getPctOutsideQuote().toPlainString();
+    }
+
+    /**
+     * @return the size then the price quantiles, each preceded by the delimiter
+     */
+    private String quantileColumns(TradeStats pStats) {
+        StringBuilder rVal = new StringBuilder();
+        for (double q : TradeStats.QUANTILES) {
+            rVal.append(delimiter).append(pStats.getSizeQuantile(q));
+        }
+        for (double q : TradeStats.QUANTILES) {
+            rVal.append(delimiter).append(pStats.getPriceQuantile(q).toPlainString());
+        }
+        return rVal.toString();
+    }
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades.format;
+
+import com.gravanalitical.fidelity.trades.QuoteStats;
+import com.gravanalitical.fidelity.trades.RollingWindows;
+import com.gravanalitical.fidelity.trades.TradeDay;
+import com.gravanalitical.fidelity.trades.TradeMonth;
+import com.gravanalitical.fidelity.trades.TradeStats;
+import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+
+/**
+ * Formats a trade day as a JSON object with numeric fields, the same values as the CSV columns.
+ * The write methods stream the object straight to the output, one per line (NDJSON), with
+ * a <i>type</i> of <i>day</i> for each day and <i>period</i> for the rollup of all of a ticker's days.
+ */
+public class TradeDayAsJSON implements TradeDayPresentation {
+    static final String TYPE_DAY = "day";
+    static final String TYPE_PERIOD = "period";
+    private static final String[] SIZE_QUANTILE_NAMES = {"sizeP50", "sizeP90", "sizeP99"};
+    private static final String[] PRICE_QUANTILE_NAMES = {"priceP50", "priceP90", "priceP99"};
+
+    @Override
+    public String formatTradeDay(TradeDay aTradeDay) {
+        StringWriter rVal = new StringWriter();
+        try {
+            writeTradeDay(null, aTradeDay, rVal);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return rVal.toString().trim();
+    }
+
+    /**
+     * @param pTicker written as the ticker field, left out when null
+     */
+    public void writeTradeDay(String pTicker, TradeDay aTradeDay, Writer pOut) throws IOException {
+        JsonWriter json = new JsonWriter(pOut).beginObject();
+        json.field("type", TYPE_DAY);
+        if (null != pTicker) {
+            json.field("ticker", pTicker);
+        }
+        json.field("ordinal", aTradeDay.getDayOrdinal())
+                .field("day", aTradeDay.getDayKey())
+                .field("avgPrice", aTradeDay.getVolume().signum() == 0 ? null : aTradeDay.getAveragePrice())
+                .field("volume", aTradeDay.getVolume())
+                .field("buyVolume", aTradeDay.getBuyVolume())
+                .field("sellVolume", aTradeDay.getSellVolume())
+                .field("unknownVolume", aTradeDay.getUnknownVolume())
+                .field("dollarVolume", aTradeDay.getDollarVolume())
+                .field("buyDollarVolume", aTradeDay.getBuyDollarVolume())
+                .field("sellDollarVolume", aTradeDay.getSellDollarVolume())
+                .field("unknownDollarVolume", aTradeDay.getUnknownDollarVolume())
+                .field("pctBuyVolume", aTradeDay.getPctBuyVol())
+                .field("pctSellVolume", aTradeDay.getPctSellVol())
+                .field("pctUnknownVolume", aTradeDay.getPctUnknownVol())
+                .field("pctBuyDollarVolume", aTradeDay.getPctBuyDolVol())
+                .field("pctSellDollarVolume", aTradeDay.getPctSellDolVol())
+                .field("pctUnknownDollarVolume", aTradeDay.getPctUnknownDolVol());
+        writeQuantiles(json, aTradeDay.getConfig(), aTradeDay.getStats());
+        writeQuotes(json, aTradeDay.getConfig(), aTradeDay.getQuotes());
+        writeRolling(json, aTradeDay.getConfig(), aTradeDay.getRolling());
+        json.endObject();
+    }
+
+    /**
+     * @param pDays the number of days rolled up
+     */
+    public void writeTradeMonth(String pTicker, TradeMonth pMonth, int pDays, Writer pOut) throws IOException {
+        JsonWriter json = new JsonWriter(pOut).beginObject();
+        json.field("type", TYPE_PERIOD);
+        if (null != pTicker) {
+            json.field("ticker", pTicker);
+        }
+        BigDecimal volume = pMonth.getVolume();
+        json.field("days", pDays)
+                .field("avgPrice", volume.signum() == 0 ? null : pMonth.getAveragePrice())
+                .field("volume", volume)
+                .field("buyVolume", pMonth.getBuyVolume())
+                .field("sellVolume", pMonth.getSellVolume())
+                .field("unknownVolume", pMonth.getUnknownVolume())
+                .field("dollarVolume", pMonth.getDollarVolume())
+                .field("buyDollarVolume", pMonth.getBuyDollarVolume())
+                .field("sellDollarVolume", pMonth.getSellDollarVolume())
+                .field("unknownDollarVolume", pMonth.getUnknownDollarVolume());
+        writeQuantiles(json, pMonth.getConfig(), pMonth.getStats());
+        writeQuotes(json, pMonth.getConfig(), pMonth.getQuotes());
+        json.endObject();
+    }
+
+    /**
+     * sizeP50, sizeP90, sizeP99, priceP50, ... when the quantiles are turned on.
+     */
+    private static void writeQuantiles(JsonWriter json, GA_FidelityTradesConfig config, TradeStats pStats) throws IOException {
+        if (null == config || !config.isOutputQuantiles()) {
+            return;
+        }
+        for (int i = 0; i < TradeStats.QUANTILES.length; i++) {
+            json.field(SIZE_QUANTILE_NAMES[i], pStats.getSizeQuantile(TradeStats.QUANTILES[i]));
+        }
+        for (int i = 0; i < TradeStats.QUANTILES.length; i++) {
+            json.field(PRICE_QUANTILE_NAMES[i], pStats.getPriceQuantile(TradeStats.QUANTILES[i]));
+        }
+    }
+
+    /**
+     * vwap5d, buySellDv5d, volumeZ5d, ... for each configured trailing window.
+     */
+    private static void writeRolling(JsonWriter json, GA_FidelityTradesConfig config, RollingWindows.Values pValues) throws IOException {
+        if (null == config) {
+            return;
+        }
+        int[] lengths = config.getRollingWindows();
+        for (int w = 0; w < lengths.length; w++) {
+            boolean known = null != pValues && w < pValues.size();
+            json.field("vwap" + lengths[w] + "d", known ? pValues.getVwap(w) : null)
+                    .field("buySellDv" + lengths[w] + "d", known ? pValues.getBuySellRatio(w) : null)
+                    .field("volumeZ" + lengths[w] + "d", known ? pValues.getVolumeZ(w) : null);
+        }
+    }
+
+    /**
+     * avgSpread, twSpread, ... when the quote output is turned on.
+     */
+    private static void writeQuotes(JsonWriter json, GA_FidelityTradesConfig config, QuoteStats pQuotes) throws IOException {
+        if (null == config || !config.isOutputQuotes()) {
+            return;
+        }
+        json.field("avgSpread", pQuotes.getAverageSpread())
+                .field("twSpread", pQuotes.getTimeWeightedSpread())
+                .field("effectiveSpread", pQuotes.getAverageEffectiveSpread())
+                .field("relEffectiveSpread", pQuotes.getRelativeEffectiveSpread())
+                .field("pctNoQuote", pQuotes.getPctNoQuote())
+                .field("pctOutsideQuote", pQuotes.getPctOutsideQuote());
+    }
+}
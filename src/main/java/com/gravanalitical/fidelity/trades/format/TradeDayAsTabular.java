@@ -17,16 +17,18 @@
 
 package com.gravanalitical.fidelity.trades.format;
 
+import com.gravanalitical.fidelity.trades.LargestTrades;
+import com.gravanalitical.fidelity.trades.QuoteStats;
 import com.gravanalitical.fidelity.trades.TradeDay;
 import com.gravanalitical.fidelity.trades.TradeRecord;
-import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
+import com.gravanalitical.fidelity.trades.TradeStats;
 import com.gravanalitical.locale.DisplayKeys;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
-import java.util.ArrayList;
-import java.util.TreeSet;
-import java.util.function.Consumer;
 
 public class TradeDayAsTabular implements TradeDayPresentation {
 
@@ -35,7 +37,34 @@ public class TradeDayAsTabular implements TradeDayPresentation {
 
     @Override
     public String formatTradeDay(TradeDay aTradeDay) {
-        if(aTradeDay.getTradeList().isEmpty()) {
+        StringBuilder buf = new StringBuilder(formatSummary(aTradeDay));
+        if(!aTradeDay.isEmpty() && aTradeDay.getConfig().includeTrades()) {
+            // Now append the trades for the day.
+            try {
+                aTradeDay.listTrades(line -> buf.append("\n").append(line));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Writes the day as {@link #formatTradeDay(TradeDay)} formats it, with the listed trades streamed
+     * straight to the output a line at a time.
+     */
+    public void writeTradeDay(TradeDay aTradeDay, PrintWriter pOut) throws IOException {
+        pOut.println(formatSummary(aTradeDay));
+        if(!aTradeDay.isEmpty() && aTradeDay.getConfig().includeTrades()) {
+            aTradeDay.listTrades(pOut::println);
+        }
+    }
+
+    /**
+     * @return the day without its trades
+     */
+    private String formatSummary(TradeDay aTradeDay) {
+        if(aTradeDay.isEmpty()) {
             return  "No trades recorded.";
         }
 
@@ -62,22 +91,77 @@ public class TradeDayAsTabular implements TradeDayPresentation {
                         DisplayKeys.get(DisplayKeys.SUMMARY_SELL_DOLLAR_VOL_PCT, percentageFormatter.format(aTradeDay.getPctSellDolVol())) + "\n" +
                         DisplayKeys.get(DisplayKeys.SUMMARY_OTHER_DOLLAR_VAL_PCT, percentageFormatter.format(aTradeDay.getPctUnknownDolVol())) ;
 
-
-        if(GA_FidelityTradesConfig.getInstance().includeTrades()) {
-            // Now append the trades for the day.
-            ArrayList trades = aTradeDay.getTradeList();
-            TreeSet sortedTrades = new TreeSet(trades);
-            StringBuilder buf = new StringBuilder(rVal);
-            sortedTrades.forEach(new Consumer<TradeRecord>() {
-                @Override
-                public void accept(TradeRecord aRecord) {
-                    buf.append("\n").append(aRecord.toString());
-                }
-            });
-
-            rVal = buf.toString();
+        if(aTradeDay.getConfig().isOutputQuantiles()) {
+            rVal += "\n" + formatQuantiles(aTradeDay.getStats());
+        }
+        if(aTradeDay.getConfig().isOutputQuotes()) {
+            rVal += "\n" + formatQuotes(aTradeDay.getQuotes());
+        }
+        if(null != aTradeDay.getStats().getLargestBySize()) {
+            rVal += "\n" + formatLargestTrades(aTradeDay.getStats());
         }
+
         return rVal;
     }
 
+    /**
+     * The size and price quantile lines, shared with the period summary.
+     */
+    static String formatQuantiles(TradeStats pStats) {
+        NumberFormat shareVolumeFormatter = new DecimalFormat("#,###");
+        NumberFormat usdTripsFormatter =    new DecimalFormat("$#,##0.000###");
+        double[] q = TradeStats.QUANTILES;
+        return DisplayKeys.get(DisplayKeys.SUMMARY_SIZE_QUANTILES,
+                        shareVolumeFormatter.format(pStats.getSizeQuantile(q[0])),
+                        shareVolumeFormatter.format(pStats.getSizeQuantile(q[1])),
+                        shareVolumeFormatter.format(pStats.getSizeQuantile(q[2]))) + "\n" +
+                DisplayKeys.get(DisplayKeys.SUMMARY_PRICE_QUANTILES,
+                        usdTripsFormatter.format(pStats.getPriceQuantile(q[0])),
+                        usdTripsFormatter.format(pStats.getPriceQuantile(q[1])),
+                        usdTripsFormatter.format(pStats.getPriceQuantile(q[2])));
+    }
+
+    /**
+     * The spread and quote quality lines, shared with the period summary.
+     */
+    static String formatQuotes(QuoteStats pQuotes) {
+        NumberFormat usdTripsFormatter =    new DecimalFormat("$#,##0.000###");
+        NumberFormat percentageFormatter = new DecimalFormat("0.0##%");
+        return DisplayKeys.get(DisplayKeys.SUMMARY_SPREADS,
+                        usdTripsFormatter.format(pQuotes.getAverageSpread()),
+                        usdTripsFormatter.format(pQuotes.getTimeWeightedSpread())) + "\n" +
+                DisplayKeys.get(DisplayKeys.SUMMARY_EFFECTIVE_SPREAD,
+                        usdTripsFormatter.format(pQuotes.getAverageEffectiveSpread()),
+                        percentageFormatter.format(pQuotes.getRelativeEffectiveSpread())) + "\n" +
+                DisplayKeys.get(DisplayKeys.SUMMARY_QUOTE_QUALITY,
+                        percentageFormatter.format(pQuotes.getPctNoQuote()),
+                        percentageFormatter.format(pQuotes.getPctOutsideQuote()));
+    }
+
+    /**
+     * The largest trades by size, then by dollar volume, shared with the period summary.
+     */
+    static String formatLargestTrades(TradeStats pStats) {
+        StringBuilder rVal = new StringBuilder(DisplayKeys.get(DisplayKeys.SUMMARY_LARGEST_BY_SIZE));
+        appendTrades(pStats.getLargestBySize(), rVal);
+        rVal.append("\n").append(DisplayKeys.get(DisplayKeys.SUMMARY_LARGEST_BY_DOLLARS));
+        appendTrades(pStats.getLargestByDollars(), rVal);
+        return rVal.toString();
+    }
+
+    private static void appendTrades(LargestTrades pTrades, StringBuilder pBuf) {
+        NumberFormat shareVolumeFormatter = new DecimalFormat("#,###");
+        NumberFormat usdFormatter = new DecimalFormat("$#,##0.00");
+        NumberFormat usdTripsFormatter =    new DecimalFormat("$#,##0.000###");
+        int rank = 0;
+        for (TradeRecord trade : pTrades.getTrades()) {
+            pBuf.append("\n").append(DisplayKeys.get(DisplayKeys.SUMMARY_LARGEST_TRADE,
+                    String.valueOf(++rank),
+                    trade.getTimeStr(),
+                    shareVolumeFormatter.format(trade.getSize()),
+                    usdTripsFormatter.format(trade.getPrice()),
+                    usdFormatter.format(trade.getDollarVolume()),
+                    trade.sentiment()));
+        }
+    }
 }
@@ -21,7 +21,7 @@ import com.gravanalitical.locale.DisplayKeys;
 
 public class TradeDayFormatFactory {
 
-    public enum FORMATTER {TABULAR, CSV}
+    public enum FORMATTER {TABULAR, CSV, JSON}
 
 
     public static TradeDayPresentation getFormatter(FORMATTER requestedFormatter) {
@@ -33,6 +33,9 @@ public class TradeDayFormatFactory {
             case TABULAR:
                 rVal = new TradeDayAsTabular();
                 break;
+            case JSON:
+                rVal = new TradeDayAsJSON();
+                break;
             default:
                 throw new IllegalArgumentException(DisplayKeys.get(DisplayKeys.ERROR_FORMATTER_UNKNOWN, requestedFormatter));
         }
@@ -53,7 +56,15 @@ public class TradeDayFormatFactory {
      *
      * @return a formatter with the default delimiter, colon.
      */
-    public static TradeDayPresentation getTabularFormatter() {
-        return getFormatter(FORMATTER.TABULAR);
+    public static TradeDayAsTabular getTabularFormatter() {
+        return (TradeDayAsTabular) getFormatter(FORMATTER.TABULAR);
+    }
+
+    /**
+     *
+     * @return a formatter writing a JSON object per line.
+     */
+    public static TradeDayAsJSON getJsonFormatter() {
+        return (TradeDayAsJSON) getFormatter(FORMATTER.JSON);
     }
 }
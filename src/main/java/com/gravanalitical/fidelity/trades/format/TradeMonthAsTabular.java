@@ -26,6 +26,16 @@ public class TradeMonthAsTabular {
                 DisplayKeys.get(DisplayKeys.SUMMARY_SELL_DOLLAR_VOL, usdFormatter.format(pMonth.getSellDollarVolume())) + "\n" +
                 DisplayKeys.get(DisplayKeys.SUMMARY_OTHER_DOLLAR_VOL, usdFormatter.format(pMonth.getUnknownDollarVolume())) + "\n";
 
+        if(pMonth.getConfig().isOutputQuantiles()) {
+            rVal += TradeDayAsTabular.formatQuantiles(pMonth.getStats()) + "\n";
+        }
+        if(pMonth.getConfig().isOutputQuotes()) {
+            rVal += TradeDayAsTabular.formatQuotes(pMonth.getQuotes()) + "\n";
+        }
+        if(null != pMonth.getStats().getLargestBySize()) {
+            rVal += TradeDayAsTabular.formatLargestTrades(pMonth.getStats()) + "\n";
+        }
+
         return rVal;
     }
 }
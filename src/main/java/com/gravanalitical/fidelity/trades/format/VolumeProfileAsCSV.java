@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades.format;
+
+import com.gravanalitical.fidelity.trades.VolumeProfile;
+
+import java.io.PrintWriter;
+
+/**
+ * Writes a volume profile as CSV, a row per price level, lowest price first. The point of control
+ * is flagged with a 1 in the last column.
+ */
+public class VolumeProfileAsCSV {
+    private static final String DELIMITER = ",";
+    public static final String HEADER = "\"Date\",\"Price\",\"Volume\",\"Buy\",\"Sell\",\"???\",\"POC\"";
+
+    /**
+     * @param pPeriod the first column of every row, the day or the period the profile covers
+     */
+    public void formatProfile(String pPeriod, VolumeProfile pProfile, PrintWriter pw) {
+        long poc = pProfile.getPointOfControl();
+        for (long level : pProfile.getLevels()) {
+            pw.print(pPeriod);
+            pw.print(DELIMITER);
+            pw.print(pProfile.toPrice(level).toPlainString());
+            pw.print(DELIMITER);
+            pw.print(pProfile.getVolume(level));
+            pw.print(DELIMITER);
+            pw.print(pProfile.getBuyVolume(level));
+            pw.print(DELIMITER);
+            pw.print(pProfile.getSellVolume(level));
+            pw.print(DELIMITER);
+            pw.print(pProfile.getUnknownVolume(level));
+            pw.print(DELIMITER);
+            pw.println(level == poc ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.gravanalitical.fidelity.trades.history;
+
+/**
+ * The quote rule over primitive columns, one trade at a time. At or below the bid is a sell, at or above
+ * the ask a buy; trades without a quote, with the bid equal to the ask, or inside the quote are unknown.
+ *
+ * The columns hold fixed point values, so a bid and an ask are equal when their values are. TradeRecord
+ * compares the parsed BigDecimals with equals, which also looks at the scale: a bid of 1.1 with an ask of
+ * 1.10 is a locked quote here, and there a quote that classifies the trade by its price. Exports write every
+ * price with the same decimals, so the two agree on them.
+ *
+ * The sums are checked, an ArithmeticException is thrown rather than a total that wrapped around.
+ */
+final class ScalarSentimentKernel {
+    private ScalarSentimentKernel() {
+    }
+
+    static void aggregate(long[] pPrice, long[] pSize, long[] pBid, long[] pAsk, int pFrom, int pTo, SentimentSums pSums) {
+        long volume = 0L;
+        long buyVolume = 0L;
+        long sellVolume = 0L;
+        long dollars = 0L;
+        long buyDollars = 0L;
+        long sellDollars = 0L;
+        for (int i = pFrom; i < pTo; i++) {
+            long price = pPrice[i];
+            long size = pSize[i];
+            long bid = pBid[i];
+            long ask = pAsk[i];
+            long tradeDollars = Math.multiplyExact(price, size);
+            volume = Math.addExact(volume, size);
+            dollars = Math.addExact(dollars, tradeDollars);
+            boolean quoted = !(bid == 0L && ask == 0L) && bid != ask;
+            if (quoted && price <= bid) {
+                sellVolume = Math.addExact(sellVolume, size);
+                sellDollars = Math.addExact(sellDollars, tradeDollars);
+            } else if (quoted && price >= ask) {
+                buyVolume = Math.addExact(buyVolume, size);
+                buyDollars = Math.addExact(buyDollars, tradeDollars);
+            }
+        }
+        pSums.add(volume, buyVolume, sellVolume, dollars, buyDollars, sellDollars);
+    }
+}
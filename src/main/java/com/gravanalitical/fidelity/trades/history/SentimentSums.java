@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.gravanalitical.fidelity.trades.history;
+
+import java.math.BigDecimal;
+
+/**
+ * Share and dollar volume split by sentiment, summed over columns of a {@link TradeHistory}. Dollars are
+ * kept in millionths, price times size, so the sums are exact while they stay under 9.2 trillion dollars;
+ * past that adding throws an ArithmeticException rather than wrap around.
+ */
+public class SentimentSums {
+    private long volume;
+    private long buyVolume;
+    private long sellVolume;
+    private long dollars;
+    private long buyDollars;
+    private long sellDollars;
+
+    /**
+     * Adds the totals of a run of trades, the unknown side is what is left of the totals.
+     */
+    void add(long pVolume, long pBuyVolume, long pSellVolume, long pDollars, long pBuyDollars, long pSellDollars) {
+        volume = Math.addExact(volume, pVolume);
+        buyVolume = Math.addExact(buyVolume, pBuyVolume);
+        sellVolume = Math.addExact(sellVolume, pSellVolume);
+        dollars = Math.addExact(dollars, pDollars);
+        buyDollars = Math.addExact(buyDollars, pBuyDollars);
+        sellDollars = Math.addExact(sellDollars, pSellDollars);
+    }
+
+    public void merge(SentimentSums pOther) {
+        add(pOther.volume, pOther.buyVolume, pOther.sellVolume, pOther.dollars, pOther.buyDollars, pOther.sellDollars);
+    }
+
+    public long getVolume() {
+        return volume;
+    }
+
+    public long getBuyVolume() {
+        return buyVolume;
+    }
+
+    public long getSellVolume() {
+        return sellVolume;
+    }
+
+    public long getUnknownVolume() {
+        return volume - buyVolume - sellVolume;
+    }
+
+    public BigDecimal getDollarVolume() {
+        return TradeHistory.fromFixed(dollars);
+    }
+
+    public BigDecimal getBuyDollarVolume() {
+        return TradeHistory.fromFixed(buyDollars);
+    }
+
+    public BigDecimal getSellDollarVolume() {
+        return TradeHistory.fromFixed(sellDollars);
+    }
+
+    public BigDecimal getUnknownDollarVolume() {
+        return TradeHistory.fromFixed(dollars - buyDollars - sellDollars);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SentimentSums that = (SentimentSums) o;
+        return volume == that.volume && buyVolume == that.buyVolume && sellVolume == that.sellVolume
+                && dollars == that.dollars && buyDollars == that.buyDollars && sellDollars == that.sellDollars;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(volume * 31 + dollars) * 31 + Long.hashCode(buyDollars - sellDollars);
+    }
+
+    @Override
+    public String toString() {
+        return "volume " + volume + " buy " + buyVolume + " sell " + sellVolume
+                + ", dollars " + getDollarVolume() + " buy " + getBuyDollarVolume() + " sell " + getSellDollarVolume();
+    }
+}
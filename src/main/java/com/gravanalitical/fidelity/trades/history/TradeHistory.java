@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.gravanalitical.fidelity.trades.history;
+
+import com.gravanalitical.fidelity.trades.QuoteStats;
+import com.gravanalitical.fidelity.trades.TradeAnalysisEngine;
+import com.gravanalitical.fidelity.trades.TradeRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Trades of many tickers and years kept in memory outside the Java heap, one column per field, so that
+ * long histories can be scanned without the cost of a TradeRecord and its BigDecimals per trade.
+ *
+ * The columns live in direct buffers of {@link #SEGMENT_ROWS} trades each, 41 bytes a trade: the trade date
+ * (yyyymmdd) and the seconds since midnight as ints, price, bid and ask as longs in millionths
+ * ({@link #PRICE_SCALE}), the size as a long in whole shares and the sentiment as a byte. A ticker's trades
+ * are stored together, in day file order.
+ *
+ * Tickers are loaded one after the other; once loading is done the history can be read by any number of
+ * threads, each with its own {@link Cursor}. Reading with a cursor does not allocate.
+ * <b>Example</b><br>
+ * <pre>
+ * TradeHistory history = new TradeHistory();
+ * history.load(engine, "GWRE");
+ * TradeHistory.Cursor trades = history.cursor("GWRE", 20190101, 20191231);
+ * while (trades.next()) {
+ *     shares += trades.getSize();
+ * }
+ * </pre>
+ */
+public class TradeHistory {
+    private static final Logger log = LogManager.getLogger("fidelity.trades.TradeHistory");
+
+    /**
+     * Prices are stored as longs with this many decimals.
+     */
+    public static final int PRICE_SCALE = 6;
+
+    /**
+     * Trades per buffer, a power of two.
+     */
+    public static final int SEGMENT_ROWS = 1 << 16;
+    private static final int SEGMENT_SHIFT = Integer.numberOfTrailingZeros(SEGMENT_ROWS);
+    private static final int ROW_MASK = SEGMENT_ROWS - 1;
+
+    static final int ROW_BYTES = 4 + 4 + 8 + 8 + 8 + 8 + 1;
+    private static final int DATES = 0;
+    private static final int TIMES = DATES + 4 * SEGMENT_ROWS;
+    private static final int PRICES = TIMES + 4 * SEGMENT_ROWS;
+    private static final int SIZES = PRICES + 8 * SEGMENT_ROWS;
+    private static final int BIDS = SIZES + 8 * SEGMENT_ROWS;
+    private static final int ASKS = BIDS + 8 * SEGMENT_ROWS;
+    private static final int SIDES = ASKS + 8 * SEGMENT_ROWS;
+
+    private static final TradeRecord.BuySell[] SIDE_VALUES = TradeRecord.BuySell.values();
+
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private long rows;
+
+    /**
+     * The largest size or price times size appended, in absolute value.
+     */
+    private long largestTrade;
+
+    /**
+     * The first row and the row after the last of each ticker.
+     */
+    private final Map<String, long[]> tickers = new LinkedHashMap<>();
+
+    /**
+     * Reads the ticker's day files in the engine's date range and appends their trades. Day files that are
+     * not named for their date are left out, the date is what the history is searched by.
+     * @throws IllegalArgumentException if the ticker is already loaded
+     * @throws IOException if the ticker's input folder cannot be read, nothing of the ticker is then kept
+     */
+    public void load(TradeAnalysisEngine pEngine, String pTicker) throws IOException {
+        if (tickers.containsKey(pTicker)) {
+            throw new IllegalArgumentException(pTicker + " is already loaded");
+        }
+        long first = rows;
+        long largestBefore = largestTrade;
+        try {
+            pEngine.forEachDay(pTicker, aDay -> {
+                int date = dateOf(aDay.getDayKey());
+                if (date < 0) {
+                    log.warn("load(TradeAnalysisEngine, String) {} {} is not named for its date, left out", pTicker, aDay.getDayKey());
+                    return;
+                }
+                for (TradeRecord tr : aDay.getTradeList()) {
+                    append(date, tr);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            // the trades appended so far are dropped, with the buffers allocated for them.
+            rows = first;
+            largestTrade = largestBefore;
+            segments.subList((int) ((first + ROW_MASK) >>> SEGMENT_SHIFT), segments.size()).clear();
+            throw e;
+        }
+        tickers.put(pTicker, new long[]{first, rows});
+        log.info("load(TradeAnalysisEngine, String) {} {} trades, {} held off heap", pTicker, rows - first, getOffHeapBytes());
+    }
+
+    private void append(int pDate, TradeRecord pTrade) {
+        int row = (int) (rows & ROW_MASK);
+        if (row == 0) {
+            segments.add(ByteBuffer.allocateDirect(SEGMENT_ROWS * ROW_BYTES).order(ByteOrder.nativeOrder()));
+        }
+        ByteBuffer segment = segments.get(segments.size() - 1);
+        long price = toFixed(pTrade.getPrice());
+        long size = pTrade.getSize().setScale(0, RoundingMode.HALF_UP).longValueExact();
+        largestTrade = Math.max(largestTrade, Math.max(Math.abs(size), Math.abs(Math.multiplyExact(price, size))));
+        segment.putInt(DATES + 4 * row, pDate);
+        segment.putInt(TIMES + 4 * row, QuoteStats.secondsOf(pTrade.getTimeStr()));
+        segment.putLong(PRICES + 8 * row, price);
+        segment.putLong(SIZES + 8 * row, size);
+        segment.putLong(BIDS + 8 * row, toFixed(pTrade.getBid()));
+        segment.putLong(ASKS + 8 * row, toFixed(pTrade.getAsk()));
+        segment.put(SIDES + row, (byte) pTrade.sentiment().ordinal());
+        rows++;
+    }
+
+    /**
+     * @return the yyyymmdd as an int, -1 if it is not 8 digits
+     */
+    static int dateOf(String pDayKey) {
+        if (null == pDayKey || pDayKey.length() != 8) {
+            return -1;
+        }
+        int rVal = 0;
+        for (int i = 0; i < pDayKey.length(); i++) {
+            char c = pDayKey.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            rVal = rVal * 10 + (c - '0');
+        }
+        return rVal;
+    }
+
+    /**
+     * @return the price in millionths, rounded half up
+     */
+    public static long toFixed(BigDecimal pPrice) {
+        return pPrice.setScale(PRICE_SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal fromFixed(long pFixed) {
+        return BigDecimal.valueOf(pFixed, PRICE_SCALE);
+    }
+
+    /**
+     * @param pFrom the first yyyymmdd
+     * @param pTo the last yyyymmdd
+     * @return the trades of the ticker in the range, in day file order. Nothing if the ticker is not loaded.
+     */
+    public Cursor cursor(String pTicker, int pFrom, int pTo) {
+        long[] range = tickers.get(pTicker);
+        if (null == range || pFrom > pTo) {
+            return new Cursor(0, 0);
+        }
+        return new Cursor(firstOnOrAfter(range[0], range[1], pFrom), firstOnOrAfter(range[0], range[1], pTo + 1));
+    }
+
+    /**
+     * Sums the ticker's volume and dollar volume in the range by sentiment, the trades classified by the quote
+     * rule from their price, bid and ask. The columns are copied out a segment at a time and summed by
+     * {@link SentimentKernel}, on vector instructions where the JVM allows. If a segment of the largest trade
+     * could overflow a long the checked scalar kernel is used instead.
+     * @param pFrom the first yyyymmdd
+     * @param pTo the last yyyymmdd
+     * @throws ArithmeticException if a sum does not fit in a long
+     */
+    public SentimentSums aggregate(String pTicker, int pFrom, int pTo) {
+        SentimentSums rVal = new SentimentSums();
+        long[] range = tickers.get(pTicker);
+        if (null == range || pFrom > pTo) {
+            return rVal;
+        }
+        long row = firstOnOrAfter(range[0], range[1], pFrom);
+        long end = firstOnOrAfter(range[0], range[1], pTo + 1);
+        int capacity = (int) Math.min(SEGMENT_ROWS, Math.max(0L, end - row));
+        long[] prices = new long[capacity];
+        long[] sizes = new long[capacity];
+        long[] bids = new long[capacity];
+        long[] asks = new long[capacity];
+        boolean unchecked = largestTrade <= Long.MAX_VALUE / SEGMENT_ROWS;
+        while (row < end) {
+            int first = (int) (row & ROW_MASK);
+            int count = (int) Math.min(SEGMENT_ROWS - first, end - row);
+            ByteBuffer segment = segment(row);
+            copy(segment, PRICES, first, count, prices);
+            copy(segment, SIZES, first, count, sizes);
+            copy(segment, BIDS, first, count, bids);
+            copy(segment, ASKS, first, count, asks);
+            if (unchecked) {
+                SentimentKernel.aggregate(prices, sizes, bids, asks, 0, count, rVal);
+            } else {
+                ScalarSentimentKernel.aggregate(prices, sizes, bids, asks, 0, count, rVal);
+            }
+            row += count;
+        }
+        return rVal;
+    }
+
+    private static void copy(ByteBuffer pSegment, int pColumn, int pFirst, int pCount, long[] pTo) {
+        ByteBuffer view = pSegment.duplicate().order(ByteOrder.nativeOrder());
+        view.position(pColumn + 8 * pFirst);
+        view.asLongBuffer().get(pTo, 0, pCount);
+    }
+
+    /**
+     * A ticker's dates never go down, they come from day files in name order.
+     * @return the first row in [pLow, pHigh) dated on or after the date, pHigh if there is none
+     */
+    private long firstOnOrAfter(long pLow, long pHigh, int pDate) {
+        long low = pLow;
+        long high = pHigh;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (segment(mid).getInt(DATES + 4 * (int) (mid & ROW_MASK)) < pDate) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private ByteBuffer segment(long pRow) {
+        return segments.get((int) (pRow >>> SEGMENT_SHIFT));
+    }
+
+    public Set<String> getTickers() {
+        return Collections.unmodifiableSet(tickers.keySet());
+    }
+
+    /**
+     * @return the number of trades of the ticker, 0 if it is not loaded
+     */
+    public long getTradeCount(String pTicker) {
+        long[] range = tickers.get(pTicker);
+        return null == range ? 0L : range[1] - range[0];
+    }
+
+    public long size() {
+        return rows;
+    }
+
+    /**
+     * @return the bytes of the buffers, allocated a segment at a time
+     */
+    public long getOffHeapBytes() {
+        return (long) segments.size() * SEGMENT_ROWS * ROW_BYTES;
+    }
+
+    /**
+     * Drops every ticker. The buffers are returned to the system once the garbage collector finds them
+     * unreachable, cursors still open keep theirs alive.
+     */
+    public void clear() {
+        segments.clear();
+        tickers.clear();
+        rows = 0L;
+    }
+
+    /**
+     * Steps through a range of trades, the getters read the current one. Not thread safe, a thread takes
+     * a cursor of its own.
+     */
+    public final class Cursor {
+        private long row;
+        private final long end;
+        private ByteBuffer segment;
+        private int index;
+
+        private Cursor(long pFirst, long pEnd) {
+            row = pFirst - 1;
+            end = pEnd;
+        }
+
+        /**
+         * @return false once past the last trade of the range
+         */
+        public boolean next() {
+            if (row + 1 >= end) {
+                row = end;
+                return false;
+            }
+            row++;
+            index = (int) (row & ROW_MASK);
+            if (index == 0 || null == segment) {
+                segment = segment(row);
+            }
+            return true;
+        }
+
+        /**
+         * @return the number of trades left after the current one
+         */
+        public long remaining() {
+            return Math.max(0L, end - row - 1);
+        }
+
+        /**
+         * @return the trade date, yyyymmdd
+         */
+        public int getDate() {
+            return segment.getInt(DATES + 4 * index);
+        }
+
+        /**
+         * @return the seconds since midnight, -1 if the file's time could not be read
+         */
+        public int getSeconds() {
+            return segment.getInt(TIMES + 4 * index);
+        }
+
+        /**
+         * @return the price in millionths, see {@link #fromFixed(long)}
+         */
+        public long getPrice() {
+            return segment.getLong(PRICES + 8 * index);
+        }
+
+        public long getSize() {
+            return segment.getLong(SIZES + 8 * index);
+        }
+
+        /**
+         * @return the bid in millionths, 0 if the trade had none
+         */
+        public long getBid() {
+            return segment.getLong(BIDS + 8 * index);
+        }
+
+        /**
+         * @return the ask in millionths, 0 if the trade had none
+         */
+        public long getAsk() {
+            return segment.getLong(ASKS + 8 * index);
+        }
+
+        public TradeRecord.BuySell getSentiment() {
+            return SIDE_VALUES[segment.get(SIDES + index)];
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.gravanalitical.fidelity.trades.portfolio;
+
+import com.gravanalitical.fidelity.trades.TradeTotals;
+
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Correlates the daily series of every pair of tickers. The series are aligned by trade date; a pair is
+ * correlated over the dates both tickers traded (Pearson, pairwise complete), and left out when they have
+ * fewer than the minimum in common.
+ *
+ * The pairs are worked out in square tiles of {@link #BLOCK} tickers by {@link #BLOCK} tickers, so the rows of
+ * both sides of a tile stay in cache while they are combined. The tiles are spread over the common fork/join
+ * pool. Each pair is summed the same way whatever the tiling, so the results do not depend on the threads.
+ */
+public class CorrelationJob extends RecursiveTask<CorrelationJob.TopPairs> {
+    private static final long serialVersionUID = 1L;
+    static final int BLOCK = 64;
+
+    private final Series series;
+    private final int[] tiles;
+    private final int from;
+    private final int to;
+
+    /**
+     * The aligned series, the values where a ticker did not trade are zero and its mask is zero.
+     */
+    private static class Series {
+        final double[][] values;
+        final double[][] squares;
+        final double[][] masks;
+        final float[] out;
+        final int minDays;
+        final int topCount;
+
+        Series(double[][] pSeries, int pMinDays, int pTopCount) {
+            int n = pSeries.length;
+            values = new double[n][];
+            squares = new double[n][];
+            masks = new double[n][];
+            for (int i = 0; i < n; i++) {
+                int days = pSeries[i].length;
+                values[i] = new double[days];
+                squares[i] = new double[days];
+                masks[i] = new double[days];
+                for (int t = 0; t < days; t++) {
+                    double value = pSeries[i][t];
+                    if (!Double.isNaN(value)) {
+                        values[i][t] = value;
+                        squares[i][t] = value * value;
+                        masks[i][t] = 1.0;
+                    }
+                }
+            }
+            out = new float[(int) ((long) n * (n - 1) / 2)];
+            minDays = pMinDays;
+            topCount = pTopCount;
+        }
+    }
+
+    private CorrelationJob(Series pSeries, int[] pTiles, int pFrom, int pTo) {
+        series = pSeries;
+        tiles = pTiles;
+        from = pFrom;
+        to = pTo;
+    }
+
+    /**
+     * @param pSeries one row per ticker, all of the same length, NaN where the ticker has no value
+     * @param pMinDays the dates a pair needs in common
+     * @param pTopCount the number of most correlated pairs to list
+     */
+    public static CorrelationMatrix correlate(List<String> pTickers, double[][] pSeries, int pMinDays, int pTopCount) {
+        int n = pTickers.size();
+        if (pSeries.length != n) {
+            throw new IllegalArgumentException(n + " tickers but " + pSeries.length + " series");
+        }
+        Series series = new Series(pSeries, pMinDays, pTopCount);
+        int blocks = (n + BLOCK - 1) / BLOCK;
+        int[] tiles = new int[blocks * (blocks + 1) / 2];
+        int k = 0;
+        for (int bi = 0; bi < blocks; bi++) {
+            for (int bj = bi; bj < blocks; bj++) {
+                tiles[k++] = bi * blocks + bj;
+            }
+        }
+        TopPairs top = tiles.length == 0
+                ? new TopPairs(pTopCount)
+                : ForkJoinPool.commonPool().invoke(new CorrelationJob(series, tiles, 0, tiles.length));
+        return new CorrelationMatrix(new ArrayList<>(pTickers), series.out, top.toPairs(pTickers));
+    }
+
+    /**
+     * Buy pressure, buy minus sell dollar volume over the dollar volume, of each ticker for each trade date.
+     */
+    public static CorrelationMatrix buyPressure(List<TickerResult> pResults, int pMinDays, int pTopCount) {
+        List<String> dates = dates(pResults);
+        Map<String, Integer> dateIndex = indexOf(dates);
+        double[][] rows = new double[pResults.size()][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new double[dates.size()];
+            Arrays.fill(rows[i], Double.NaN);
+            for (Map.Entry<String, TradeTotals> day : pResults.get(i).getDays().entrySet()) {
+                TradeTotals totals = day.getValue();
+                if (totals.getDollarVolume().signum() > 0) {
+                    rows[i][dateIndex.get(day.getKey())] = totals.getBuyDollarVolume().subtract(totals.getSellDollarVolume())
+                            .divide(totals.getDollarVolume(), MathContext.DECIMAL64).doubleValue();
+                }
+            }
+        }
+        return correlate(tickers(pResults), rows, pMinDays, pTopCount);
+    }
+
+    /**
+     * Daily returns, the log of a day's average price over the ticker's average price of the trade date
+     * before. Only the average price is kept for a day, it stands in for the close.
+     */
+    public static CorrelationMatrix returns(List<TickerResult> pResults, int pMinDays, int pTopCount) {
+        List<String> dates = dates(pResults);
+        Map<String, Integer> dateIndex = indexOf(dates);
+        double[][] rows = new double[pResults.size()][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new double[dates.size()];
+            Arrays.fill(rows[i], Double.NaN);
+            double previous = Double.NaN;
+            for (Map.Entry<String, TradeTotals> day : pResults.get(i).getDays().entrySet()) {
+                TradeTotals totals = day.getValue();
+                if (totals.getVolume().signum() <= 0) {
+                    continue;
+                }
+                double averagePrice = totals.getDollarVolume().divide(totals.getVolume(), MathContext.DECIMAL64).doubleValue();
+                if (previous > 0.0 && averagePrice > 0.0) {
+                    rows[i][dateIndex.get(day.getKey())] = Math.log(averagePrice / previous);
+                }
+                previous = averagePrice;
+            }
+        }
+        return correlate(tickers(pResults), rows, pMinDays, pTopCount);
+    }
+
+    private static List<String> dates(List<TickerResult> pResults) {
+        TreeSet<String> rVal = new TreeSet<>();
+        for (TickerResult result : pResults) {
+            rVal.addAll(result.getDays().keySet());
+        }
+        return new ArrayList<>(rVal);
+    }
+
+    private static Map<String, Integer> indexOf(List<String> pDates) {
+        Map<String, Integer> rVal = new HashMap<>();
+        for (int t = 0; t < pDates.size(); t++) {
+            rVal.put(pDates.get(t), t);
+        }
+        return rVal;
+    }
+
+    private static List<String> tickers(List<TickerResult> pResults) {
+        List<String> rVal = new ArrayList<>();
+        for (TickerResult result : pResults) {
+            rVal.add(result.getTicker());
+        }
+        return rVal;
+    }
+
+    @Override
+    protected TopPairs compute() {
+        if (to - from == 1) {
+            return tile(tiles[from]);
+        }
+        int middle = (from + to) >>> 1;
+        CorrelationJob left = new CorrelationJob(series, tiles, from, middle);
+        CorrelationJob right = new CorrelationJob(series, tiles, middle, to);
+        left.fork();
+        TopPairs rightResult = right.compute();
+        return left.join().merge(rightResult);
+    }
+
+    private TopPairs tile(int pTile) {
+        int n = series.values.length;
+        int blocks = (n + BLOCK - 1) / BLOCK;
+        int iFrom = pTile / blocks * BLOCK;
+        int jFrom = pTile % blocks * BLOCK;
+        TopPairs rVal = new TopPairs(series.topCount);
+        for (int i = iFrom; i < Math.min(n, iFrom + BLOCK); i++) {
+            double[] xi = series.values[i];
+            double[] xxi = series.squares[i];
+            double[] mi = series.masks[i];
+            for (int j = Math.max(jFrom, i + 1); j < Math.min(n, jFrom + BLOCK); j++) {
+                double[] xj = series.values[j];
+                double[] xxj = series.squares[j];
+                double[] mj = series.masks[j];
+                double days = 0.0;
+                double sumI = 0.0;
+                double sumJ = 0.0;
+                double sumII = 0.0;
+                double sumJJ = 0.0;
+                double sumIJ = 0.0;
+                for (int t = 0; t < xi.length; t++) {
+                    days += mi[t] * mj[t];
+                    sumI += xi[t] * mj[t];
+                    sumJ += mi[t] * xj[t];
+                    sumII += xxi[t] * mj[t];
+                    sumJJ += mi[t] * xxj[t];
+                    sumIJ += xi[t] * xj[t];
+                }
+                double correlation = Double.NaN;
+                if (days >= series.minDays) {
+                    double varI = sumII - sumI * sumI / days;
+                    double varJ = sumJJ - sumJ * sumJ / days;
+                    if (varI > 0.0 && varJ > 0.0) {
+                        correlation = Math.max(-1.0, Math.min(1.0, (sumIJ - sumI * sumJ / days) / Math.sqrt(varI * varJ)));
+                    }
+                }
+                series.out[CorrelationMatrix.index(i, j, n)] = (float) correlation;
+                if (!Double.isNaN(correlation)) {
+                    rVal.offer(correlation, i, j, (int) days);
+                }
+            }
+        }
+        return rVal;
+    }
+
+    /**
+     * The highest correlations seen, a min-heap on the correlation so the lowest kept is dropped first. Ties go
+     * to the pair that comes first.
+     */
+    static class TopPairs {
+        private final int capacity;
+        private final double[] correlations;
+        private final int[] firsts;
+        private final int[] seconds;
+        private final int[] days;
+        private int size;
+
+        TopPairs(int pCapacity) {
+            capacity = pCapacity;
+            correlations = new double[pCapacity];
+            firsts = new int[pCapacity];
+            seconds = new int[pCapacity];
+            days = new int[pCapacity];
+        }
+
+        void offer(double pCorrelation, int pI, int pJ, int pDays) {
+            if (capacity == 0) {
+                return;
+            }
+            if (size < capacity) {
+                set(size, pCorrelation, pI, pJ, pDays);
+                siftUp(size++);
+            } else if (worse(0, pCorrelation, pI, pJ)) {
+                set(0, pCorrelation, pI, pJ, pDays);
+                siftDown(0);
+            }
+        }
+
+        TopPairs merge(TopPairs pOther) {
+            for (int k = 0; k < pOther.size; k++) {
+                offer(pOther.correlations[k], pOther.firsts[k], pOther.seconds[k], pOther.days[k]);
+            }
+            return this;
+        }
+
+        /**
+         * @return true if the pair at k ranks below the given one
+         */
+        private boolean worse(int pK, double pCorrelation, int pI, int pJ) {
+            if (correlations[pK] != pCorrelation) {
+                return correlations[pK] < pCorrelation;
+            }
+            return firsts[pK] != pI ? firsts[pK] > pI : seconds[pK] > pJ;
+        }
+
+        private void set(int pK, double pCorrelation, int pI, int pJ, int pDays) {
+            correlations[pK] = pCorrelation;
+            firsts[pK] = pI;
+            seconds[pK] = pJ;
+            days[pK] = pDays;
+        }
+
+        private void siftUp(int pK) {
+            int k = pK;
+            while (k > 0) {
+                int parent = (k - 1) >>> 1;
+                if (!worse(k, correlations[parent], firsts[parent], seconds[parent])) {
+                    break;
+                }
+                swap(k, parent);
+                k = parent;
+            }
+        }
+
+        private void siftDown(int pK) {
+            int k = pK;
+            while (true) {
+                int child = 2 * k + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && worse(child + 1, correlations[child], firsts[child], seconds[child])) {
+                    child++;
+                }
+                if (!worse(child, correlations[k], firsts[k], seconds[k])) {
+                    break;
+                }
+                swap(k, child);
+                k = child;
+            }
+        }
+
+        private void swap(int pA, int pB) {
+            double correlation = correlations[pA];
+            int first = firsts[pA];
+            int second = seconds[pA];
+            int dayCount = days[pA];
+            set(pA, correlations[pB], firsts[pB], seconds[pB], days[pB]);
+            set(pB, correlation, first, second, dayCount);
+        }
+
+        /**
+         * @return the pairs, highest correlation first
+         */
+        List<CorrelationMatrix.Pair> toPairs(List<String> pTickers) {
+            Integer[] order = new Integer[size];
+            for (int k = 0; k < size; k++) {
+                order[k] = k;
+            }
+            Arrays.sort(order, (a, b) -> worse(a, correlations[b], firsts[b], seconds[b]) ? 1 : (a.equals(b) ? 0 : -1));
+            List<CorrelationMatrix.Pair> rVal = new ArrayList<>();
+            for (int k : order) {
+                rVal.add(new CorrelationMatrix.Pair(pTickers.get(firsts[k]), pTickers.get(seconds[k]), correlations[k], days[k]));
+            }
+            return rVal;
+        }
+    }
+}
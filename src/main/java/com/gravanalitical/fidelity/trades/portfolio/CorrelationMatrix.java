@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.gravanalitical.fidelity.trades.portfolio;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The correlation of every pair of a set of tickers, see {@link CorrelationJob}. Only the upper triangle is
+ * kept, as floats, row after row: (0,1), (0,2) ... (0,n-1), (1,2) and so on. A pair with too few days in
+ * common is NaN.
+ */
+public class CorrelationMatrix {
+
+    /**
+     * One of the most correlated pairs.
+     */
+    public static class Pair {
+        private final String tickerA;
+        private final String tickerB;
+        private final double correlation;
+        private final int days;
+
+        Pair(String pTickerA, String pTickerB, double pCorrelation, int pDays) {
+            tickerA = pTickerA;
+            tickerB = pTickerB;
+            correlation = pCorrelation;
+            days = pDays;
+        }
+
+        public String getTickerA() {
+            return tickerA;
+        }
+
+        public String getTickerB() {
+            return tickerB;
+        }
+
+        public double getCorrelation() {
+            return correlation;
+        }
+
+        /**
+         * @return the trade dates the correlation is taken over
+         */
+        public int getDays() {
+            return days;
+        }
+    }
+
+    private final List<String> tickers;
+    private final float[] upper;
+    private final List<Pair> topPairs;
+
+    CorrelationMatrix(List<String> pTickers, float[] pUpper, List<Pair> pTopPairs) {
+        tickers = Collections.unmodifiableList(pTickers);
+        upper = pUpper;
+        topPairs = Collections.unmodifiableList(pTopPairs);
+    }
+
+    public List<String> getTickers() {
+        return tickers;
+    }
+
+    public int size() {
+        return tickers.size();
+    }
+
+    /**
+     * @return the correlation of the i-th and the j-th ticker, NaN if they have too few days in common
+     */
+    public double get(int pI, int pJ) {
+        if (pI == pJ) {
+            return 1.0;
+        }
+        return pI < pJ ? upper[index(pI, pJ, tickers.size())] : upper[index(pJ, pI, tickers.size())];
+    }
+
+    /**
+     * @return the position of (i, j), i &lt; j, in the upper triangle
+     */
+    static int index(int pI, int pJ, int pSize) {
+        return (int) ((long) pI * (2L * pSize - pI - 1) / 2 + (pJ - pI - 1));
+    }
+
+    /**
+     * @return the upper triangle itself, not a copy
+     */
+    public float[] getUpperTriangle() {
+        return upper;
+    }
+
+    /**
+     * @return the most correlated pairs, highest first
+     */
+    public List<Pair> getTopPairs() {
+        return topPairs;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades.portfolio;
+
+import com.gravanalitical.fidelity.trades.TradeTotals;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The rollup of a set of tickers: overall totals, the totals of each day across the tickers, and
+ * each ticker's share. Two portfolios over disjoint tickers merge into the portfolio of all of them.
+ */
+public class Portfolio {
+    private final TradeTotals totals = new TradeTotals();
+    private final TreeMap<String, TradeTotals> byDay = new TreeMap<>();
+    private final TreeMap<String, TradeTotals> byTicker = new TreeMap<>();
+
+    public static Portfolio of(TickerResult pResult) {
+        Portfolio rVal = new Portfolio();
+        rVal.totals.merge(pResult.getTotals());
+        for (Map.Entry<String, TradeTotals> day : pResult.getDays().entrySet()) {
+            rVal.byDay.computeIfAbsent(day.getKey(), k -> new TradeTotals()).merge(day.getValue());
+        }
+        rVal.byTicker.computeIfAbsent(pResult.getTicker(), k -> new TradeTotals()).merge(pResult.getTotals());
+        return rVal;
+    }
+
+    /**
+     * Folds the other portfolio into this one.
+     * @return this
+     */
+    public Portfolio merge(Portfolio pOther) {
+        totals.merge(pOther.totals);
+        pOther.byDay.forEach((day, dayTotals) -> byDay.computeIfAbsent(day, k -> new TradeTotals()).merge(dayTotals));
+        pOther.byTicker.forEach((ticker, tickerTotals) -> byTicker.computeIfAbsent(ticker, k -> new TradeTotals()).merge(tickerTotals));
+        return this;
+    }
+
+    public TradeTotals getTotals() {
+        return totals;
+    }
+
+    /**
+     * @return the totals of all the tickers for each day, in day order
+     */
+    public SortedMap<String, TradeTotals> getByDay() {
+        return Collections.unmodifiableSortedMap(byDay);
+    }
+
+    /**
+     * @return the totals of each ticker, by ticker symbol
+     */
+    public SortedMap<String, TradeTotals> getByTicker() {
+        return Collections.unmodifiableSortedMap(byTicker);
+    }
+}
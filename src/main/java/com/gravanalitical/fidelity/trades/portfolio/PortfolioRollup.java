@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades.portfolio;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Rolls the ticker results up into a {@link Portfolio}. The list is split in halves until the pieces are
+ * small, each piece is folded on its own, and the partial portfolios are merged on the way back up.
+ */
+public class PortfolioRollup extends RecursiveTask<Portfolio> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Below this many tickers a piece is folded sequentially.
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 16;
+
+    private final List<TickerResult> results;
+    private final int from;
+    private final int to;
+
+    private PortfolioRollup(List<TickerResult> pResults, int pFrom, int pTo) {
+        results = pResults;
+        from = pFrom;
+        to = pTo;
+    }
+
+    /**
+     * @param pResults the ticker results, each ticker once
+     * @return the rollup, empty if there are no results
+     */
+    public static Portfolio rollup(List<TickerResult> pResults) {
+        if (pResults.isEmpty()) {
+            return new Portfolio();
+        }
+        return ForkJoinPool.commonPool().invoke(new PortfolioRollup(pResults, 0, pResults.size()));
+    }
+
+    @Override
+    protected Portfolio compute() {
+        if (to - from <= SEQUENTIAL_THRESHOLD) {
+            Portfolio rVal = Portfolio.of(results.get(from));
+            for (int i = from + 1; i < to; i++) {
+                rVal.merge(Portfolio.of(results.get(i)));
+            }
+            return rVal;
+        }
+        int middle = (from + to) >>> 1;
+        PortfolioRollup left = new PortfolioRollup(results, from, middle);
+        PortfolioRollup right = new PortfolioRollup(results, middle, to);
+        left.fork();
+        Portfolio rightResult = right.compute();
+        return left.join().merge(rightResult);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades.portfolio;
+
+import com.gravanalitical.fidelity.trades.TradeTotals;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * What is kept of a ticker once its day files are processed: the totals for each day,
+ * and for the whole run.
+ */
+public class TickerResult {
+    private final String ticker;
+    private final TradeTotals totals = new TradeTotals();
+    private final TreeMap<String, TradeTotals> days = new TreeMap<>();
+
+    public TickerResult(String pTicker) {
+        ticker = pTicker;
+    }
+
+    /**
+     * @param pDayKey the yyyymmdd of the day, see TradeDay.getDayKey()
+     * @param pDayTotals added to whatever is already recorded for the day
+     */
+    public void addDay(String pDayKey, TradeTotals pDayTotals) {
+        totals.merge(pDayTotals);
+        days.computeIfAbsent(pDayKey, k -> new TradeTotals()).merge(pDayTotals);
+    }
+
+    public String getTicker() {
+        return ticker;
+    }
+
+    public TradeTotals getTotals() {
+        return totals;
+    }
+
+    /**
+     * @return the totals of each day, in day order
+     */
+    public SortedMap<String, TradeTotals> getDays() {
+        return Collections.unmodifiableSortedMap(days);
+    }
+}
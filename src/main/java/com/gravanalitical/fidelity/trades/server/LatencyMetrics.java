@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades.server;
+
+import com.gravanalitical.stats.QuantileSketch;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Request counts and latencies of the query server. The latencies go into a quantile sketch, so
+ * memory stays the same however many requests are served.
+ */
+class LatencyMetrics {
+    static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    private static final MathContext MILLIS_CONTEXT = new MathContext(4);
+
+    private final QuantileSketch micros = new QuantileSketch();
+    private long requests;
+    private long errors;
+    private double totalMicros;
+
+    /**
+     * @param pError true if the request was answered with an error status
+     */
+    synchronized void record(long pNanos, boolean pError) {
+        requests++;
+        if (pError) {
+            errors++;
+        }
+        double elapsed = pNanos / 1000.0;
+        micros.add(elapsed);
+        totalMicros += elapsed;
+    }
+
+    synchronized long getRequests() {
+        return requests;
+    }
+
+    synchronized long getErrors() {
+        return errors;
+    }
+
+    synchronized BigDecimal getMeanMillis() {
+        return requests == 0 ? BigDecimal.ZERO : millis(totalMicros / requests);
+    }
+
+    /**
+     * @return the latency at the quantile, to within 1%
+     */
+    synchronized BigDecimal getMillis(double pQuantile) {
+        return micros.isEmpty() ? BigDecimal.ZERO : millis(micros.quantile(pQuantile));
+    }
+
+    private static BigDecimal millis(double pMicros) {
+        return new BigDecimal(pMicros / 1000.0, MILLIS_CONTEXT).stripTrailingZeros();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades.server;
+
+import com.gravanalitical.fidelity.trades.TradeTotals;
+import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
+import com.gravanalitical.fidelity.trades.format.QueryAsJSON;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers aggregate queries over the processed tickers of a home directory, on the JDK's HTTP server.
+ * <ul>
+ *     <li>GET /aggregate?ticker=GWRE&amp;from=20200102&amp;to=20200131 - the totals, VWAP and buy/sell shares
+ *     of the days in the range, either end may be left out.</li>
+ *     <li>GET /aggregate?ticker=GWRE&amp;days=5 - the same over the last 5 days with trades, up to <i>to</i> if given.</li>
+ *     <li>GET /metrics - the number of requests served and their latency.</li>
+ * </ul>
+ * The answers come from each ticker's TICKER.csv, see {@link TickerStore}. Requests run on a fixed pool;
+ * when its queue is full the server's own thread runs the request, which slows down accepting new ones.
+ */
+public class QueryServer {
+    private static final Logger log = LogManager.getLogger("fidelity.trades.QueryServer");
+
+    static final String AGGREGATE_PATH = "/aggregate";
+    static final String METRICS_PATH = "/metrics";
+    private static final int QUEUE_PER_THREAD = 64;
+    private static final String DAY_PATTERN = "\\d{8}";
+
+    private final GA_FidelityTradesConfig config;
+    private final TickerStore store;
+    private final LatencyMetrics metrics = new LatencyMetrics();
+    private final QueryAsJSON formatter = new QueryAsJSON();
+    private HttpServer server;
+    private ThreadPoolExecutor pool;
+
+    public QueryServer(GA_FidelityTradesConfig pConfig) {
+        config = pConfig;
+        store = new TickerStore(pConfig.getHomeDir());
+    }
+
+    /**
+     * Listens on the loopback address unless another is configured, see {@link GA_FidelityTradesConfig#getServerHost()}.
+     * @param pPort the port to listen on, 0 for any free one
+     * @return the address the server listens on
+     */
+    public synchronized InetSocketAddress start(int pPort) throws IOException {
+        int threads = config.getServerThreads();
+        pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUE_PER_THREAD), new ThreadPoolExecutor.CallerRunsPolicy());
+        String host = config.getServerHost();
+        InetSocketAddress address = null == host
+                ? new InetSocketAddress(InetAddress.getLoopbackAddress(), pPort)
+                : new InetSocketAddress(host, pPort);
+        server = HttpServer.create(address, 0);
+        server.createContext(AGGREGATE_PATH, timed(this::aggregate));
+        server.createContext(METRICS_PATH, timed(this::metrics));
+        server.setExecutor(pool);
+        server.start();
+        log.info("start(int) listening on {} with {} threads", server.getAddress(), threads);
+        return server.getAddress();
+    }
+
+    /**
+     * Stops accepting requests and waits up to pSeconds for the ones in progress.
+     */
+    public synchronized void stop(int pSeconds) {
+        if (null != server) {
+            server.stop(pSeconds);
+            pool.shutdown();
+            server = null;
+        }
+    }
+
+    private interface Handler {
+        /**
+         * @return the status code of the answer sent
+         */
+        int handle(HttpExchange pExchange) throws IOException;
+    }
+
+    private HttpHandler timed(Handler pHandler) {
+        return exchange -> {
+            long start = System.nanoTime();
+            int status = 500;
+            try {
+                status = pHandler.handle(exchange);
+            } catch (Exception e) {
+                log.error("handle(HttpExchange) {} failed", exchange.getRequestURI(), e);
+                // once the headers are out only closing the exchange is left.
+                if (exchange.getResponseCode() < 0) {
+                    send(exchange, 500, formatter.formatError("internal error"));
+                } else {
+                    status = exchange.getResponseCode();
+                }
+            } finally {
+                exchange.close();
+                metrics.record(System.nanoTime() - start, status >= 400);
+            }
+        };
+    }
+
+    private int aggregate(HttpExchange pExchange) throws IOException {
+        if (!"GET".equals(pExchange.getRequestMethod())) {
+            return send(pExchange, 405, formatter.formatError("only GET is supported"));
+        }
+        Map<String, String> query;
+        try {
+            query = parseQuery(pExchange.getRequestURI().getRawQuery());
+        } catch (IllegalArgumentException ex) {
+            // a bad escape such as %zz.
+            return send(pExchange, 400, formatter.formatError("malformed query"));
+        }
+        String ticker = query.get("ticker");
+        String from = query.get("from");
+        String to = query.get("to");
+        String days = query.get("days");
+        if (null == ticker) {
+            return send(pExchange, 400, formatter.formatError("ticker is required"));
+        }
+        if ((null != from && !from.matches(DAY_PATTERN)) || (null != to && !to.matches(DAY_PATTERN))) {
+            return send(pExchange, 400, formatter.formatError("from and to are yyyymmdd"));
+        }
+        if (null != days && (null != from || !days.matches("\\d{1,6}") || Integer.parseInt(days) == 0)) {
+            return send(pExchange, 400, formatter.formatError("days is a positive count and cannot be given with from"));
+        }
+        NavigableMap<String, TradeTotals> tickerDays = store.days(ticker);
+        if (null == tickerDays) {
+            return send(pExchange, 404, formatter.formatError("no processed data for " + ticker));
+        }
+
+        NavigableMap<String, TradeTotals> range = tickerDays;
+        if (null != to) {
+            range = range.headMap(to, true);
+        }
+        if (null != from) {
+            range = range.tailMap(from, true);
+        }
+        if (null != days) {
+            int count = Integer.parseInt(days);
+            if (range.size() > count) {
+                String first = range.descendingKeySet().stream().skip(count - 1L).findFirst().orElse(null);
+                range = range.tailMap(first, true);
+            }
+        }
+        TradeTotals totals = new TradeTotals();
+        for (TradeTotals day : range.values()) {
+            totals.merge(day);
+        }
+        String body = formatter.formatAggregate(ticker, range.isEmpty() ? null : range.firstKey(),
+                range.isEmpty() ? null : range.lastKey(), range.size(), totals, config.getMathScale());
+        return send(pExchange, 200, body);
+    }
+
+    private int metrics(HttpExchange pExchange) throws IOException {
+        if (!"GET".equals(pExchange.getRequestMethod())) {
+            return send(pExchange, 405, formatter.formatError("only GET is supported"));
+        }
+        double[] quantiles = LatencyMetrics.QUANTILES;
+        BigDecimal[] latencies = new BigDecimal[quantiles.length];
+        for (int i = 0; i < quantiles.length; i++) {
+            latencies[i] = metrics.getMillis(quantiles[i]);
+        }
+        return send(pExchange, 200, formatter.formatMetrics(metrics.getRequests(), metrics.getErrors(),
+                metrics.getMeanMillis(), quantiles, latencies));
+    }
+
+    private static int send(HttpExchange pExchange, int pStatus, String pBody) throws IOException {
+        byte[] bytes = pBody.getBytes(StandardCharsets.UTF_8);
+        pExchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        pExchange.sendResponseHeaders(pStatus, bytes.length);
+        try (OutputStream out = pExchange.getResponseBody()) {
+            out.write(bytes);
+        }
+        return pStatus;
+    }
+
+    static Map<String, String> parseQuery(String pRawQuery) throws UnsupportedEncodingException {
+        Map<String, String> rVal = new HashMap<>();
+        if (null == pRawQuery) {
+            return rVal;
+        }
+        for (String pair : pRawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                rVal.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return rVal;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades.server;
+
+import com.gravanalitical.fidelity.trades.TradeTotals;
+import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The day totals of each processed ticker, read from its TICKER.csv. A file is read once and again only
+ * after it changed, so queries do not touch the disk while a run is not writing. Safe to share between
+ * the request threads.
+ */
+class TickerStore {
+    private static final Logger log = LogManager.getLogger("fidelity.trades.TickerStore");
+
+    /**
+     * The date line of the export, "Date: 01/02/2020".
+     */
+    private static final Pattern DATE = Pattern.compile("(\\d{1,2})/(\\d{1,2})/(\\d{4})");
+    /**
+     * Ordinal, date, average price, then the volumes and the dollar volumes as TradeDayAsCSVString writes them.
+     */
+    private static final int DATE_COLUMN = 1;
+    private static final int VOLUME_COLUMN = 3;
+    private static final int DOLLAR_COLUMN = 7;
+
+    private static class Loaded {
+        final long modified;
+        final long size;
+        final NavigableMap<String, TradeTotals> days;
+
+        Loaded(long pModified, long pSize, NavigableMap<String, TradeTotals> pDays) {
+            modified = pModified;
+            size = pSize;
+            days = pDays;
+        }
+    }
+
+    private final Path homeDir;
+    private final ConcurrentHashMap<String, Loaded> tickers = new ConcurrentHashMap<>();
+
+    TickerStore(String pHomeDir) {
+        homeDir = Paths.get(pHomeDir);
+    }
+
+    /**
+     * @return the totals of each day, by yyyymmdd, null if the ticker has no output
+     * @throws IOException if the output cannot be read
+     */
+    NavigableMap<String, TradeTotals> days(String pTicker) throws IOException {
+        if (pTicker.isEmpty() || pTicker.startsWith(".") || pTicker.contains("/") || pTicker.contains("\\")) {
+            return null;
+        }
+        Path file = homeDir.resolve(pTicker).resolve(pTicker + "." + GA_FidelityTradesConfig.CSV_FILE_EXTENSION);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        long size = Files.size(file);
+        Loaded loaded = tickers.get(pTicker);
+        if (null == loaded || loaded.modified != modified || loaded.size != size) {
+            loaded = new Loaded(modified, size, read(file));
+            tickers.put(pTicker, loaded);
+        }
+        return loaded.days;
+    }
+
+    private static NavigableMap<String, TradeTotals> read(Path pFile) throws IOException {
+        log.debug("read(Path) {}", pFile);
+        TreeMap<String, TradeTotals> rVal = new TreeMap<>();
+        try (BufferedReader in = Files.newBufferedReader(pFile, StandardCharsets.UTF_8)) {
+            String line = in.readLine(); // the header
+            while ((line = in.readLine()) != null) {
+                String[] columns = line.split(",");
+                Matcher date = columns.length > DOLLAR_COLUMN + 3 ? DATE.matcher(columns[DATE_COLUMN]) : null;
+                if (null == date || !date.find()) {
+                    log.warn("read(Path) skipping a line without a date in {}: {}", pFile, line);
+                    continue;
+                }
+                String dayKey = date.group(3) + String.format("%02d%02d",
+                        Integer.parseInt(date.group(1)), Integer.parseInt(date.group(2)));
+                try {
+                    TradeTotals day = new TradeTotals(
+                            new BigDecimal(columns[VOLUME_COLUMN]), new BigDecimal(columns[VOLUME_COLUMN + 1]),
+                            new BigDecimal(columns[VOLUME_COLUMN + 2]), new BigDecimal(columns[VOLUME_COLUMN + 3]),
+                            new BigDecimal(columns[DOLLAR_COLUMN]), new BigDecimal(columns[DOLLAR_COLUMN + 1]),
+                            new BigDecimal(columns[DOLLAR_COLUMN + 2]), new BigDecimal(columns[DOLLAR_COLUMN + 3]));
+                    rVal.computeIfAbsent(dayKey, k -> new TradeTotals()).merge(day);
+                } catch (NumberFormatException e) {
+                    log.warn("read(Path) skipping a line that is not a day in {}: {}", pFile, line);
+                }
+            }
+        }
+        return Collections.unmodifiableNavigableMap(rVal);
+    }
+}
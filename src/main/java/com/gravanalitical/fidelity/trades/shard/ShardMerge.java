@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades.shard;
+
+import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The final step of a sharded run. Once every worker is finished, combines the per-ticker
+ * <i>TICKER.csv</i> files into a single <i>merged.csv</i> in the home directory, with the ticker
+ * as the first column, and clears the leases of those tickers so the next batch starts fresh.
+ */
+public class ShardMerge {
+    private static final Logger log = LogManager.getLogger("fidelity.trades.ShardMerge");
+
+    public static final String MERGED_FILE_NAME = "merged." + GA_FidelityTradesConfig.CSV_FILE_EXTENSION;
+
+    private final GA_FidelityTradesConfig config;
+    private final TickerLeases leases;
+
+    public ShardMerge(GA_FidelityTradesConfig pConfig, TickerLeases pLeases) {
+        config = pConfig;
+        leases = pLeases;
+    }
+
+    /**
+     * @return false, without writing anything, if a worker still holds a live lease
+     */
+    public boolean merge(List<String> tickers) throws IOException {
+        for (String ticker : tickers) {
+            if (leases.isLive(ticker)) {
+                log.error("merge(List) {} is still being processed, run the merge when all workers are done.", ticker);
+                return false;
+            }
+        }
+
+        Path home = Paths.get(config.getHomeDir());
+        Path merged = home.resolve(MERGED_FILE_NAME);
+        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(merged, Charset.defaultCharset()))) {
+            pw.println("\"Ticker\"," + config.getOutputHeader());
+            for (String ticker : tickers) {
+                if (!leases.isDone(ticker)) {
+                    log.warn("merge(List) {} was not finished by any worker.", ticker);
+                }
+                Path tickerCsv = home.resolve(ticker).resolve(ticker + "." + GA_FidelityTradesConfig.CSV_FILE_EXTENSION);
+                if (!Files.exists(tickerCsv)) {
+                    continue;
+                }
+                try (BufferedReader reader = Files.newBufferedReader(tickerCsv, Charset.defaultCharset())) {
+                    String line = reader.readLine(); // the header, written once above.
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.isEmpty()) {
+                            pw.print(ticker);
+                            pw.print(',');
+                            pw.println(line);
+                        }
+                    }
+                }
+            }
+        }
+        log.info("merge(List) wrote {}", merged);
+
+        for (String ticker : tickers) {
+            leases.clear(ticker);
+        }
+        return true;
+    }
+
+    /**
+     * @return the ticker directories of the home directory, sorted by name
+     */
+    public static List<String> listTickers(String pHomeDir) throws IOException {
+        List<String> tickers = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(pHomeDir), Files::isDirectory)) {
+            for (Path dir : stream) {
+                String name = dir.getFileName().toString();
+                if (!name.startsWith(".")) {
+                    tickers.add(name);
+                }
+            }
+        }
+        tickers.sort(Comparator.naturalOrder());
+        return tickers;
+    }
+}
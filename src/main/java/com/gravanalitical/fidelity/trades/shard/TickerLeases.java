@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.fidelity.trades.shard;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets several processes share one home directory by claiming tickers through lease files kept in
+ * <i>home/.leases</i>. A lease is created with an exclusive create, so only one worker can hold it.
+ * The holder keeps touching the lease while it works; a lease that has not been touched for the
+ * configured timeout belongs to a crashed worker and may be reclaimed by anyone else.
+ *
+ * Once a ticker is written the lease is replaced by a <i>TICKER.done</i> marker so no other worker
+ * picks it up again during the same batch. The merge step clears the markers of the tickers it merged.
+ */
+public class TickerLeases implements AutoCloseable {
+    private static final Logger log = LogManager.getLogger("fidelity.trades.TickerLeases");
+
+    public static final String LEASE_DIR = ".leases";
+    private static final String LEASE_SUFFIX = ".lease";
+    private static final String DONE_SUFFIX = ".done";
+
+    private static final AtomicLong TOMBSTONE_COUNTER = new AtomicLong();
+
+    private final Path leaseDir;
+    private final String owner;
+    private final long staleMillis;
+    private final Map<String, Path> held = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService heartbeat;
+
+    /**
+     * @param pHomeDir the shared home directory
+     * @param pOwner identifies this worker in the lease files, see {@link #defaultOwner()}
+     * @param pStaleSeconds a lease not touched for this long is considered abandoned
+     */
+    public TickerLeases(String pHomeDir, String pOwner, long pStaleSeconds) throws IOException {
+        leaseDir = Files.createDirectories(Paths.get(pHomeDir, LEASE_DIR));
+        owner = pOwner;
+        staleMillis = TimeUnit.SECONDS.toMillis(pStaleSeconds);
+        long beat = Math.max(1L, staleMillis / 3);
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lease-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleAtFixedRate(this::touchHeld, beat, beat, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return pid@host of this JVM
+     */
+    public static String defaultOwner() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        return ProcessHandle.current().pid() + "@" + host;
+    }
+
+    public static Path leaseDir(String pHomeDir) {
+        return Paths.get(pHomeDir, LEASE_DIR);
+    }
+
+    /**
+     * Tries to take the ticker for this worker.
+     * @return true when the caller now owns the ticker and must process it
+     */
+    public boolean claim(String ticker) throws IOException {
+        Path lease = leaseDir.resolve(ticker + LEASE_SUFFIX);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (isDone(ticker)) {
+                return false;
+            }
+            try {
+                Files.write(Files.createFile(lease), owner.getBytes(StandardCharsets.UTF_8));
+                held.put(ticker, lease);
+                log.info("claim(String) {} claimed by {}", ticker, owner);
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                if (!reclaimIfStale(ticker, lease)) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records the ticker as finished and gives up the lease.
+     */
+    public void complete(String ticker) throws IOException {
+        Path lease = held.remove(ticker);
+        Path done = leaseDir.resolve(ticker + DONE_SUFFIX);
+        Files.write(done, owner.getBytes(StandardCharsets.UTF_8));
+        if (null != lease) {
+            Files.deleteIfExists(lease);
+        }
+    }
+
+    /**
+     * Gives up the lease without marking the ticker finished, so another worker can take it.
+     */
+    public void release(String ticker) throws IOException {
+        Path lease = held.remove(ticker);
+        if (null != lease) {
+            Files.deleteIfExists(lease);
+        }
+    }
+
+    /**
+     * Removes the ticker's lease and done marker once its output is merged, so the next batch takes it again.
+     * The leases of other tickers, and any other file in the lease directory, are left alone.
+     */
+    public void clear(String ticker) throws IOException {
+        Files.deleteIfExists(leaseDir.resolve(ticker + LEASE_SUFFIX));
+        Files.deleteIfExists(leaseDir.resolve(ticker + DONE_SUFFIX));
+    }
+
+    public boolean isDone(String ticker) {
+        return Files.exists(leaseDir.resolve(ticker + DONE_SUFFIX));
+    }
+
+    /**
+     * @return true if there is a lease for the ticker that has been touched recently
+     */
+    public boolean isLive(String ticker) {
+        try {
+            return !isStale(Files.getLastModifiedTime(leaseDir.resolve(ticker + LEASE_SUFFIX)));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private boolean isStale(FileTime lastTouched) {
+        return System.currentTimeMillis() - lastTouched.toMillis() > staleMillis;
+    }
+
+    /**
+     * Moves a stale lease out of the way under a name only this worker uses. If between the staleness check
+     * and the move the lease was taken over by someone else, the fresh lease is linked back into place.
+     * @return true if the lease name is free again
+     */
+    private boolean reclaimIfStale(String ticker, Path lease) throws IOException {
+        try {
+            if (!isStale(Files.getLastModifiedTime(lease))) {
+                return false;
+            }
+            Path tombstone = leaseDir.resolve(ticker + LEASE_SUFFIX + "." + owner + "." + TOMBSTONE_COUNTER.incrementAndGet());
+            Files.move(lease, tombstone, StandardCopyOption.ATOMIC_MOVE);
+            if (!isStale(Files.getLastModifiedTime(tombstone))) {
+                try {
+                    Files.createLink(lease, tombstone);
+                } catch (FileAlreadyExistsException alreadyRetaken) {
+                    log.warn("reclaimIfStale(String,Path) {} was re-taken while restoring a live lease", ticker);
+                }
+                Files.deleteIfExists(tombstone);
+                return false;
+            }
+            String previousOwner = new String(Files.readAllBytes(tombstone), StandardCharsets.UTF_8);
+            log.warn("reclaimIfStale(String,Path) reclaiming {} from {}", ticker, previousOwner);
+            Files.deleteIfExists(tombstone);
+            return true;
+        } catch (NoSuchFileException e) {
+            // released or reclaimed by another worker in the meantime, try again to create it.
+            return true;
+        }
+    }
+
+    private void touchHeld() {
+        FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        held.forEach((ticker, lease) -> {
+            try {
+                Files.setLastModifiedTime(lease, now);
+            } catch (IOException e) {
+                log.error("touchHeld() could not renew the lease for {}", ticker, e);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+    }
+}
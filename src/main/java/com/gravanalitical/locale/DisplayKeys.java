@@ -58,6 +58,14 @@ public class DisplayKeys {
     public static final String LOG_PARSING                  = "messageKey.trace.parsing.data";
     public static final String SUMMARY_OVERALL_HEADER       = "messageKey.summary.overall.header";
     public static final String SUMMARY_MONTH_VWAP           = "messageKey.summary.monthly.avgPrice";
+    public static final String SUMMARY_SIZE_QUANTILES       = "messageKey.summary.size.quantiles";
+    public static final String SUMMARY_PRICE_QUANTILES      = "messageKey.summary.price.quantiles";
+    public static final String SUMMARY_SPREADS              = "messageKey.summary.spreads";
+    public static final String SUMMARY_EFFECTIVE_SPREAD     = "messageKey.summary.effective.spread";
+    public static final String SUMMARY_QUOTE_QUALITY        = "messageKey.summary.quote.quality";
+    public static final String SUMMARY_LARGEST_BY_SIZE      = "messageKey.summary.largest.size";
+    public static final String SUMMARY_LARGEST_BY_DOLLARS   = "messageKey.summary.largest.dollars";
+    public static final String SUMMARY_LARGEST_TRADE        = "messageKey.summary.largest.trade";
 
     private static DisplayKeys _instance = new DisplayKeys();
     private ResourceBundle displayKeys;
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.gravanalitical.stats;
+
+import java.util.Arrays;
+
+/**
+ * Streaming quantiles of positive values in bounded memory, after the DDSketch idea: values are counted
+ * in logarithmic buckets, so any quantile comes back within the relative accuracy of a value that was
+ * actually added (1% by default). Two sketches with the same accuracy merge exactly, in any order, by
+ * adding up their bucket counts.
+ *
+ * Values of zero or less are counted apart, below every bucket. If more than the maximum number of
+ * buckets would be needed, the lowest ones are folded together, which only blurs the low quantiles.
+ * Not thread safe.
+ */
+public class QuantileSketch {
+    public static final double DEFAULT_ACCURACY = 0.01;
+    private static final int MAX_BUCKETS = 2048;
+    private static final int INITIAL_BUCKETS = 64;
+
+    private final double accuracy;
+    private final double gamma;
+    private final double logGamma;
+
+    /**
+     * counts[i] holds the values of bucket offset + i.
+     */
+    private long[] counts;
+    private int offset;
+    private int minIndex = Integer.MAX_VALUE;
+    private int maxIndex = Integer.MIN_VALUE;
+    private long zeroCount;
+    private long count;
+
+    public QuantileSketch() {
+        this(DEFAULT_ACCURACY);
+    }
+
+    /**
+     * @param pAccuracy the relative accuracy of the quantiles, between 0 and 1
+     */
+    public QuantileSketch(double pAccuracy) {
+        if (!(pAccuracy > 0.0 && pAccuracy < 1.0)) {
+            throw new IllegalArgumentException("accuracy must be between 0 and 1: " + pAccuracy);
+        }
+        accuracy = pAccuracy;
+        gamma = (1.0 + pAccuracy) / (1.0 - pAccuracy);
+        logGamma = Math.log(gamma);
+    }
+
+    public void add(double pValue) {
+        add(pValue, 1L);
+    }
+
+    private void add(double pValue, long pCount) {
+        count += pCount;
+        if (!(pValue > 0.0)) {
+            zeroCount += pCount;
+            return;
+        }
+        addToBucket((int) Math.ceil(Math.log(pValue) / logGamma), pCount);
+    }
+
+    private void addToBucket(int pIndex, long pCount) {
+        int index = pIndex;
+        if (null == counts) {
+            counts = new long[INITIAL_BUCKETS];
+            offset = index - INITIAL_BUCKETS / 2;
+        }
+        if (index < minIndex) {
+            if (maxIndex != Integer.MIN_VALUE && maxIndex - index >= MAX_BUCKETS) {
+                index = maxIndex - MAX_BUCKETS + 1;
+            }
+            minIndex = Math.min(minIndex, index);
+        }
+        if (index > maxIndex) {
+            maxIndex = index;
+            if (maxIndex - minIndex >= MAX_BUCKETS) {
+                collapseBelow(maxIndex - MAX_BUCKETS + 1);
+            }
+        }
+        ensureRange(minIndex, maxIndex);
+        counts[index - offset] += pCount;
+    }
+
+    /**
+     * Folds the buckets below the index into it.
+     */
+    private void collapseBelow(int pIndex) {
+        long folded = 0L;
+        for (int i = minIndex; i < pIndex; i++) {
+            if (i - offset >= 0 && i - offset < counts.length) {
+                folded += counts[i - offset];
+                counts[i - offset] = 0L;
+            }
+        }
+        minIndex = pIndex;
+        ensureRange(minIndex, maxIndex);
+        counts[pIndex - offset] += folded;
+    }
+
+    private void ensureRange(int pMin, int pMax) {
+        if (pMin - offset >= 0 && pMax - offset < counts.length) {
+            return;
+        }
+        int length = counts.length;
+        while (length < pMax - pMin + 1 + INITIAL_BUCKETS) {
+            length *= 2;
+        }
+        long[] grown = new long[length];
+        int newOffset = pMin - (length - (pMax - pMin + 1)) / 2;
+        for (int i = Math.max(pMin, offset); i <= Math.min(pMax, offset + counts.length - 1); i++) {
+            grown[i - newOffset] = counts[i - offset];
+        }
+        counts = grown;
+        offset = newOffset;
+    }
+
+    /**
+     * Adds the other sketch's values to this one.
+     */
+    public void merge(QuantileSketch pOther) {
+        if (pOther.accuracy != accuracy) {
+            throw new IllegalArgumentException("cannot merge sketches of different accuracy");
+        }
+        count += pOther.count;
+        zeroCount += pOther.zeroCount;
+        if (null == pOther.counts) {
+            return;
+        }
+        for (int i = pOther.minIndex; i <= pOther.maxIndex; i++) {
+            long c = pOther.counts[i - pOther.offset];
+            if (c != 0L) {
+                addToBucket(i, c);
+            }
+        }
+    }
+
+    /**
+     * @param pQuantile between 0 and 1, 0.5 for the median
+     * @return the estimate, or NaN if nothing was added
+     */
+    public double quantile(double pQuantile) {
+        if (pQuantile < 0.0 || pQuantile > 1.0) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1: " + pQuantile);
+        }
+        if (count == 0L) {
+            return Double.NaN;
+        }
+        long rank = (long) (pQuantile * (count - 1));
+        if (rank < zeroCount) {
+            return 0.0;
+        }
+        long seen = zeroCount;
+        for (int i = minIndex; i <= maxIndex; i++) {
+            seen += counts[i - offset];
+            if (seen > rank) {
+                return 2.0 * Math.pow(gamma, i) / (gamma + 1.0);
+            }
+        }
+        return 2.0 * Math.pow(gamma, maxIndex) / (gamma + 1.0);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0L;
+    }
+
+    public void clear() {
+        if (null != counts) {
+            Arrays.fill(counts, 0L);
+        }
+        minIndex = Integer.MAX_VALUE;
+        maxIndex = Integer.MIN_VALUE;
+        zeroCount = 0L;
+        count = 0L;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.gravanalitical.fidelity.trades.history;
+
+/**
+ * Sums volume and dollar volume by sentiment over the price, size, bid and ask columns of a trade history,
+ * classifying each trade by the quote rule, see TradeRecord.
+ *
+ * This is the Java 17 version from the multi-release jar. The Vector API is an incubator module, so the
+ * vector kernel is only used when the JVM was started with --add-modules jdk.incubator.vector; otherwise
+ * the sums are run one trade at a time, with the same results.
+ */
+public final class SentimentKernel {
+    private static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private SentimentKernel() {
+    }
+
+    /**
+     * Adds the trades in [pFrom, pTo) of the columns to the sums. Prices are in millionths, see {@link TradeHistory#PRICE_SCALE}.
+     * The sums of one call are only checked for overflow on the scalar path, keep them within a long.
+     */
+    public static void aggregate(long[] pPrice, long[] pSize, long[] pBid, long[] pAsk, int pFrom, int pTo, SentimentSums pSums) {
+        if (VECTORIZED) {
+            VectorSentimentKernel.aggregate(pPrice, pSize, pBid, pAsk, pFrom, pTo, pSums);
+        } else {
+            ScalarSentimentKernel.aggregate(pPrice, pSize, pBid, pAsk, pFrom, pTo, pSums);
+        }
+    }
+
+    /**
+     * @return true when the sums run on vector instructions
+     */
+    public static boolean isVectorized() {
+        return VECTORIZED;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2019. Gravity Analytica
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.gravanalitical.fidelity.trades.history;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The quote rule of {@link ScalarSentimentKernel} a vector of trades at a time. The buy and sell masks come
+ * from comparing the price with the bid and the ask, the sums are masked adds into one accumulator per lane,
+ * reduced at the end. Integer arithmetic, so the results are the same as the scalar ones. The lanes are not
+ * checked for overflow; {@link TradeHistory#aggregate} only hands this kernel columns whose sums cannot overflow.
+ */
+final class VectorSentimentKernel {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    private VectorSentimentKernel() {
+    }
+
+    static void aggregate(long[] pPrice, long[] pSize, long[] pBid, long[] pAsk, int pFrom, int pTo, SentimentSums pSums) {
+        LongVector volume = LongVector.zero(SPECIES);
+        LongVector buyVolume = LongVector.zero(SPECIES);
+        LongVector sellVolume = LongVector.zero(SPECIES);
+        LongVector dollars = LongVector.zero(SPECIES);
+        LongVector buyDollars = LongVector.zero(SPECIES);
+        LongVector sellDollars = LongVector.zero(SPECIES);
+        int i = pFrom;
+        int upper = pFrom + SPECIES.loopBound(pTo - pFrom);
+        for (; i < upper; i += SPECIES.length()) {
+            LongVector price = LongVector.fromArray(SPECIES, pPrice, i);
+            LongVector size = LongVector.fromArray(SPECIES, pSize, i);
+            LongVector bid = LongVector.fromArray(SPECIES, pBid, i);
+            LongVector ask = LongVector.fromArray(SPECIES, pAsk, i);
+            LongVector tradeDollars = price.mul(size);
+
+            VectorMask<Long> unquoted = bid.compare(VectorOperators.EQ, 0L).and(ask.compare(VectorOperators.EQ, 0L))
+                    .or(bid.compare(VectorOperators.EQ, ask));
+            VectorMask<Long> sell = price.compare(VectorOperators.LE, bid).andNot(unquoted);
+            VectorMask<Long> buy = price.compare(VectorOperators.GE, ask).andNot(unquoted).andNot(sell);
+
+            volume = volume.add(size);
+            dollars = dollars.add(tradeDollars);
+            sellVolume = sellVolume.add(size, sell);
+            sellDollars = sellDollars.add(tradeDollars, sell);
+            buyVolume = buyVolume.add(size, buy);
+            buyDollars = buyDollars.add(tradeDollars, buy);
+        }
+        pSums.add(volume.reduceLanes(VectorOperators.ADD), buyVolume.reduceLanes(VectorOperators.ADD),
+                sellVolume.reduceLanes(VectorOperators.ADD), dollars.reduceLanes(VectorOperators.ADD),
+                buyDollars.reduceLanes(VectorOperators.ADD), sellDollars.reduceLanes(VectorOperators.ADD));
+        ScalarSentimentKernel.aggregate(pPrice, pSize, pBid, pAsk, i, pTo, pSums);
+    }
+}
@@ -0,0 +1,127 @@
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.fidelity.trades.checkpoint.Quarantine;
+import com.gravanalitical.fidelity.trades.checkpoint.RunCheckpoint;
+import com.gravanalitical.fidelity.trades.portfolio.TickerResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointTests {
+    private Path home;
+
+    @Before
+    public void setUp() throws IOException {
+        home = TestHomes.newHome();
+        for (String ticker : new String[]{"TK0", "TK1"}) {
+            TestHomes.writeDay(TestHomes.inputDir(home, ticker), "20200102.csv", TestHomes.dayExport("\"Date: 01/02/2020\"",
+                    TestHomes.TRADES[0], TestHomes.TRADES[1]));
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestHomes.delete(home);
+    }
+
+    private TickerResult result(String ticker) {
+        TradeTotals day = new TradeTotals();
+        day.add(new TradeRecord("09:30:01", new BigDecimal("2.00"), new BigDecimal("1000"), new BigDecimal("1.99"), new BigDecimal("2.00")));
+        TickerResult rVal = new TickerResult(ticker);
+        rVal.addDay("20200101", day);
+        return rVal;
+    }
+
+    @Test
+    public void TestRecordAndLoad() throws IOException {
+        RunCheckpoint checkpoint = new RunCheckpoint(home.toString(), Collections.emptyList());
+        assertFalse(checkpoint.isFinished("TK0"));
+        checkpoint.record(result("TK0"));
+        assertTrue(checkpoint.isFinished("TK0"));
+        assertEquals(1, checkpoint.finishedCount());
+
+        TickerResult loaded = checkpoint.load("TK0");
+        assertEquals(new BigDecimal("2000.00"), loaded.getTotals().getBuyDollarVolume());
+        assertFalse(new RunCheckpoint(home.toString(), Collections.singletonList("TK1")).isFinished("TK0"));
+
+        checkpoint.clear();
+        assertFalse(checkpoint.isFinished("TK0"));
+    }
+
+    @Test
+    public void TestResumeSkipsFinishedAndQuarantinesBadFiles() throws Exception {
+        new RunCheckpoint(home.toString(), Collections.emptyList()).record(result("TK0"));
+        Path bad = home.resolve("TK1").resolve("input").resolve("20200103.csv.gz");
+        Files.write(bad, "not gzip".getBytes(StandardCharsets.UTF_8));
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        File log = Files.createTempFile("checkpoint", ".log").toFile();
+        Process main = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "-Dcom.ga.fidelity.trades.home=" + home, Main.class.getName())
+                .redirectErrorStream(true).redirectOutput(log).start();
+        assertTrue(main.waitFor(2, TimeUnit.MINUTES));
+        log.delete();
+
+        // TK0 came from the checkpoint and was not processed again.
+        assertFalse(Files.exists(home.resolve("TK0").resolve("TK0.csv")));
+        assertEquals(2, Files.readAllLines(home.resolve("TK1").resolve("TK1.csv"), Charset.defaultCharset()).size());
+        assertFalse(Files.exists(bad));
+        assertTrue(Files.exists(home.resolve("TK1").resolve(Quarantine.QUARANTINE_DIR).resolve("20200103.csv.gz")));
+        assertTrue(Files.exists(home.resolve(Quarantine.REPORT_FILE_NAME)));
+
+        List<String> portfolio = Files.readAllLines(home.resolve("portfolio.csv"), Charset.defaultCharset());
+        assertTrue(portfolio.stream().anyMatch(line -> line.startsWith("TK0,")));
+        assertTrue(portfolio.stream().anyMatch(line -> line.startsWith("TK1,")));
+        assertFalse(new RunCheckpoint(home.toString(), Collections.emptyList()).isFinished("TK0"));
+    }
+
+    @Test
+    public void TestConcurrentQuarantinesKeepWholeLines() throws Exception {
+        String reason = String.join("", Collections.nCopies(2000, "x"));
+        int threads = 8;
+        int reports = 50;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                // each its own instance, as concurrent analyses of one home have.
+                Quarantine quarantine = new Quarantine(home.toString());
+                String ticker = "TK" + t;
+                done.add(pool.submit(() -> {
+                    for (int i = 0; i < reports; i++) {
+                        quarantine.reportTicker(ticker, new IOException(reason));
+                    }
+                }));
+            }
+            for (Future<?> future : done) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        List<String> lines = Files.readAllLines(home.resolve(Quarantine.REPORT_FILE_NAME), StandardCharsets.UTF_8);
+        assertEquals(threads * reports, lines.size());
+        for (String line : lines) {
+            assertTrue(line.matches("[^,]+,TK\\d,,java.io.IOException: x{2000}"));
+        }
+    }
+}
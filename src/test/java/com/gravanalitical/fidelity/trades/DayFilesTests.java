@@ -0,0 +1,55 @@
+package com.gravanalitical.fidelity.trades;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class DayFilesTests {
+    private Path home;
+    private Path input;
+
+    @Before
+    public void setUp() throws IOException {
+        home = TestHomes.newHome();
+        input = TestHomes.inputDir(home, "TEST");
+        for (String name : new String[]{"20191231.csv", "20200102.csv.gz", "20200103.zip", "20200104.log.gz", "20200105.tgz", "20200110.csv", "notes.txt", "export.csv"}) {
+            Files.createFile(input.resolve(name));
+        }
+        Path january = Files.createDirectories(input.resolve("2020").resolve("01"));
+        Files.createFile(january.resolve("20200106.csv"));
+        Path year = Files.createDirectories(input.resolve("2018"));
+        Files.createFile(year.resolve("20180601.csv"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestHomes.delete(home);
+    }
+
+    private List<String> names(DayFiles dayFiles) throws IOException {
+        return dayFiles.list(input).stream().map(File::getName).collect(Collectors.toList());
+    }
+
+    @Test
+    public void TestRangeAndPartitions() throws IOException {
+        assertEquals(List.of("20180601.csv", "20191231.csv", "20200102.csv.gz", "20200103.zip", "20200106.csv", "20200110.csv", "export.csv"),
+                names(new DayFiles(null, null)));
+        assertEquals(List.of("20200102.csv.gz", "20200103.zip", "20200106.csv"),
+                names(new DayFiles("20200101", "20200107")));
+        assertEquals(List.of("20180601.csv", "20191231.csv"), names(new DayFiles(null, "20191231")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void TestBadDate() {
+        new DayFiles("2020-01-01", null);
+    }
+}
@@ -0,0 +1,114 @@
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.collections.LongHashSet;
+import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class DedupTests {
+    private static final String[] T1 = TestHomes.TRADES[0];
+    private static final String[] T2 = TestHomes.TRADES[1];
+    private static final String[] T3 = TestHomes.TRADES[2];
+    private static final String[] T4 = {"09:30:04", "1.10", "400", "1.09", "1.10"};
+
+    private Path home;
+    private Path input;
+    private GA_FidelityTradesConfig config;
+
+    @Before
+    public void setUp() throws IOException {
+        home = TestHomes.newHome("com.ga.fidelity.trades.dedup.trades=true", "com.ga.fidelity.trades.dedup.files=true",
+                "com.ga.fidelity.trades.parse.parallel.bytes=1");
+        input = TestHomes.inputDir(home, "TEST");
+        config = GA_FidelityTradesConfig.init(home.toString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestHomes.delete(home);
+    }
+
+    private TradeDay day(String fileName, String date, String[]... trades) throws IOException {
+        TradeDay rVal = new TradeDay(TestHomes.writeDay(input, fileName, TestHomes.dayExport(date, trades)), config);
+        rVal.process();
+        return rVal;
+    }
+
+    @Test
+    public void TestLongHashSetMatchesHashSet() {
+        Random random = new Random(32L);
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 200000; i++) {
+            long value = random.nextInt(4) == 0 ? random.nextInt(1000) : random.nextLong();
+            assertEquals(expected.add(value), set.add(value));
+        }
+        assertEquals(expected.size(), set.size());
+        for (int i = -10; i < 2000; i++) {
+            assertEquals(expected.contains((long) i), set.contains(i));
+        }
+    }
+
+    @Test
+    public void TestEqualsComparesAllFields() {
+        TradeRecord a = new TradeRecord("09:30:01", new BigDecimal("1.10"), new BigDecimal("100"), new BigDecimal("1.09"), new BigDecimal("1.10"));
+        TradeRecord b = new TradeRecord("09:30:01", new BigDecimal("1.1"), new BigDecimal("100.0"), new BigDecimal("1.090"), new BigDecimal("1.1"));
+        TradeRecord c = new TradeRecord("09:30:01", new BigDecimal("1.10"), new BigDecimal("200"), new BigDecimal("1.09"), new BigDecimal("1.10"));
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(a.fingerprint(), b.fingerprint());
+        assertNotEquals(a, c);
+        assertNotEquals(a.fingerprint(), c.fingerprint());
+    }
+
+    @Test
+    public void TestOverlappingExports() throws IOException {
+        TradeDedup dedup = new TradeDedup(true, true);
+
+        // repeated trades within a file are real and kept.
+        TradeDay first = day("20200102.csv", "\"Date: 01/02/2020\"", T3, T2, T2, T1);
+        assertFalse(dedup.isDuplicateFile(first));
+        assertEquals(0, dedup.dropDuplicates(first));
+        assertEquals(4, first.getTradeList().size());
+
+        TradeDay overlap = day("20200102-2.csv", "\"Date: 01/02/2020\"", T4, T3, T2);
+        assertFalse(dedup.isDuplicateFile(overlap));
+        assertEquals(2, dedup.dropDuplicates(overlap));
+        assertEquals(1, overlap.getTradeList().size());
+        assertEquals(0, new BigDecimal("400").compareTo(overlap.getVolume()));
+        assertEquals(0, new BigDecimal("400").compareTo(overlap.getBuyVolume()));
+
+        // the same trades on another day are not duplicates.
+        TradeDay nextDay = day("20200103.csv", "\"Date: 01/03/2020\"", T2, T1);
+        assertFalse(dedup.isDuplicateFile(nextDay));
+        assertEquals(0, dedup.dropDuplicates(nextDay));
+
+        TradeDay again = day("20200103-copy.csv", "\"Date: 01/03/2020\"", T2, T1);
+        assertTrue(dedup.isDuplicateFile(again));
+    }
+
+    @Test
+    public void TestDigestCoversTheWholeFile() throws IOException {
+        String export = TestHomes.dayExport("\"Date: 01/02/2020\"", T1, T2);
+        TradeDay day = day("20200102.csv", "\"Date: 01/02/2020\"", T1, T2);
+        TradeDay trailer = new TradeDay(TestHomes.writeDay(input, "20200102-2.csv", export + "\"Downloaded 01/03/2020\"\n"), config);
+        trailer.process();
+        assertNotNull(day.getContentDigest());
+        assertNotEquals(day.getContentDigest(), trailer.getContentDigest());
+        assertEquals(2, trailer.getTradeList().size());
+    }
+}
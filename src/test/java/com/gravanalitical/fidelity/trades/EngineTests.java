@@ -0,0 +1,275 @@
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EngineTests {
+    private Path plainHome;
+    private Path quotesOnHome;
+
+    @Before
+    public void setUp() throws IOException {
+        plainHome = newHome();
+        quotesOnHome = newHome("com.ga.fidelity.trades.output.quotes=true");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestHomes.delete(plainHome);
+        TestHomes.delete(quotesOnHome);
+    }
+
+    private static Path newHome(String... properties) throws IOException {
+        Path home = TestHomes.newHome(properties);
+        for (String ticker : new String[]{"AAA", "BBB"}) {
+            Path input = TestHomes.inputDir(home, ticker);
+            TestHomes.writeDay(input, "20200102.csv", TestHomes.dayExport("\"Date: 01/02/2020\"", TestHomes.TRADES));
+            TestHomes.writeDay(input, "20200103.csv", TestHomes.dayExport("\"Date: 01/03/2020\"", TestHomes.TRADES));
+        }
+        return home;
+    }
+
+    @Test
+    public void TestConcurrentEnginesKeepTheirOwnConfig() throws Exception {
+        TradeAnalysisEngine plain = new TradeAnalysisEngine(GA_FidelityTradesConfig.load(plainHome.toString()));
+        TradeAnalysisEngine quotesOn = new TradeAnalysisEngine(GA_FidelityTradesConfig.load(quotesOnHome.toString()));
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<AnalysisRun>> runs = new ArrayList<>();
+            for (TradeAnalysisEngine engine : new TradeAnalysisEngine[]{plain, quotesOn}) {
+                for (String ticker : new String[]{"AAA", "BBB"}) {
+                    runs.add(pool.submit(() -> engine.analyze(Collections.singletonList(ticker))));
+                }
+            }
+            for (Future<AnalysisRun> future : runs) {
+                AnalysisRun run = future.get();
+                assertTrue(run.getFailures().isEmpty());
+                assertEquals(1, run.getTickers().size());
+                TickerAnalysis ticker = run.getTickers().get(0);
+                assertEquals(2, ticker.getDayCount());
+                assertEquals(0, new BigDecimal("700").compareTo(ticker.getPeriod().getVolume()));
+                assertEquals(0, new BigDecimal("700").compareTo(run.getPortfolio().getTotals().getVolume()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        String plainHeader = Files.readAllLines(plainHome.resolve("AAA").resolve("AAA.csv"), StandardCharsets.UTF_8).get(0);
+        String quotesOnHeader = Files.readAllLines(quotesOnHome.resolve("AAA").resolve("AAA.csv"), StandardCharsets.UTF_8).get(0);
+        assertFalse(plainHeader.contains("\"Avg Spread\""));
+        assertTrue(quotesOnHeader.contains("\"Avg Spread\""));
+        assertFalse(plainHeader.contains("\"Size P50\""));
+    }
+
+    @Test
+    public void TestMissingTickerFails() {
+        TradeAnalysisEngine engine = new TradeAnalysisEngine(GA_FidelityTradesConfig.load(plainHome.toString()));
+        AnalysisRun run = engine.analyze(Arrays.asList("AAA", "NONE"));
+        assertEquals(1, run.getTickers().size());
+        assertTrue(run.getFailures().containsKey("NONE"));
+    }
+
+    @Test
+    public void TestDayCache() throws IOException {
+        Path home = TestHomes.newHome("com.ga.fidelity.trades.cache.bytes=" + 3 * TradeDayCache.DAY_BYTES);
+        try {
+            Path input = TestHomes.inputDir(home, "AAA");
+            TestHomes.writeDay(input, "20200102.csv", TestHomes.dayExport("\"Date: 01/02/2020\"", TestHomes.TRADES));
+            TestHomes.writeDay(input, "20200103.csv", TestHomes.dayExport("\"Date: 01/03/2020\"",
+                    TestHomes.TRADES[0], new String[]{"09:31:00", "1.10", "500", "1.09", "1.10"}));
+            TradeAnalysisEngine engine = new TradeAnalysisEngine(GA_FidelityTradesConfig.load(home.toString()));
+            TickerAnalysis first = engine.analyzeTicker("AAA");
+            TickerAnalysis second = engine.analyzeTicker("AAA");
+            assertEquals(0, new BigDecimal("950").compareTo(first.getPeriod().getVolume()));
+            assertEquals(first.getPeriod().getVolume(), second.getPeriod().getVolume());
+            assertEquals(first.getPeriod().getBuyDollarVolume(), second.getPeriod().getBuyDollarVolume());
+            assertEquals(2, engine.getDayCache().getHits());
+            assertEquals(2, engine.getDayCache().getMisses());
+
+            TestHomes.writeDay(input, "20200106.csv", TestHomes.dayExport("\"Date: 01/06/2020\"", TestHomes.TRADES));
+            engine.analyzeTicker("AAA");
+            assertEquals(1, engine.getDayCache().getEvictions());
+            assertEquals(2, engine.getDayCache().size());
+        } finally {
+            TestHomes.delete(home);
+        }
+    }
+
+    @Test
+    public void TestTickerSchedulerMatchesSequential() throws IOException {
+        Path sequential = TestHomes.newHome();
+        Path scheduled = TestHomes.newHome("com.ga.fidelity.trades.ticker.workers=3");
+        List<String> tickers = Arrays.asList("AAA", "BIG", "BBB", "NONE", "CCC");
+        try {
+            for (Path home : new Path[]{sequential, scheduled}) {
+                for (String ticker : new String[]{"AAA", "BIG", "BBB", "CCC"}) {
+                    Path input = TestHomes.inputDir(home, ticker);
+                    int days = "BIG".equals(ticker) ? 30 : 2;
+                    for (int day = 1; day <= days; day++) {
+                        String[] trade = {"09:31:00", "1.10", String.valueOf(100 * day), "1.09", "1.10"};
+                        TestHomes.writeDay(input, String.format("202001%02d.csv", day),
+                                TestHomes.dayExport(String.format("\"Date: 01/%02d/2020\"", day), TestHomes.TRADES[0], trade));
+                    }
+                }
+            }
+            TradeAnalysisEngine scheduledEngine = new TradeAnalysisEngine(GA_FidelityTradesConfig.load(scheduled.toString()));
+            assertEquals(Arrays.asList("BIG", "AAA", "BBB", "CCC", "NONE"),
+                    TickerScheduler.largestFirst(scheduledEngine.estimateWork(tickers)));
+
+            AnalysisRun expected = new TradeAnalysisEngine(GA_FidelityTradesConfig.load(sequential.toString())).analyze(tickers);
+            AnalysisRun actual = scheduledEngine.analyze(tickers);
+            assertEquals(expected.getFailures().keySet(), actual.getFailures().keySet());
+            assertEquals(expected.getTickers().size(), actual.getTickers().size());
+            for (int i = 0; i < expected.getTickers().size(); i++) {
+                TickerAnalysis expectedTicker = expected.getTickers().get(i);
+                TickerAnalysis actualTicker = actual.getTickers().get(i);
+                String ticker = expectedTicker.getResult().getTicker();
+                assertEquals(ticker, actualTicker.getResult().getTicker());
+                assertEquals(expectedTicker.getDayCount(), actualTicker.getDayCount());
+                assertEquals(Files.readAllLines(sequential.resolve(ticker).resolve(ticker + ".csv"), StandardCharsets.UTF_8),
+                        Files.readAllLines(scheduled.resolve(ticker).resolve(ticker + ".csv"), StandardCharsets.UTF_8));
+            }
+            assertEquals(expected.getPortfolio().getTotals().getDollarVolume(), actual.getPortfolio().getTotals().getDollarVolume());
+        } finally {
+            TestHomes.delete(sequential);
+            TestHomes.delete(scheduled);
+        }
+    }
+
+    @Test
+    public void TestMemoryBudgetSpillsTrades() throws IOException {
+        for (String include : new String[]{"true", "false"}) {
+            Path unbounded = newHome("com.ga.fidelity.trades.include=" + include, "com.ga.fidelity.trades.input.workers=2");
+            Path bounded = newHome("com.ga.fidelity.trades.include=" + include, "com.ga.fidelity.trades.input.workers=2",
+                    "com.ga.fidelity.trades.memory.bytes=1");
+            try {
+                new TradeAnalysisEngine(GA_FidelityTradesConfig.load(unbounded.toString())).analyze(Arrays.asList("AAA", "BBB"));
+                TradeAnalysisEngine engine = new TradeAnalysisEngine(GA_FidelityTradesConfig.load(bounded.toString()));
+                AnalysisRun run = engine.analyze(Arrays.asList("AAA", "BBB"));
+                assertTrue(run.getFailures().isEmpty());
+
+                MemoryGovernor memory = engine.getMemoryGovernor();
+                assertEquals(0L, memory.getReserved());
+                assertEquals(4L, "true".equals(include) ? memory.getSpilledDays() : memory.getDroppedDays());
+                // the run files and the engine's folder for them are gone once the tickers are done.
+                assertNull(memory.getSpillDir());
+                Path spillRoot = bounded.resolve(".spill");
+                assertEquals("true".equals(include), Files.isDirectory(spillRoot));
+                if (Files.isDirectory(spillRoot)) {
+                    try (Stream<Path> left = Files.list(spillRoot)) {
+                        assertEquals(0L, left.count());
+                    }
+                }
+                for (String file : new String[]{"summary.txt", "AAA.csv"}) {
+                    assertEquals(file, Files.readAllLines(unbounded.resolve("AAA").resolve(file), StandardCharsets.UTF_8),
+                            Files.readAllLines(bounded.resolve("AAA").resolve(file), StandardCharsets.UTF_8));
+                }
+            } finally {
+                TestHomes.delete(unbounded);
+                TestHomes.delete(bounded);
+            }
+        }
+    }
+
+    @Test
+    public void TestFlightRecorderEvents() throws IOException {
+        Path input = TestHomes.inputDir(plainHome, "AAA");
+        TestHomes.writeDay(input, "20200106.csv", TestHomes.dayExport("\"Date: 01/06/2020\"",
+                TestHomes.TRADES[0], new String[]{"09:31:00", "not a price", "500", "1.09", "1.10"}));
+        Path dump = Files.createTempFile("engine", ".jfr");
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            for (String name : new String[]{"fidelity.trades.Ticker", "fidelity.trades.DayParse",
+                    "fidelity.trades.DayAggregate", "fidelity.trades.DayFormat"}) {
+                recording.enable(name);
+            }
+            recording.start();
+            new TradeAnalysisEngine(GA_FidelityTradesConfig.load(plainHome.toString())).analyzeTicker("AAA");
+            recording.stop();
+            recording.dump(dump);
+            events = RecordingFile.readAllEvents(dump);
+        } finally {
+            Files.deleteIfExists(dump);
+        }
+
+        RecordedEvent ticker = only(events, "fidelity.trades.Ticker", null);
+        assertEquals("AAA", ticker.getString("ticker"));
+        assertEquals(3, ticker.getInt("days"));
+        assertEquals(7L, ticker.getLong("trades"));
+        assertEquals(1L, ticker.getLong("errors"));
+        assertFalse(ticker.getBoolean("failed"));
+        for (String name : new String[]{"fidelity.trades.DayParse", "fidelity.trades.DayAggregate", "fidelity.trades.DayFormat"}) {
+            RecordedEvent day = only(events, name, "20200106.csv");
+            assertEquals(2L, day.getLong("lines"));
+            assertEquals(1L, day.getLong("trades"));
+            assertEquals(1L, day.getLong("errors"));
+            assertEquals(input.resolve("20200106.csv").toFile().length(), day.getLong("bytes"));
+        }
+    }
+
+    @Test
+    public void TestFlightRecorderEventOfFailedFile() throws IOException {
+        Path input = TestHomes.inputDir(plainHome, "AAA");
+        File broken = TestHomes.writeDay(input, "20200106.csv.gz", "not compressed");
+        Path dump = Files.createTempFile("engine", ".jfr");
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable("fidelity.trades.DayParse");
+            recording.start();
+            try {
+                new TradeDay(broken, GA_FidelityTradesConfig.load(plainHome.toString())).process();
+                fail("a file that is not gzip cannot be read");
+            } catch (IOException e) {
+                // expected
+            }
+            recording.stop();
+            recording.dump(dump);
+            events = RecordingFile.readAllEvents(dump);
+        } finally {
+            Files.deleteIfExists(dump);
+        }
+        RecordedEvent day = only(events, "fidelity.trades.DayParse", "20200106.csv.gz");
+        assertEquals(broken.length(), day.getLong("bytes"));
+        assertEquals(0L, day.getLong("trades"));
+    }
+
+    /**
+     * @param pFile the file field to match, null for any
+     */
+    private static RecordedEvent only(List<RecordedEvent> pEvents, String pName, String pFile) {
+        RecordedEvent rVal = null;
+        for (RecordedEvent event : pEvents) {
+            if (event.getEventType().getName().equals(pName) && (null == pFile || pFile.equals(event.getString("file")))) {
+                assertEquals(pName + " " + pFile, null, rVal);
+                rVal = event;
+            }
+        }
+        assertTrue(pName + " " + pFile, null != rVal);
+        return rVal;
+    }
+}
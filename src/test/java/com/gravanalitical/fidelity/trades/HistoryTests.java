@@ -0,0 +1,231 @@
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
+import com.gravanalitical.fidelity.trades.history.SentimentKernel;
+import com.gravanalitical.fidelity.trades.history.SentimentSums;
+import com.gravanalitical.fidelity.trades.history.TradeHistory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class HistoryTests {
+    private Path home;
+
+    @Before
+    public void setUp() throws IOException {
+        home = TestHomes.newHome();
+        Path input = TestHomes.inputDir(home, "AAA");
+        TestHomes.writeDay(input, "20200102.csv", TestHomes.dayExport("\"Date: 01/02/2020\"", TestHomes.TRADES));
+        TestHomes.writeDay(input, "20200103.csv", TestHomes.dayExport("\"Date: 01/03/2020\"", TestHomes.TRADES));
+        String[][] many = new String[TradeHistory.SEGMENT_ROWS + 10][];
+        for (int i = 0; i < many.length; i++) {
+            many[i] = new String[]{String.format("%d:%02d:%02d", 9 + i / 3600, i / 60 % 60, i % 60), "2.00", "1", "1.99", "2.01"};
+        }
+        TestHomes.writeDay(TestHomes.inputDir(home, "BBB"), "20200106.csv", TestHomes.dayExport("\"Date: 01/06/2020\"", many));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestHomes.delete(home);
+    }
+
+    @Test
+    public void TestCursorReadsRange() throws IOException {
+        TradeHistory history = new TradeHistory();
+        TradeAnalysisEngine engine = new TradeAnalysisEngine(GA_FidelityTradesConfig.load(home.toString()));
+        history.load(engine, "AAA");
+        history.load(engine, "BBB");
+        assertEquals(6, history.getTradeCount("AAA"));
+        assertEquals(TradeHistory.SEGMENT_ROWS + 10, history.getTradeCount("BBB"));
+
+        TradeHistory.Cursor day = history.cursor("AAA", 20200103, 20200105);
+        assertEquals(3, day.remaining());
+        assertTrue(day.next());
+        assertEquals(20200103, day.getDate());
+        assertEquals(9 * 3600 + 30 * 60 + 1, day.getSeconds());
+        assertEquals(1100000L, day.getPrice());
+        assertEquals(0, new BigDecimal("1.09").compareTo(TradeHistory.fromFixed(day.getBid())));
+        assertEquals(100L, day.getSize());
+        assertEquals(TradeRecord.BuySell.BUY, day.getSentiment());
+        assertTrue(day.next());
+        assertEquals(TradeRecord.BuySell.SELL, day.getSentiment());
+        assertTrue(day.next());
+        assertEquals(1095000L, day.getPrice());
+        assertFalse(day.next());
+
+        long shares = 0L;
+        TradeHistory.Cursor all = history.cursor("BBB", 0, 99999999);
+        while (all.next()) {
+            assertEquals(2000000L, all.getPrice());
+            shares += all.getSize();
+        }
+        assertEquals(TradeHistory.SEGMENT_ROWS + 10, shares);
+        assertFalse(history.cursor("BBB", 20200101, 20200105).next());
+        assertFalse(history.cursor("CCC", 0, 99999999).next());
+    }
+
+    @Test
+    public void TestAggregateMatchesDayTotals() throws IOException {
+        Random random = new Random(45L);
+        String[][] trades = new String[5000][];
+        int cents = 1000;
+        for (int i = 0; i < trades.length; i++) {
+            cents = Math.max(1, cents + random.nextInt(3) - 1);
+            int bid = cents - random.nextInt(2);
+            int ask = bid + random.nextInt(3);
+            boolean noQuote = random.nextInt(10) == 0;
+            trades[i] = new String[]{String.format("10:%02d:%02d", i / 60 % 60, i % 60), BigDecimal.valueOf(cents, 2).toPlainString(),
+                    String.valueOf(1 + random.nextInt(900)), noQuote ? "" : BigDecimal.valueOf(bid, 2).toPlainString(),
+                    noQuote ? "" : BigDecimal.valueOf(ask, 2).toPlainString()};
+        }
+        TestHomes.writeDay(TestHomes.inputDir(home, "CCC"), "20200107.csv", TestHomes.dayExport("\"Date: 01/07/2020\"", trades));
+        GA_FidelityTradesConfig config = GA_FidelityTradesConfig.load(home.toString());
+        TradeHistory history = new TradeHistory();
+        history.load(new TradeAnalysisEngine(config), "CCC");
+        TradeDay day = new TradeDay(home.resolve("CCC").resolve("input").resolve("20200107.csv").toFile(), config);
+        day.process();
+
+        SentimentSums sums = history.aggregate("CCC", 20200101, 20201231);
+        assertEquals(0, BigDecimal.valueOf(sums.getVolume()).compareTo(day.getVolume()));
+        assertEquals(0, BigDecimal.valueOf(sums.getBuyVolume()).compareTo(day.getBuyVolume()));
+        assertEquals(0, BigDecimal.valueOf(sums.getSellVolume()).compareTo(day.getSellVolume()));
+        assertEquals(0, BigDecimal.valueOf(sums.getUnknownVolume()).compareTo(day.getUnknownVolume()));
+        assertEquals(0, sums.getBuyDollarVolume().compareTo(day.getBuyDollarVolume()));
+        assertEquals(0, sums.getSellDollarVolume().compareTo(day.getSellDollarVolume()));
+        assertEquals(0, sums.getUnknownDollarVolume().compareTo(day.getUnknownDollarVolume()));
+        assertEquals(0, history.aggregate("CCC", 20200108, 20201231).getVolume());
+    }
+
+    /**
+     * Prices written with fewer or more decimals than the quote classify the same in the history as in the day.
+     * A locked quote with different decimals does not, see ScalarSentimentKernel.
+     */
+    @Test
+    public void TestAggregateMatchesDayOnMixedDecimals() throws IOException {
+        String[][] trades = {
+                {"10:00:01", "1.1", "100", "1.10", "1.12"},
+                {"10:00:02", "1.120", "200", "1.1", "1.12"},
+                {"10:00:03", "1.11", "300", "1.1", "1.120"},
+                {"10:00:04", "1.2", "400", "1.19", "1.2000"}
+        };
+        TestHomes.writeDay(TestHomes.inputDir(home, "DDD"), "20200108.csv", TestHomes.dayExport("\"Date: 01/08/2020\"", trades));
+        GA_FidelityTradesConfig config = GA_FidelityTradesConfig.load(home.toString());
+        TradeHistory history = new TradeHistory();
+        history.load(new TradeAnalysisEngine(config), "DDD");
+        TradeDay day = new TradeDay(home.resolve("DDD").resolve("input").resolve("20200108.csv").toFile(), config);
+        day.process();
+
+        SentimentSums sums = history.aggregate("DDD", 20200101, 20201231);
+        assertEquals(0, BigDecimal.valueOf(sums.getBuyVolume()).compareTo(day.getBuyVolume()));
+        assertEquals(0, BigDecimal.valueOf(sums.getSellVolume()).compareTo(day.getSellVolume()));
+        assertEquals(0, BigDecimal.valueOf(sums.getUnknownVolume()).compareTo(day.getUnknownVolume()));
+        assertEquals(0, sums.getBuyDollarVolume().compareTo(day.getBuyDollarVolume()));
+        assertEquals(0, sums.getSellDollarVolume().compareTo(day.getSellDollarVolume()));
+    }
+
+    @Test
+    public void TestFailedLoadIsRolledBack() throws IOException {
+        String[][] many = new String[TradeHistory.SEGMENT_ROWS][];
+        for (int i = 0; i < many.length; i++) {
+            many[i] = new String[]{String.format("%d:%02d:%02d", 9 + i / 3600, i / 60 % 60, i % 60), "2.00", "1", "1.99", "2.01"};
+        }
+        Path input = TestHomes.inputDir(home, "EEE");
+        TestHomes.writeDay(input, "20200102.csv", TestHomes.dayExport("\"Date: 01/02/2020\"", many));
+        String[][] huge = {{"09:30:01", "1000.00", "99999999999999999", "999.99", "1000.01"}};
+        TestHomes.writeDay(input, "20200103.csv", TestHomes.dayExport("\"Date: 01/03/2020\"", huge));
+
+        TradeHistory history = new TradeHistory();
+        TradeAnalysisEngine engine = new TradeAnalysisEngine(GA_FidelityTradesConfig.load(home.toString()));
+        history.load(engine, "AAA");
+        long offHeap = history.getOffHeapBytes();
+        try {
+            history.load(engine, "EEE");
+            fail("the size overflows the price times size");
+        } catch (ArithmeticException expected) {
+            // the second day of EEE cannot be stored.
+        }
+        assertEquals(6, history.size());
+        assertEquals(0, history.getTradeCount("EEE"));
+        assertEquals(offHeap, history.getOffHeapBytes());
+
+        history.load(engine, "BBB");
+        assertEquals(TradeHistory.SEGMENT_ROWS + 10, history.getTradeCount("BBB"));
+        TradeHistory.Cursor day = history.cursor("AAA", 20200102, 20200103);
+        assertEquals(6, day.remaining());
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void TestSumsDoNotWrapAround() {
+        long[] price = {1_000_000L};
+        long[] size = {Long.MAX_VALUE / 1_000_000L};
+        long[] quote = {0L};
+        SentimentSums sums = new SentimentSums();
+        SentimentKernel.aggregate(price, size, quote, quote, 0, 1, sums);
+        assertTrue(sums.getDollarVolume().signum() > 0);
+        SentimentKernel.aggregate(price, size, quote, quote, 0, 1, sums);
+    }
+
+    /**
+     * The vector kernel is only in the Java 17 part of the multi-release output. The history package is loaded
+     * again from there, the kernel needs package access to the sums.
+     */
+    @Test
+    public void TestVectorKernelMatchesScalar() throws Exception {
+        Path classes = Paths.get(SentimentKernel.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        Path versions = classes.resolve("META-INF").resolve("versions").resolve("17");
+        assumeTrue(versions.toFile().isDirectory() && null != ModuleLayer.boot().findModule("jdk.incubator.vector").orElse(null));
+
+        Random random = new Random(17L);
+        int count = 10_007;
+        long[] prices = new long[count];
+        long[] sizes = new long[count];
+        long[] bids = new long[count];
+        long[] asks = new long[count];
+        for (int i = 0; i < count; i++) {
+            bids[i] = random.nextInt(8) == 0 ? 0L : 1_000_000L + 10_000L * random.nextInt(5);
+            asks[i] = random.nextInt(8) == 0 ? bids[i] : bids[i] + 10_000L * random.nextInt(3);
+            prices[i] = 990_000L + 10_000L * random.nextInt(8);
+            sizes[i] = 1 + random.nextInt(5000);
+        }
+        String history = SentimentKernel.class.getPackage().getName() + ".";
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{versions.toUri().toURL(), classes.toUri().toURL()}, getClass().getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String pName, boolean pResolve) throws ClassNotFoundException {
+                if (!pName.startsWith(history)) {
+                    return super.loadClass(pName, pResolve);
+                }
+                synchronized (getClassLoadingLock(pName)) {
+                    Class<?> rVal = findLoadedClass(pName);
+                    return null != rVal ? rVal : findClass(pName);
+                }
+            }
+        }) {
+            Class<?> sums = loader.loadClass(history + "SentimentSums");
+            Method vector = loader.loadClass(history + "VectorSentimentKernel").getDeclaredMethod("aggregate",
+                    long[].class, long[].class, long[].class, long[].class, int.class, int.class, sums);
+            vector.setAccessible(true);
+            for (int[] range : new int[][]{{0, count}, {3, count - 5}, {11, 12}, {7, 7}}) {
+                SentimentSums expected = new SentimentSums();
+                SentimentKernel.aggregate(prices, sizes, bids, asks, range[0], range[1], expected);
+                Object actual = sums.getConstructor().newInstance();
+                vector.invoke(null, prices, sizes, bids, asks, range[0], range[1], actual);
+                assertEquals(expected.toString(), actual.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+/**
+ * End to end benchmark of the whole Main pipeline, run by the macrobench profile:
+ * <pre>
+ * mvn -Pmacrobench verify
+ * </pre>
+ * Each scale is a home directory generated from a fixed seed under target/macrobench. Main runs over it in a
+ * JVM of its own, the median of the runs is compared with src/macrobench/baseline.properties and the outputs
+ * with the digests in src/macrobench/golden.properties. The build fails when a number is further off its
+ * baseline than the threshold or an output file is not byte for byte the same.
+ *
+ * -Dmacrobench.scales=t10-1k,t100-1k picks scales, -Dmacrobench.record=true writes the baseline and the
+ * digests from this machine instead of checking them. A change that is meant to change the output records
+ * new digests with it.
+ */
+public class MacroBenchmark {
+    private static final String RUN = "--run";
+
+    static final String BASELINE_FILE = "baseline.properties";
+    static final String GOLDEN_FILE = "golden.properties";
+
+    /**
+     * The generated data only changes with this, homes of another version are generated again.
+     */
+    private static final String GENERATOR_VERSION = "1";
+    private static final String GENERATED_MARKER = ".generated";
+
+    /**
+     * Differences below these are noise whatever the threshold.
+     */
+    private static final long WALL_SLACK_MILLIS = 250L;
+    private static final long GC_SLACK_MILLIS = 50L;
+    private static final long RSS_SLACK_KB = 32L * 1024L;
+
+    static final class Scale {
+        final String name;
+        final int tickers;
+        final int days;
+        final int tradesPerDay;
+
+        Scale(String pName, int pTickers, int pDays, int pTradesPerDay) {
+            name = pName;
+            tickers = pTickers;
+            days = pDays;
+            tradesPerDay = pTradesPerDay;
+        }
+
+        int files() {
+            return tickers * days;
+        }
+    }
+
+    static final Scale[] SCALES = {
+            new Scale("t10-1k", 10, 5, 1_000),
+            new Scale("t100-1k", 100, 5, 1_000),
+            new Scale("t1000-1k", 1000, 2, 1_000),
+            new Scale("t10-100k", 10, 2, 100_000),
+            new Scale("t10-1m", 10, 1, 1_000_000)
+    };
+
+    /**
+     * The median of the runs of one scale.
+     */
+    static final class Result {
+        long wallMillis;
+        long gcMillis;
+        long peakRssKb;
+        double filesPerSecond;
+    }
+
+    /**
+     * @param args the src/macrobench folder, the work folder and the fidelity.properties to run with,
+     *             or --run and the file a single measured run writes its numbers to
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && RUN.equals(args[0])) {
+            measureRun(Paths.get(args[1]));
+            return;
+        }
+        Path benchDir = Paths.get(args[0]);
+        Path workDir = Paths.get(args[1]);
+        Path properties = Paths.get(args[2]);
+        double threshold = Double.parseDouble(System.getProperty("macrobench.threshold", "0.25"));
+        int runs = Integer.parseInt(System.getProperty("macrobench.runs", "3"));
+        boolean record = Boolean.parseBoolean(System.getProperty("macrobench.record", "false"));
+        String heap = System.getProperty("macrobench.heap", "2g");
+        List<String> selected = Arrays.asList(System.getProperty("macrobench.scales", "").split(","));
+
+        Properties baseline = load(benchDir.resolve(BASELINE_FILE));
+        Properties golden = load(benchDir.resolve(GOLDEN_FILE));
+        List<String> failures = new ArrayList<>();
+        for (Scale scale : SCALES) {
+            if (!selected.contains(scale.name) && !(selected.size() == 1 && selected.get(0).isEmpty())) {
+                continue;
+            }
+            Path home = workDir.resolve(scale.name);
+            generate(scale, home, properties);
+            Result result = measure(scale, home, workDir, runs, heap);
+            String digest = digestOutputs(home, workDir.resolve(scale.name + ".sha256"));
+            System.out.printf("%-10s %8d ms wall %6d ms gc %8d KB peak rss %8.2f files/s%n", scale.name,
+                    result.wallMillis, result.gcMillis, result.peakRssKb, result.filesPerSecond);
+            if (record) {
+                baseline.setProperty(scale.name + ".wallMillis", String.valueOf(result.wallMillis));
+                baseline.setProperty(scale.name + ".gcMillis", String.valueOf(result.gcMillis));
+                baseline.setProperty(scale.name + ".peakRssKb", String.valueOf(result.peakRssKb));
+                baseline.setProperty(scale.name + ".filesPerSecond", String.format(Locale.ROOT, "%.3f", result.filesPerSecond));
+                golden.setProperty(scale.name, digest);
+            } else {
+                compare(scale, result, baseline, threshold, failures);
+                String expected = golden.getProperty(scale.name);
+                if (null == expected) {
+                    failures.add(scale.name + " has no golden digest, record one with -Dmacrobench.record=true");
+                } else if (!expected.equals(digest)) {
+                    failures.add(scale.name + " output differs from the golden files, see " + workDir.resolve(scale.name + ".sha256"));
+                }
+            }
+        }
+        if (record) {
+            store(baseline, benchDir.resolve(BASELINE_FILE), "macro benchmark baseline, mvn -Pmacrobench verify -Dmacrobench.record=true");
+            store(golden, benchDir.resolve(GOLDEN_FILE), "SHA-256 over the output files of each scale, see MacroBenchmark");
+        }
+        for (String failure : failures) {
+            System.out.println("REGRESSION " + failure);
+        }
+        System.exit(failures.isEmpty() ? 0 : 1);
+    }
+
+    private static void compare(Scale pScale, Result pResult, Properties pBaseline, double pThreshold, List<String> pFailures) {
+        checkUpper(pScale.name + ".wallMillis", pResult.wallMillis, pBaseline, pThreshold, WALL_SLACK_MILLIS, pFailures);
+        checkUpper(pScale.name + ".gcMillis", pResult.gcMillis, pBaseline, pThreshold, GC_SLACK_MILLIS, pFailures);
+        if (pResult.peakRssKb >= 0) {
+            checkUpper(pScale.name + ".peakRssKb", pResult.peakRssKb, pBaseline, pThreshold, RSS_SLACK_KB, pFailures);
+        }
+        // derived from the wall time, so the same slack applies.
+        String key = pScale.name + ".filesPerSecond";
+        String expected = pBaseline.getProperty(key);
+        long baseWall = Long.parseLong(pBaseline.getProperty(pScale.name + ".wallMillis", "0"));
+        if (null == expected) {
+            pFailures.add(key + " has no baseline");
+        } else if (pResult.filesPerSecond * (1.0 + pThreshold) < Double.parseDouble(expected)
+                && pResult.wallMillis - baseWall > WALL_SLACK_MILLIS) {
+            pFailures.add(key + " " + pResult.filesPerSecond + ", baseline " + expected);
+        }
+    }
+
+    private static void checkUpper(String pKey, long pActual, Properties pBaseline, double pThreshold, long pSlack, List<String> pFailures) {
+        String expected = pBaseline.getProperty(pKey);
+        if (null == expected) {
+            pFailures.add(pKey + " has no baseline");
+            return;
+        }
+        long base = Long.parseLong(expected);
+        if (pActual > base * (1.0 + pThreshold) && pActual - base > pSlack) {
+            pFailures.add(pKey + " " + pActual + ", baseline " + base);
+        }
+    }
+
+    /**
+     * Writes the home directory of a scale unless it is already there from the same generator.
+     */
+    static void generate(Scale pScale, Path pHome, Path pProperties) throws IOException {
+        String marker = GENERATOR_VERSION + " " + pScale.tickers + " " + pScale.days + " " + pScale.tradesPerDay;
+        Path markerFile = pHome.resolve(GENERATED_MARKER);
+        if (Files.exists(markerFile) && marker.equals(new String(Files.readAllBytes(markerFile), StandardCharsets.UTF_8))) {
+            Files.copy(pProperties, pHome.resolve("fidelity.properties"), StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        if (Files.exists(pHome)) {
+            TestHomes.delete(pHome);
+        }
+        Files.createDirectories(pHome);
+        Files.copy(pProperties, pHome.resolve("fidelity.properties"));
+        for (int t = 0; t < pScale.tickers; t++) {
+            String ticker = String.format("T%04d", t);
+            Path input = TestHomes.inputDir(pHome, ticker);
+            Random random = new Random(31L * t + pScale.tradesPerDay);
+            int cents = 500 + random.nextInt(10_000);
+            for (int d = 0; d < pScale.days; d++) {
+                // weekdays from Thursday, January 2nd 2020.
+                int dayOfMonth = 2 + d + 2 * ((d + 2) / 5);
+                String dayKey = String.format("202001%02d", dayOfMonth);
+                cents = writeDay(input.resolve(dayKey + "." + GA_FidelityTradesConfig.CSV_FILE_EXTENSION), ticker,
+                        String.format("\"Date: 01/%02d/2020\"", dayOfMonth), pScale.tradesPerDay, cents, random);
+            }
+        }
+        Files.write(markerFile, marker.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A day shaped like the export, newest trade first, prices in a random walk around the quotes.
+     * @return the last price, in cents, for the next day to start from
+     */
+    private static int writeDay(Path pFile, String pTicker, String pDate, int pTrades, int pCents, Random pRandom) throws IOException {
+        int cents = pCents;
+        try (BufferedWriter out = Files.newBufferedWriter(pFile, StandardCharsets.UTF_8)) {
+            out.write("\"Time & Sales\"\n\"" + pTicker + "\"\n" + pDate + "\n");
+            for (int i = 3; i < 9; i++) {
+                out.write("\"\"\n");
+            }
+            out.write("\"Time\",\"Last Price\",\"Last Size\",\"Bid Price\",\"Ask Price\",\n");
+            int open = 9 * 3600 + 30 * 60;
+            int session = 6 * 3600 + 30 * 60;
+            for (int i = 0; i < pTrades; i++) {
+                cents = Math.max(1, cents + pRandom.nextInt(3) - 1);
+                int bid = cents - pRandom.nextInt(2);
+                int ask = bid + 1 + pRandom.nextInt(2);
+                boolean noQuote = pRandom.nextInt(20) == 0;
+                int time = open + session - 1 - (int) ((long) i * session / pTrades);
+                out.write(String.format("\"%d:%02d:%02d\",\"%s\",\"%d\",\"%s\",\"%s\",%n", time / 3600, time / 60 % 60, time % 60,
+                        dollars(cents), 100 * (1 + pRandom.nextInt(50)), noQuote ? "" : dollars(bid), noQuote ? "" : dollars(ask)));
+            }
+            out.write(TestHomes.TERMINATOR + "\n");
+        }
+        return cents;
+    }
+
+    private static String dollars(int pCents) {
+        return pCents / 100 + "." + (pCents % 100 < 10 ? "0" : "") + pCents % 100;
+    }
+
+    /**
+     * Runs Main over the home in a new JVM each time.
+     */
+    private static Result measure(Scale pScale, Path pHome, Path pWorkDir, int pRuns, String pHeap) throws IOException, InterruptedException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < pRuns; i++) {
+            Path resultFile = pWorkDir.resolve(pScale.name + ".result");
+            Files.deleteIfExists(resultFile);
+            Process process = new ProcessBuilder(java, "-Xms" + pHeap, "-Xmx" + pHeap,
+                    "-Duser.language=en", "-Duser.country=US",
+                    "-D" + GA_FidelityTradesConfig.PropertyConstants.HOME_KEY + "=" + pHome,
+                    "-cp", System.getProperty("java.class.path"),
+                    MacroBenchmark.class.getName(), RUN, resultFile.toString())
+                    .redirectErrorStream(true)
+                    .redirectOutput(pWorkDir.resolve(pScale.name + ".log").toFile())
+                    .start();
+            if (process.waitFor() != 0 || !Files.exists(resultFile)) {
+                throw new IllegalStateException(pScale.name + " run failed, see " + pWorkDir.resolve(pScale.name + ".log"));
+            }
+            String[] fields = new String(Files.readAllBytes(resultFile), StandardCharsets.UTF_8).trim().split(" ");
+            Result result = new Result();
+            result.wallMillis = Long.parseLong(fields[0]);
+            result.gcMillis = Long.parseLong(fields[1]);
+            result.peakRssKb = Long.parseLong(fields[2]);
+            result.filesPerSecond = pScale.files() * 1000.0 / Math.max(1L, result.wallMillis);
+            results.add(result);
+        }
+        Result rVal = new Result();
+        rVal.wallMillis = median(results, r -> r.wallMillis);
+        rVal.gcMillis = median(results, r -> r.gcMillis);
+        rVal.peakRssKb = median(results, r -> r.peakRssKb);
+        rVal.filesPerSecond = pScale.files() * 1000.0 / Math.max(1L, rVal.wallMillis);
+        return rVal;
+    }
+
+    private static long median(List<Result> pResults, ToLongFunction<Result> pMetric) {
+        long[] values = pResults.stream().mapToLong(pMetric).sorted().toArray();
+        return values[values.length / 2];
+    }
+
+    /**
+     * The measured side: processes every ticker of the home and writes wall millis, GC millis and peak RSS in KB.
+     */
+    private static void measureRun(Path pResultFile) throws IOException {
+        long gcBefore = gcMillis();
+        long start = System.nanoTime();
+        Main.main(new String[]{Main.RESTART_OPTION});
+        long wall = (System.nanoTime() - start) / 1_000_000L;
+        String result = wall + " " + (gcMillis() - gcBefore) + " " + peakRssKb();
+        Files.write(pResultFile, result.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long gcMillis() {
+        long rVal = 0L;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            rVal += Math.max(0L, gc.getCollectionTime());
+        }
+        return rVal;
+    }
+
+    /**
+     * @return the high water mark of the resident set, -1 where /proc is not there to read it
+     */
+    private static long peakRssKb() throws IOException {
+        Path status = Paths.get("/proc/self/status");
+        if (!Files.exists(status)) {
+            return -1L;
+        }
+        for (String line : Files.readAllLines(status, StandardCharsets.UTF_8)) {
+            if (line.startsWith("VmHWM:")) {
+                return Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim());
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * Digests every output file of the home, the per-ticker files and the portfolio, and lists them in pListing.
+     * @return the SHA-256 over the sorted list of file names and their digests
+     */
+    static String digestOutputs(Path pHome, Path pListing) throws IOException {
+        List<Path> outputs = new ArrayList<>();
+        outputs.add(pHome.resolve(Main.PORTFOLIO_FILE_NAME));
+        try (Stream<Path> tickers = Files.list(pHome)) {
+            for (Path ticker : (Iterable<Path>) tickers.filter(Files::isDirectory)::iterator) {
+                try (Stream<Path> files = Files.list(ticker)) {
+                    files.filter(Files::isRegularFile).forEach(outputs::add);
+                }
+            }
+        }
+        List<String> lines = new ArrayList<>();
+        for (Path output : outputs) {
+            lines.add(pHome.relativize(output).toString().replace(File.separatorChar, '/') + " " + digest(output));
+        }
+        Collections.sort(lines);
+        Files.write(pListing, lines, StandardCharsets.UTF_8);
+        MessageDigest md = sha256();
+        for (String line : lines) {
+            md.update((line + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return hex(md.digest());
+    }
+
+    private static String digest(Path pFile) throws IOException {
+        MessageDigest md = sha256();
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(pFile)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        }
+        return hex(md.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] pBytes) {
+        StringBuilder rVal = new StringBuilder();
+        for (byte b : pBytes) {
+            rVal.append(String.format("%02x", b));
+        }
+        return rVal.toString();
+    }
+
+    private static Properties load(Path pFile) throws IOException {
+        Properties rVal = new Properties();
+        if (Files.exists(pFile)) {
+            try (InputStream in = Files.newInputStream(pFile)) {
+                rVal.load(in);
+            }
+        }
+        return rVal;
+    }
+
+    /**
+     * Sorted and without the date Properties.store puts in, so recording again only shows what changed.
+     */
+    private static void store(Properties pProperties, Path pFile, String pComment) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# " + pComment);
+        for (String key : new TreeSet<>(pProperties.stringPropertyNames())) {
+            lines.add(key + "=" + pProperties.getProperty(key));
+        }
+        Files.write(pFile, lines, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,152 @@
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.fidelity.trades.portfolio.CorrelationJob;
+import com.gravanalitical.fidelity.trades.portfolio.CorrelationMatrix;
+import com.gravanalitical.fidelity.trades.portfolio.Portfolio;
+import com.gravanalitical.fidelity.trades.portfolio.PortfolioRollup;
+import com.gravanalitical.fidelity.trades.portfolio.TickerResult;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PortfolioTests {
+
+    private static TradeTotals dayTotals(int seed) {
+        TradeTotals rVal = new TradeTotals();
+        rVal.add(new TradeRecord("09:30:01", new BigDecimal("1.10"), BigDecimal.valueOf(seed), new BigDecimal("1.09"), new BigDecimal("1.10")));
+        rVal.add(new TradeRecord("09:30:02", new BigDecimal("1.09"), BigDecimal.valueOf(2L * seed), new BigDecimal("1.09"), new BigDecimal("1.10")));
+        return rVal;
+    }
+
+    @Test
+    public void TestRollupMatchesSequentialSums() {
+        List<TickerResult> results = new ArrayList<>();
+        TradeTotals expected = new TradeTotals();
+        TradeTotals expectedDay2 = new TradeTotals();
+        for (int t = 0; t < 100; t++) {
+            TickerResult result = new TickerResult(String.format("TK%03d", t));
+            for (int d = 1; d <= 3; d++) {
+                TradeTotals day = dayTotals(t * 10 + d);
+                result.addDay("2020010" + d, day);
+                expected.merge(day);
+                if (d == 2) {
+                    expectedDay2.merge(day);
+                }
+            }
+            results.add(result);
+        }
+
+        Portfolio portfolio = PortfolioRollup.rollup(results);
+        assertEquals(expected.getVolume(), portfolio.getTotals().getVolume());
+        assertEquals(expected.getBuyDollarVolume(), portfolio.getTotals().getBuyDollarVolume());
+        assertEquals(expected.getSellDollarVolume(), portfolio.getTotals().getSellDollarVolume());
+        assertEquals(3, portfolio.getByDay().size());
+        assertEquals(expectedDay2.getBuyVolume(), portfolio.getByDay().get("20200102").getBuyVolume());
+        assertEquals(100, portfolio.getByTicker().size());
+        assertEquals(results.get(42).getTotals().getDollarVolume(), portfolio.getByTicker().get("TK042").getDollarVolume());
+    }
+
+    /**
+     * A day of one buy and one sell, at the ask and at the bid.
+     */
+    private static TradeTotals buySell(int buy, int sell) {
+        TradeTotals rVal = new TradeTotals();
+        rVal.add(new TradeRecord("09:30:01", new BigDecimal("1.10"), BigDecimal.valueOf(buy), new BigDecimal("1.09"), new BigDecimal("1.10")));
+        rVal.add(new TradeRecord("09:30:02", new BigDecimal("1.09"), BigDecimal.valueOf(sell), new BigDecimal("1.09"), new BigDecimal("1.10")));
+        return rVal;
+    }
+
+    @Test
+    public void TestBuyPressureCorrelation() {
+        TickerResult a = new TickerResult("AAA");
+        TickerResult b = new TickerResult("BBB");
+        TickerResult c = new TickerResult("CCC");
+        for (int d = 1; d <= 9; d++) {
+            String day = "2020010" + d;
+            a.addDay(day, buySell(d * d, 100));
+            b.addDay(day, buySell(2 * d * d, 200));
+            c.addDay(day, buySell(100, d * d));
+        }
+        CorrelationMatrix matrix = CorrelationJob.buyPressure(Arrays.asList(a, b, c), 5, 10);
+        assertEquals(1.0, matrix.get(0, 1), 1e-6);
+        // the buys and sells are at different prices, so not quite -1.
+        assertTrue(matrix.get(2, 0) < -0.999);
+        assertEquals(3, matrix.getTopPairs().size());
+        assertEquals("AAA", matrix.getTopPairs().get(0).getTickerA());
+        assertEquals("BBB", matrix.getTopPairs().get(0).getTickerB());
+        assertEquals(9, matrix.getTopPairs().get(0).getDays());
+        assertTrue(Double.isNaN(CorrelationJob.buyPressure(Arrays.asList(a, b, c), 10, 10).get(0, 1)));
+    }
+
+    @Test
+    public void TestBlockedCorrelationMatchesPairwise() {
+        Random random = new Random(46L);
+        int n = 150;
+        int days = 60;
+        double[][] series = new double[n][days];
+        List<String> tickers = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            tickers.add(String.format("T%03d", i));
+            for (int t = 0; t < days; t++) {
+                series[i][t] = random.nextInt(5) == 0 ? Double.NaN : random.nextGaussian() + (i % 3) * Math.sin(t);
+            }
+        }
+        CorrelationMatrix matrix = CorrelationJob.correlate(tickers, series, 30, 25);
+        double highest = -2.0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                double expected = pairwise(series[i], series[j], 30);
+                if (Double.isNaN(expected)) {
+                    assertTrue(Double.isNaN(matrix.get(i, j)));
+                } else {
+                    assertEquals(expected, matrix.get(i, j), 1e-6);
+                    highest = Math.max(highest, expected);
+                }
+            }
+        }
+        assertEquals(25, matrix.getTopPairs().size());
+        assertEquals(highest, matrix.getTopPairs().get(0).getCorrelation(), 1e-9);
+        for (int k = 1; k < 25; k++) {
+            assertTrue(matrix.getTopPairs().get(k - 1).getCorrelation() >= matrix.getTopPairs().get(k).getCorrelation());
+        }
+    }
+
+    /**
+     * Two pass Pearson over the dates both have.
+     */
+    private static double pairwise(double[] x, double[] y, int minDays) {
+        int count = 0;
+        double sumX = 0.0;
+        double sumY = 0.0;
+        for (int t = 0; t < x.length; t++) {
+            if (!Double.isNaN(x[t]) && !Double.isNaN(y[t])) {
+                count++;
+                sumX += x[t];
+                sumY += y[t];
+            }
+        }
+        if (count < minDays) {
+            return Double.NaN;
+        }
+        double meanX = sumX / count;
+        double meanY = sumY / count;
+        double cov = 0.0;
+        double varX = 0.0;
+        double varY = 0.0;
+        for (int t = 0; t < x.length; t++) {
+            if (!Double.isNaN(x[t]) && !Double.isNaN(y[t])) {
+                cov += (x[t] - meanX) * (y[t] - meanY);
+                varX += (x[t] - meanX) * (x[t] - meanX);
+                varY += (y[t] - meanY) * (y[t] - meanY);
+            }
+        }
+        return cov / Math.sqrt(varX * varY);
+    }
+}
@@ -0,0 +1,108 @@
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
+import com.gravanalitical.fidelity.trades.server.QueryServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ServerTests {
+    private Path home;
+    private QueryServer server;
+    private String base;
+
+    @Before
+    public void setUp() throws IOException {
+        home = TestHomes.newHome("com.ga.fidelity.trades.server.threads=8");
+        Path input = TestHomes.inputDir(home, "TEST");
+        for (String day : new String[]{"02", "03", "06", "07"}) {
+            TestHomes.writeDay(input, "202001" + day + ".csv", TestHomes.dayExport("\"Date: 01/" + day + "/2020\"", TestHomes.TRADES));
+        }
+        GA_FidelityTradesConfig config = GA_FidelityTradesConfig.load(home.toString());
+        new TradeAnalysisEngine(config).analyze(Collections.singletonList("TEST"));
+        server = new QueryServer(config);
+        InetSocketAddress address = server.start(0);
+        assertTrue(address.toString(), address.getAddress().isLoopbackAddress());
+        base = "http://localhost:" + address.getPort();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop(0);
+        TestHomes.delete(home);
+    }
+
+    private String get(String path, int expectedStatus) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+        assertEquals(path, expectedStatus, connection.getResponseCode());
+        try (InputStream in = expectedStatus < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void TestAggregateQueries() throws IOException {
+        String all = get("/aggregate?ticker=TEST", 200);
+        assertTrue(all, all.startsWith("{\"ticker\":\"TEST\",\"from\":\"20200102\",\"to\":\"20200107\",\"days\":4,\"vwap\":1.09"));
+        assertTrue(all, all.contains(",\"volume\":1400,\"buyVolume\":400,"));
+        assertTrue(all, all.contains(",\"pctBuyVolume\":0.28571,"));
+
+        String range = get("/aggregate?ticker=TEST&from=20200103&to=20200106", 200);
+        assertTrue(range, range.contains("\"from\":\"20200103\",\"to\":\"20200106\",\"days\":2,"));
+        String last = get("/aggregate?ticker=TEST&days=3&to=20200106", 200);
+        assertTrue(last, last.contains("\"from\":\"20200102\",\"to\":\"20200106\",\"days\":3,"));
+
+        get("/aggregate?ticker=NONE", 404);
+        get("/aggregate?ticker=TEST&from=2020", 400);
+        get("/aggregate", 400);
+        get("/aggregate?ticker=%zz", 400);
+    }
+
+    @Test
+    public void TestConcurrentRequests() throws Exception {
+        int requests = 400;
+        ExecutorService clients = Executors.newFixedThreadPool(64);
+        try {
+            List<Future<String>> answers = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                answers.add(clients.submit(() -> get("/aggregate?ticker=TEST&days=2", 200)));
+            }
+            for (Future<String> answer : answers) {
+                assertTrue(answer.get().contains("\"days\":2,"));
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+        // a request is counted just after its answer is sent, and so are these.
+        String metrics = get("/metrics", 200);
+        for (int i = 0; i < 50 && requestCount(metrics) < requests; i++) {
+            Thread.sleep(20);
+            metrics = get("/metrics", 200);
+        }
+        assertTrue(metrics, requestCount(metrics) >= requests);
+        assertTrue(metrics, metrics.contains(",\"errors\":0,\"meanMillis\":"));
+        assertTrue(metrics, metrics.contains("\"p99Millis\":"));
+    }
+
+    private static long requestCount(String metrics) {
+        int start = metrics.indexOf(':') + 1;
+        return Long.parseLong(metrics.substring(start, metrics.indexOf(',', start)));
+    }
+}
@@ -0,0 +1,145 @@
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.fidelity.trades.shard.ShardMerge;
+import com.gravanalitical.fidelity.trades.shard.TickerLeases;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShardTests {
+    private static final int TICKERS = 6;
+    private static final int WORKERS = 3;
+
+    private Path home;
+
+    @Before
+    public void setUp() throws IOException {
+        home = TestHomes.newHome();
+        for (int t = 0; t < TICKERS; t++) {
+            Path input = TestHomes.inputDir(home, "TK" + t);
+            for (int d = 1; d <= 2; d++) {
+                TestHomes.writeDay(input, "2020010" + d + ".csv", TestHomes.dayExport("\"Date: 01/0" + d + "/2020\"",
+                        TestHomes.TRADES[0], TestHomes.TRADES[1]));
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestHomes.delete(home);
+    }
+
+    private Process startMain(String option, File log) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "-Dcom.ga.fidelity.trades.home=" + home, Main.class.getName(), option);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(log);
+        return pb.start();
+    }
+
+    @Test
+    public void TestWorkersClaimEachTickerOnce() throws Exception {
+        List<Process> workers = new ArrayList<>();
+        List<File> logs = new ArrayList<>();
+        for (int w = 0; w < WORKERS; w++) {
+            File log = Files.createTempFile("shard-worker", ".log").toFile();
+            logs.add(log);
+            workers.add(startMain(Main.SHARD_OPTION, log));
+        }
+        for (Process worker : workers) {
+            assertTrue(worker.waitFor(2, TimeUnit.MINUTES));
+        }
+
+        int[] claims = new int[TICKERS];
+        Pattern claimed = Pattern.compile("TK(\\d) claimed by");
+        for (File log : logs) {
+            for (String line : Files.readAllLines(log.toPath(), Charset.defaultCharset())) {
+                Matcher m = claimed.matcher(line);
+                if (m.find()) {
+                    claims[Integer.parseInt(m.group(1))]++;
+                }
+            }
+            log.delete();
+        }
+        for (int t = 0; t < TICKERS; t++) {
+            assertEquals("claims for TK" + t, 1, claims[t]);
+            assertTrue(Files.exists(TickerLeases.leaseDir(home.toString()).resolve("TK" + t + ".done")));
+        }
+
+        // a ticker of another batch, not in this home, keeps its marker.
+        Path otherDone = Files.createFile(TickerLeases.leaseDir(home.toString()).resolve("OTHER.done"));
+        File mergeLog = Files.createTempFile("shard-merge", ".log").toFile();
+        Process merge = startMain(Main.MERGE_OPTION, mergeLog);
+        assertTrue(merge.waitFor(2, TimeUnit.MINUTES));
+        assertEquals(0, merge.exitValue());
+        mergeLog.delete();
+
+        List<String> merged = Files.readAllLines(home.resolve(ShardMerge.MERGED_FILE_NAME), Charset.defaultCharset());
+        assertEquals(1 + TICKERS * 2, merged.size());
+        assertTrue(merged.get(1).startsWith("TK0,1,"));
+        try (Stream<Path> left = Files.list(TickerLeases.leaseDir(home.toString()))) {
+            assertEquals(List.of(otherDone), left.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void TestFailedTickerIsPickedUpAgain() throws Exception {
+        // an output file that cannot be opened fails the ticker.
+        Path blocked = Files.createDirectory(home.resolve("TK0").resolve("TK0.csv"));
+        File log = Files.createTempFile("shard-worker", ".log").toFile();
+        try {
+            Process worker = startMain(Main.SHARD_OPTION, log);
+            assertTrue(worker.waitFor(2, TimeUnit.MINUTES));
+            Path leaseDir = TickerLeases.leaseDir(home.toString());
+            assertFalse(Files.exists(leaseDir.resolve("TK0.done")));
+            assertFalse(Files.exists(leaseDir.resolve("TK0.lease")));
+            assertTrue(Files.exists(leaseDir.resolve("TK1.done")));
+
+            Files.delete(blocked);
+            worker = startMain(Main.SHARD_OPTION, log);
+            assertTrue(worker.waitFor(2, TimeUnit.MINUTES));
+            assertTrue(Files.exists(leaseDir.resolve("TK0.done")));
+            assertEquals(3, Files.readAllLines(home.resolve("TK0").resolve("TK0.csv"), Charset.defaultCharset()).size());
+        } finally {
+            log.delete();
+        }
+    }
+
+    @Test
+    public void TestStaleLeaseIsReclaimed() throws Exception {
+        Path leaseDir = Files.createDirectories(TickerLeases.leaseDir(home.toString()));
+        Path lease = leaseDir.resolve("TK0.lease");
+        Files.write(lease, "1@crashed".getBytes(StandardCharsets.UTF_8));
+
+        try (TickerLeases leases = new TickerLeases(home.toString(), "2@test", 60)) {
+            assertFalse(leases.claim("TK0"));
+
+            Files.setLastModifiedTime(lease, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5)));
+            assertTrue(leases.claim("TK0"));
+            assertEquals("2@test", new String(Files.readAllBytes(lease), StandardCharsets.UTF_8));
+
+            leases.complete("TK0");
+            assertFalse(leases.claim("TK0"));
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.collections.LongLongHashMap;
+import com.gravanalitical.stats.QuantileSketch;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StatsTests {
+
+    private static double exact(double[] sorted, double q) {
+        return sorted[(int) (q * (sorted.length - 1))];
+    }
+
+    @Test
+    public void TestSketchWithinAccuracy() {
+        Random random = new Random(36L);
+        double[] values = new double[100000];
+        QuantileSketch whole = new QuantileSketch();
+        QuantileSketch[] parts = {new QuantileSketch(), new QuantileSketch(), new QuantileSketch()};
+        for (int i = 0; i < values.length; i++) {
+            // lots of round lots with the odd block, like trade sizes.
+            values[i] = random.nextInt(50) == 0 ? 10000 + random.nextInt(90000) : 100 * (1 + random.nextInt(10));
+            whole.add(values[i]);
+            parts[i % parts.length].add(values[i]);
+        }
+        QuantileSketch merged = new QuantileSketch();
+        for (QuantileSketch part : parts) {
+            merged.merge(part);
+        }
+        Arrays.sort(values);
+        for (double q : new double[]{0.0, 0.1, 0.5, 0.9, 0.99, 1.0}) {
+            double expected = exact(values, q);
+            assertTrue("q=" + q, Math.abs(whole.quantile(q) - expected) <= expected * QuantileSketch.DEFAULT_ACCURACY);
+            assertEquals(whole.quantile(q), merged.quantile(q), 0.0);
+        }
+        assertEquals(values.length, merged.getCount());
+    }
+
+    @Test
+    public void TestSketchOverWideRange() {
+        QuantileSketch sketch = new QuantileSketch(0.05);
+        for (int e = -300; e <= 300; e++) {
+            sketch.add(Math.pow(10, e));
+        }
+        sketch.add(0.0);
+        assertEquals(0.0, sketch.quantile(0.0), 0.0);
+        double max = sketch.quantile(1.0);
+        assertTrue(Math.abs(max - 1e300) <= 1e300 * 0.05);
+    }
+
+    @Test
+    public void TestLongLongHashMapMatchesHashMap() {
+        Random random = new Random(37L);
+        LongLongHashMap map = new LongLongHashMap();
+        Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            long key = random.nextInt(3) == 0 ? random.nextInt(500) : random.nextLong();
+            long delta = random.nextInt(1000);
+            expected.merge(key, delta, Long::sum);
+            assertEquals((long) expected.get(key), map.addTo(key, delta));
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key : map.keys()) {
+            assertEquals((long) expected.get(key), map.get(key));
+        }
+        assertEquals(0L, map.get(Long.MIN_VALUE + 7));
+    }
+
+    private static TradeRecord trade(String price, int size, String bid, String ask) {
+        return new TradeRecord("09:30:00", new BigDecimal(price), BigDecimal.valueOf(size), new BigDecimal(bid), new BigDecimal(ask));
+    }
+
+    @Test
+    public void TestVolumeProfile() {
+        VolumeProfile day1 = new VolumeProfile(4);
+        day1.add(trade("1.10", 100, "1.09", "1.10"));
+        day1.add(trade("1.1", 300, "1.09", "1.11"));
+        day1.add(trade("1.0905", 200, "1.09", "1.10"));
+        VolumeProfile day2 = new VolumeProfile(4);
+        day2.add(trade("1.0905", 500, "1.0905", "1.10"));
+
+        assertArrayEquals(new long[]{10905L, 11000L}, day1.getLevels());
+        assertEquals(11000L, day1.getPointOfControl());
+        assertEquals(400L, day1.getVolume(11000L));
+        assertEquals(100L, day1.getBuyVolume(11000L));
+        assertEquals(300L, day1.getUnknownVolume(11000L));
+
+        day1.merge(day2);
+        assertEquals(10905L, day1.getPointOfControl());
+        assertEquals(500L, day1.getSellVolume(10905L));
+        assertEquals(new BigDecimal("1.0905"), day1.toPrice(10905L));
+    }
+
+    @Test
+    public void TestLargestTradesMatchSort() {
+        Random random = new Random(38L);
+        List<TradeRecord> trades = new ArrayList<>();
+        LargestTrades whole = new LargestTrades(5);
+        LargestTrades[] parts = {new LargestTrades(5), new LargestTrades(5), new LargestTrades(5)};
+        for (int i = 0; i < 20000; i++) {
+            // few distinct sizes and times, so there are ties to break; 9:59:00 is before 10:00:00.
+            TradeRecord trade = new TradeRecord(String.format("%d:%02d:00", 9 + random.nextInt(2), random.nextInt(60)),
+                    BigDecimal.valueOf(100 + random.nextInt(20), 2), BigDecimal.valueOf(100 * (1 + random.nextInt(100))),
+                    BigDecimal.ZERO, BigDecimal.ZERO);
+            trades.add(trade);
+            whole.offer(trade.getSize().doubleValue(), trade);
+            parts[random.nextInt(parts.length)].offer(trade.getSize().doubleValue(), trade);
+        }
+        LargestTrades merged = new LargestTrades(5);
+        for (LargestTrades part : parts) {
+            merged.merge(part);
+        }
+        trades.sort(Comparator.comparing(TradeRecord::getSize).reversed()
+                .thenComparingInt(trade -> QuoteStats.secondsOf(trade.getTimeStr()))
+                .thenComparing(TradeRecord::getPrice, Comparator.reverseOrder()));
+        assertEquals(trades.subList(0, 5), whole.getTrades());
+        assertEquals(whole.getTrades(), merged.getTrades());
+    }
+
+    private static TradeRecord quoted(String time, String price, String bid, String ask) {
+        return new TradeRecord(time, new BigDecimal(price), BigDecimal.valueOf(100), new BigDecimal(bid), new BigDecimal(ask));
+    }
+
+    @Test
+    public void TestQuoteStats() {
+        TradeRecord[] trades = {
+                quoted("09:30:00", "1.00", "0.99", "1.01"),
+                quoted("09:30:10", "1.03", "1.00", "1.02"),
+                quoted("09:30:30", "1.00", "0", "0"),
+                quoted("09:30:40", "1.01", "1.00", "1.04")};
+        QuoteStats oldestFirst = new QuoteStats();
+        QuoteStats newestFirst = new QuoteStats();
+        for (int i = 0; i < trades.length; i++) {
+            oldestFirst.add(trades[i]);
+            newestFirst.add(trades[trades.length - 1 - i]);
+        }
+        assertEquals(new BigDecimal("0.026667"), oldestFirst.getAverageSpread());
+        assertEquals(new BigDecimal("0.020000"), oldestFirst.getTimeWeightedSpread());
+        assertEquals(new BigDecimal("0.020000"), oldestFirst.getAverageEffectiveSpread());
+        assertEquals(new BigDecimal("0.0198020"), oldestFirst.getRelativeEffectiveSpread());
+        assertEquals(new BigDecimal("0.25000"), oldestFirst.getPctNoQuote());
+        assertEquals(new BigDecimal("0.33333"), oldestFirst.getPctOutsideQuote());
+        assertEquals(oldestFirst.getTimeWeightedSpread(), newestFirst.getTimeWeightedSpread());
+
+        QuoteStats joined = new QuoteStats();
+        QuoteStats second = new QuoteStats();
+        joined.add(trades[0]);
+        second.add(trades[1]);
+        second.add(trades[2]);
+        joined.append(second);
+        QuoteStats third = new QuoteStats();
+        third.add(trades[3]);
+        joined.append(third);
+        assertEquals(oldestFirst.getTimeWeightedSpread(), joined.getTimeWeightedSpread());
+        assertEquals(oldestFirst.getRelativeEffectiveSpread(), joined.getRelativeEffectiveSpread());
+    }
+
+    @Test
+    public void TestRollingWindowsMatchRecomputed() {
+        Random random = new Random(47L);
+        int[] lengths = {1, 5, 20};
+        RollingWindows rolling = new RollingWindows(lengths, 8);
+        List<TradeTotals> days = new ArrayList<>();
+        for (int d = 0; d < 60; d++) {
+            BigDecimal buy = BigDecimal.valueOf(100 * random.nextInt(50));
+            BigDecimal sell = BigDecimal.valueOf(100 * (1 + random.nextInt(50)));
+            BigDecimal price = BigDecimal.valueOf(1000 + random.nextInt(100), 2);
+            TradeTotals day = new TradeTotals(buy.add(sell), buy, sell, BigDecimal.ZERO,
+                    buy.add(sell).multiply(price), buy.multiply(price), sell.multiply(price), BigDecimal.ZERO);
+            days.add(day);
+            RollingWindows.Values values = rolling.add(day);
+            for (int w = 0; w < lengths.length; w++) {
+                if (days.size() < lengths[w]) {
+                    assertEquals(null, values.getVwap(w));
+                    continue;
+                }
+                List<TradeTotals> window = days.subList(days.size() - lengths[w], days.size());
+                TradeTotals sum = new TradeTotals();
+                double[] volumes = new double[window.size()];
+                for (int i = 0; i < window.size(); i++) {
+                    sum.merge(window.get(i));
+                    volumes[i] = window.get(i).getVolume().doubleValue();
+                }
+                assertEquals(0, sum.getDollarVolume().divide(sum.getVolume(), 8, java.math.RoundingMode.HALF_UP)
+                        .compareTo(values.getVwap(w)));
+                assertEquals(0, sum.getBuyDollarVolume().divide(sum.getSellDollarVolume(), 8, java.math.RoundingMode.HALF_UP)
+                        .compareTo(values.getBuySellRatio(w)));
+                if (lengths[w] == 1) {
+                    assertEquals(null, values.getVolumeZ(w));
+                } else {
+                    double mean = Arrays.stream(volumes).average().getAsDouble();
+                    double sd = Math.sqrt(Arrays.stream(volumes).map(v -> (v - mean) * (v - mean)).sum() / volumes.length);
+                    assertEquals((volumes[volumes.length - 1] - mean) / sd, values.getVolumeZ(w).doubleValue(), 1e-4);
+                }
+            }
+        }
+    }
+}
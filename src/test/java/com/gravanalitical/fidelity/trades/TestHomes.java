@@ -0,0 +1,86 @@
+package com.gravanalitical.fidelity.trades;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Builds throw away home directories laid out the way Main expects them, with day files
+ * shaped like the ActiveTraderPro export.
+ */
+class TestHomes {
+
+    static final String TERMINATOR = "\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",";
+
+    /**
+     * A day of three trades, time, price, size, bid, ask: a buy at the ask, a sell at the bid and one
+     * inside the quote, 350 shares.
+     */
+    static final String[][] TRADES = {
+            {"09:30:01", "1.10", "100", "1.09", "1.10"},
+            {"09:30:02", "1.09", "200", "1.09", "1.10"},
+            {"09:30:03", "1.095", "50", "1.09", "1.10"}
+    };
+
+    static Path newHome(String... extraProperties) throws IOException {
+        Path home = Files.createTempDirectory("fidelity-home");
+        StringBuilder props = new StringBuilder();
+        // a key given twice becomes a list, so an extra include replaces the default one.
+        if (Arrays.stream(extraProperties).noneMatch(extra -> extra.startsWith("com.ga.fidelity.trades.include="))) {
+            props.append("com.ga.fidelity.trades.include=false\n");
+        }
+        props.append("com.ga.fidelity.trades.output.header1=\"\",\"Date\",\"Avg Price\",\"Volume\",\"Buy\",\"Sell\",\"???\",\"DV\",\"DV Buy\",\"DV Sell\",\"DV ???\",\"Pct Buy\",\"Pct Sell\",\"Pct ???\",\"DV-Pct Buy\",\"DV-Pct Sell\",\"DV-Pct ???\"\n");
+        props.append("com.ga.fidelity.trades.skip.header=9\n");
+        props.append("com.ga.fidelity.trades.scale=8\n");
+        props.append("com.ga.fidelity.trades.date.line.number=2\n");
+        for (String extra : extraProperties) {
+            props.append(extra).append('\n');
+        }
+        Files.write(home.resolve("fidelity.properties"), props.toString().getBytes(StandardCharsets.UTF_8));
+        return home;
+    }
+
+    static Path inputDir(Path home, String ticker) throws IOException {
+        return Files.createDirectories(home.resolve(ticker).resolve("input"));
+    }
+
+    /**
+     * @param trades rows of time, price, size, bid, ask
+     * @return the export text for one day
+     */
+    static String dayExport(String date, String[]... trades) {
+        StringBuilder buf = new StringBuilder();
+        buf.append("\"Time & Sales\"\n");
+        buf.append("\"Symbol\"\n");
+        buf.append(date).append('\n');
+        for (int i = 3; i < 9; i++) {
+            buf.append("\"\"\n");
+        }
+        buf.append("\"Time\",\"Last Price\",\"Last Size\",\"Bid Price\",\"Ask Price\",\n");
+        for (String[] trade : trades) {
+            for (String field : trade) {
+                buf.append('"').append(field).append("\",");
+            }
+            buf.append('\n');
+        }
+        buf.append(TERMINATOR).append('\n');
+        return buf.toString();
+    }
+
+    static File writeDay(Path dir, String fileName, String export) throws IOException {
+        Path file = dir.resolve(fileName);
+        Files.write(file, export.getBytes(StandardCharsets.UTF_8));
+        return file.toFile();
+    }
+
+    static void delete(Path home) throws IOException {
+        try (Stream<Path> paths = Files.walk(home)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.gravanalitical.fidelity.trades;
+
+import com.gravanalitical.fidelity.trades.config.GA_FidelityTradesConfig;
+import com.gravanalitical.fidelity.trades.format.TradeDayFormatFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TradeDayTests {
+    /**
+     * In time order. Without quotes or between them, these need the tick test.
+     */
+    private static final String[][] TICK_TRADES = {
+            {"09:30:01", "1.00", "10", "", ""},
+            {"09:30:02", "1.02", "20", "", ""},
+            {"09:30:03", "1.02", "30", "", ""},
+            {"09:30:04", "1.01", "40", "", ""},
+            {"09:30:05", "1.01", "50", "1.00", "1.01"},
+            {"09:30:06", "1.005", "60", "1.00", "1.01"},
+            {"09:30:07", "1.008", "70", "1.00", "1.01"},
+            {"09:30:08", "1.007", "80", "1.00", "1.01"}
+    };
+
+    private Path home;
+    private Path input;
+    private GA_FidelityTradesConfig config;
+
+    @Before
+    public void setUp() throws IOException {
+        home = TestHomes.newHome();
+        input = TestHomes.inputDir(home, "TEST");
+        config = GA_FidelityTradesConfig.init(home.toString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestHomes.delete(home);
+    }
+
+    private void assertDay(TradeDay aDay) {
+        assertEquals("\"Date: 01/02/2020\"", aDay.getDateStr());
+        assertEquals(0, new BigDecimal("350").compareTo(aDay.getVolume()));
+        assertEquals(0, new BigDecimal("100").compareTo(aDay.getBuyVolume()));
+        assertEquals(0, new BigDecimal("200").compareTo(aDay.getSellVolume()));
+        assertEquals(0, new BigDecimal("50").compareTo(aDay.getUnknownVolume()));
+    }
+
+    private TradeDay processWith(String[][] trades, String... properties) throws IOException {
+        Path otherHome = TestHomes.newHome(properties);
+        try {
+            GA_FidelityTradesConfig otherConfig = GA_FidelityTradesConfig.init(otherHome.toString());
+            File file = TestHomes.writeDay(TestHomes.inputDir(otherHome, "TEST"), "20200102.csv",
+                    TestHomes.dayExport("\"Date: 01/02/2020\"", trades));
+            TradeDay aDay = new TradeDay(file, otherConfig);
+            aDay.process();
+            return aDay;
+        } finally {
+            TestHomes.delete(otherHome);
+        }
+    }
+
+    private static String[][] reversed(String[][] trades) {
+        String[][] rVal = new String[trades.length][];
+        for (int i = 0; i < trades.length; i++) {
+            rVal[i] = trades[trades.length - 1 - i];
+        }
+        return rVal;
+    }
+
+    private static void assertSplit(TradeDay aDay, int buy, int sell, int unknown) {
+        assertEquals(0, BigDecimal.valueOf(buy).compareTo(aDay.getBuyVolume()));
+        assertEquals(0, BigDecimal.valueOf(sell).compareTo(aDay.getSellVolume()));
+        assertEquals(0, BigDecimal.valueOf(unknown).compareTo(aDay.getUnknownVolume()));
+    }
+
+    @Test
+    public void TestQuoteRule() throws IOException {
+        assertSplit(processWith(TICK_TRADES), 50, 0, 310);
+    }
+
+    @Test
+    public void TestTickRuleOldestFirst() throws IOException {
+        TradeDay aDay = processWith(TICK_TRADES,
+                "com.ga.fidelity.trades.sentiment.rule=TICK", "com.ga.fidelity.trades.input.order=OLDEST_FIRST");
+        assertSplit(aDay, 170, 180, 10);
+    }
+
+    @Test
+    public void TestTickRuleNewestFirst() throws IOException {
+        TradeDay aDay = processWith(reversed(TICK_TRADES),
+                "com.ga.fidelity.trades.sentiment.rule=TICK", "com.ga.fidelity.trades.input.order=NEWEST_FIRST");
+        assertSplit(aDay, 170, 180, 10);
+        assertEquals(TradeRecord.BuySell.SELL, aDay.getTradeList().get(0).sentiment());
+        assertEquals(TradeRecord.BuySell.UNKOWN, aDay.getTradeList().get(TICK_TRADES.length - 1).sentiment());
+    }
+
+    @Test
+    public void TestLeeReadyRule() throws IOException {
+        TradeDay aDay = processWith(reversed(TICK_TRADES), "com.ga.fidelity.trades.sentiment.rule=LEE_READY");
+        assertSplit(aDay, 250, 100, 10);
+    }
+
+    private static String[][] randomTrades(long seed, int count) {
+        Random random = new Random(seed);
+        String[][] rVal = new String[count][];
+        int cents = 100;
+        for (int i = 0; i < count; i++) {
+            cents = Math.max(1, cents + random.nextInt(3) - 1);
+            int bid = cents - random.nextInt(2);
+            int ask = bid + 1 + random.nextInt(2);
+            boolean noQuote = random.nextInt(10) == 0;
+            rVal[i] = new String[]{String.format("09:%02d:%02d", i / 60 % 60, i % 60),
+                    BigDecimal.valueOf(cents, 2).toPlainString(), String.valueOf(100 * (1 + random.nextInt(50))),
+                    noQuote ? "" : BigDecimal.valueOf(bid, 2).toPlainString(),
+                    noQuote ? "" : BigDecimal.valueOf(ask, 2).toPlainString()};
+        }
+        return rVal;
+    }
+
+    private static void assertSameDay(TradeDay expected, TradeDay actual) {
+        assertEquals(expected.getDateStr(), actual.getDateStr());
+        assertEquals(expected.getVolume(), actual.getVolume());
+        assertEquals(expected.getBuyVolume(), actual.getBuyVolume());
+        assertEquals(expected.getSellVolume(), actual.getSellVolume());
+        assertEquals(expected.getUnknownVolume(), actual.getUnknownVolume());
+        assertEquals(expected.getDollarVolume(), actual.getDollarVolume());
+        assertEquals(expected.getBuyDollarVolume(), actual.getBuyDollarVolume());
+        assertEquals(expected.getSellDollarVolume(), actual.getSellDollarVolume());
+        assertEquals(expected.getUnknownDollarVolume(), actual.getUnknownDollarVolume());
+        for (double q : TradeStats.QUANTILES) {
+            assertEquals(expected.getStats().getSizeQuantile(q), actual.getStats().getSizeQuantile(q));
+            assertEquals(expected.getStats().getPriceQuantile(q), actual.getStats().getPriceQuantile(q));
+        }
+        assertEquals(expected.getQuotes().getAverageSpread(), actual.getQuotes().getAverageSpread());
+        assertEquals(expected.getQuotes().getTimeWeightedSpread(), actual.getQuotes().getTimeWeightedSpread());
+        assertEquals(expected.getQuotes().getRelativeEffectiveSpread(), actual.getQuotes().getRelativeEffectiveSpread());
+        assertEquals(expected.getQuotes().getPctNoQuote(), actual.getQuotes().getPctNoQuote());
+        assertEquals(expected.getTradeList().size(), actual.getTradeList().size());
+        for (int i = 0; i < expected.getTradeList().size(); i++) {
+            assertEquals(expected.getTradeList().get(i).toString(), actual.getTradeList().get(i).toString());
+        }
+    }
+
+    @Test
+    public void TestChunkedParseMatchesSequential() throws IOException {
+        String[][] trades = randomTrades(26L, 5000);
+        for (String rule : new String[]{"QUOTE", "TICK", "LEE_READY"}) {
+            for (String order : new String[]{"NEWEST_FIRST", "OLDEST_FIRST"}) {
+                String[] common = {"com.ga.fidelity.trades.sentiment.rule=" + rule, "com.ga.fidelity.trades.input.order=" + order};
+                TradeDay sequential = processWith(trades, append(common, "com.ga.fidelity.trades.parse.parallel.bytes=0"));
+                TradeDay chunked = processWith(trades, append(common,
+                        "com.ga.fidelity.trades.parse.parallel.bytes=1", "com.ga.fidelity.trades.parse.chunk.bytes=997"));
+                assertSameDay(sequential, chunked);
+            }
+        }
+    }
+
+    private static String[] append(String[] first, String... more) {
+        String[] rVal = Arrays.copyOf(first, first.length + more.length);
+        System.arraycopy(more, 0, rVal, first.length, more.length);
+        return rVal;
+    }
+
+    @Test
+    public void TestPlainInput() throws IOException {
+        File file = TestHomes.writeDay(input, "20200102.csv", TestHomes.dayExport("\"Date: 01/02/2020\"", TestHomes.TRADES));
+        TradeDay aDay = new TradeDay(file, config);
+        aDay.process();
+        assertDay(aDay);
+    }
+
+    @Test
+    public void TestJsonFormat() throws IOException {
+        File file = TestHomes.writeDay(input, "20200102.csv", TestHomes.dayExport("\"Date: 01/02/2020\"", TestHomes.TRADES));
+        TradeDay aDay = new TradeDay(file, config);
+        aDay.process();
+        aDay.setDayOrdinal(1);
+        String json = TradeDayFormatFactory.getJsonFormatter().formatTradeDay(aDay);
+        assertTrue(json, json.startsWith("{\"type\":\"day\",\"ordinal\":1,\"day\":\"20200102\",\"avgPrice\":1.09"));
+        assertTrue(json, json.contains(",\"volume\":350,\"buyVolume\":100,\"sellVolume\":200,\"unknownVolume\":50,"));
+        assertTrue(json, json.endsWith("}"));
+    }
+
+    @Test
+    public void TestGzipInput() throws IOException {
+        File file = input.resolve("20200102.csv.gz").toFile();
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            out.write(TestHomes.dayExport("\"Date: 01/02/2020\"", TestHomes.TRADES).getBytes(StandardCharsets.UTF_8));
+        }
+        TradeDay aDay = new TradeDay(file, config);
+        aDay.process();
+        assertDay(aDay);
+    }
+
+    @Test
+    public void TestZipInput() throws IOException {
+        File file = input.resolve("20200102.zip").toFile();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            out.putNextEntry(new ZipEntry("archive/"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("archive/20200102.csv"));
+            out.write(TestHomes.dayExport("\"Date: 01/02/2020\"", TestHomes.TRADES).getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        TradeDay aDay = new TradeDay(file, config);
+        aDay.process();
+        assertDay(aDay);
+    }
+}